@@ -9,46 +9,187 @@
  * - Prevenzione di race condition e deadlock
  */
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.Random;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.Reference;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 public class ES01_SistemaBancarioConcorrente {
     // Logger thread-safe per il monitoraggio
     private static final Logger LOGGER = Logger.getLogger(ES01_SistemaBancarioConcorrente.class.getName());
     
-    // Configurazione del logger
+    // Transazioni che un motore accetta senza averle ancora prelevate (-DcapacitaCoda)
+    static final int QUEUE_CAPACITY = Integer.getInteger("capacitaCoda", 4096);
+    
+    // Configurazione del logger: sulla console, oppure con -Dlog=asincrono su
+    // file tramite AsyncLogHandler (-DlogFile, -DlogBuffer, -DlogPieno=scarta|attendi,
+    // -DlogMaxMB, -DlogNumeroFile)
     static {
         LOGGER.setLevel(Level.ALL);
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setFormatter(new SimpleFormatter());
+        Handler handler = "asincrono".equals(System.getProperty("log")) ? createAsyncHandler() : null;
+        if (handler == null) {
+            handler = new ConsoleHandler();
+            handler.setFormatter(new SimpleFormatter());
+        }
         handler.setLevel(Level.ALL);
         LOGGER.addHandler(handler);
         LOGGER.setUseParentHandlers(false);
     }
     
-    public static void main(String[] args) throws InterruptedException {
+    private static Handler createAsyncHandler() {
+        try {
+            AsyncLogHandler handler = new AsyncLogHandler(
+                Paths.get(System.getProperty("logFile", "banca")),
+                Integer.getInteger("logBuffer", 1 << 16),
+                "attendi".equals(System.getProperty("logPieno")) ? AsyncLogHandler.OverflowPolicy.BLOCK
+                                                                 : AsyncLogHandler.OverflowPolicy.DROP,
+                Long.getLong("logMaxMB", 16L) << 20,
+                Integer.getInteger("logNumeroFile", 5));
+            // Scrive i record rimasti nel buffer all'uscita
+            Runtime.getRuntime().addShutdownHook(new Thread(handler::close));
+            return handler;
+        } catch (IOException e) {
+            System.err.println("Log asincrono non disponibile, uso la console: " + e);
+            return null;
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            AccountBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("memoria")) {
+            MemoryReport.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("compensazione")) {
+            NettingBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("motori")) {
+            EngineBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("generatore")) {
+            GeneratorBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("log")) {
+            LoggingBenchmark.run(Paths.get(args.length > 1 ? args[1] : "log-bench"));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("caldi")) {
+            HotAccountBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("giornale")) {
+            JournalBenchmark.run(Paths.get(args.length > 1 ? args[1] : "giornale-bench"));
+            return;
+        }
+        
         System.out.println("Simulazione di Sistema Bancario Concorrente");
         System.out.println("==========================================");
         
-        // Inizializza il sistema bancario
-        BankSystem bankSystem = new BankSystem();
+        // Inizializza il sistema bancario (-Dlotto=N elabora fino a N transazioni per volta)
+        BankSystem bankSystem = new BankSystem(Integer.getInteger("lotto", 1));
+        
+        // -Dmotore=partizioni sostituisce i lock dei conti con il motore partizionato,
+        // -Dmotore=tabella con la tabella compatta a lock a strisce (-Dprocessori=N)
+        if ("partizioni".equals(System.getProperty("motore"))) {
+            int partitions = Integer.getInteger("partizioni", Runtime.getRuntime().availableProcessors());
+            bankSystem.setEngine(new ShardEngine(partitions, bankSystem::recordResult));
+        } else if ("tabella".equals(System.getProperty("motore"))) {
+            int processors = Integer.getInteger("processori", Runtime.getRuntime().availableProcessors());
+            bankSystem.setEngine(new TableEngine(processors, bankSystem::recordResult));
+        }
+        
+        // -Dgiornale=<directory> riprende i saldi salvati e registra le operazioni
+        String journalDirectory = System.getProperty("giornale");
+        if (journalDirectory != null) {
+            bankSystem.openJournal(Paths.get(journalDirectory), Long.getLong("istantaneaMs", 5000L));
+            
+            // -Dstorico=giornale conserva nel giornale le voci di cronologia più vecchie
+            if ("giornale".equals(System.getProperty("storico"))) {
+                bankSystem.spillHistoryToJournal();
+            }
+        }
+        
+        // -Dritmo=N genera N transazioni al secondo (-Dproduttori, -Dtheta > 0 per la scelta Zipfiana)
+        if (System.getProperty("ritmo") != null) {
+            bankSystem.useLoadGenerator(Double.parseDouble(System.getProperty("ritmo")),
+                                        Integer.getInteger("produttori", 1),
+                                        Double.parseDouble(System.getProperty("theta", "0")));
+        }
+        
+        // -Dcaldi=K suddivide in K sotto-saldi i conti con almeno -DsogliaCaldo
+        // trasferimenti ogni -DintervalloCaldoMs
+        if (System.getProperty("caldi") != null) {
+            bankSystem.enableHotAccounts(Integer.getInteger("caldi"), Long.getLong("sogliaCaldo", 1000L),
+                                         Long.getLong("intervalloCaldoMs", 500L));
+        }
         
-        // Crea alcuni conti di esempio
-        bankSystem.createAccount("Alice", 1000.0);
-        bankSystem.createAccount("Bob", 1500.0);
-        bankSystem.createAccount("Charlie", 2000.0);
-        bankSystem.createAccount("Diana", 3000.0);
+        // Crea alcuni conti di esempio (se non sono stati ripresi dal giornale)
+        if (bankSystem.getAccountCount() == 0) {
+            bankSystem.createAccount("Alice", 1000.0);
+            bankSystem.createAccount("Bob", 1500.0);
+            bankSystem.createAccount("Charlie", 2000.0);
+            bankSystem.createAccount("Diana", 3000.0);
+        }
         
         System.out.println("\nConti creati. Avvio simulazione...");
         
@@ -65,6 +206,10 @@ public class ES01_SistemaBancarioConcorrente {
         System.out.println("\nStato finale dei conti:");
         bankSystem.printAccountStatus();
         
+        // Stampa la cronologia di un conto
+        System.out.println("\nUltime operazioni di Alice:");
+        bankSystem.printAccountHistory("Alice");
+        
         // Stampa statistiche
         System.out.println("\nStatistiche delle transazioni:");
         bankSystem.printTransactionStatistics();
@@ -77,8 +222,10 @@ public class ES01_SistemaBancarioConcorrente {
         // Mappa thread-safe per i conti bancari
         private final ConcurrentHashMap<String, BankAccount> accounts = new ConcurrentHashMap<>();
         
-        // Coda delle transazioni da elaborare
+        // Coda delle transazioni da elaborare; LockEngine.submit vi inserisce
+        // al più QUEUE_CAPACITY transazioni non ancora prelevate
         private final BlockingQueue<Transaction> transactionQueue = new LinkedBlockingQueue<>();
+        private final Semaphore queueSlots = new Semaphore(QUEUE_CAPACITY);
         
         // Pool di thread per elaborare le transazioni
         private final ExecutorService transactionProcessors;
@@ -89,12 +236,54 @@ public class ES01_SistemaBancarioConcorrente {
         // Flag per controllare l'esecuzione della simulazione
         private volatile boolean isRunning = false;
         
+        // Proprietari dei conti in un array indicizzato, ricostruito solo
+        // quando il numero di conti cambia
+        private volatile String[] ownerIndex = new String[0];
+        
+        // Generatore ad alto ritmo che sostituisce quello periodico (se configurato)
+        private double loadRate;
+        private int loadProducers;
+        private double loadZipfTheta;
+        private volatile TransactionGenerator loadGenerator;
+        
+        // Numero massimo di transazioni elaborate insieme da un processore
+        private final int batchSize;
+        
+        // Motore che esegue le transazioni generate
+        private TransactionEngine engine = new LockEngine();
+        
+        // Giornale persistente (null se il sistema non è persistente)
+        private TransactionJournal journal;
+        private ScheduledExecutorService snapshotScheduler;
+        
+        // Destinazione delle voci di cronologia in eccesso (null: vengono sovrascritte)
+        private HistorySink historySink;
+        
+        // Directory del giornale, dove resta la cronologia in eccesso anche dopo la chiusura
+        private Path journalDirectory;
+        
+        // Modalità conti caldi (null se disattivata)
+        private ScheduledExecutorService hotAccountMonitor;
+        private int hotSubBalances;
+        private long hotThreshold;
+        
+        // Le operazioni registrate nel giornale lo tengono in lettura,
+        // l'istantanea in scrittura
+        private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+        
         // Contatori per le statistiche
         private final AtomicInteger totalTransactions = new AtomicInteger(0);
         private final AtomicInteger successfulTransactions = new AtomicInteger(0);
         private final AtomicInteger failedTransactions = new AtomicInteger(0);
         
         public BankSystem() {
+            this(1);
+        }
+        
+        public BankSystem(int batchSize) {
+            if (batchSize <= 0) throw new IllegalArgumentException("La dimensione del lotto deve essere positiva");
+            this.batchSize = batchSize;
+            
             // Inizializza il pool di thread per elaborare le transazioni
             transactionProcessors = Executors.newFixedThreadPool(3);
             
@@ -107,10 +296,206 @@ public class ES01_SistemaBancarioConcorrente {
          */
         public void createAccount(String owner, double initialBalance) {
             BankAccount account = new BankAccount(owner, initialBalance);
-            accounts.put(owner, account);
+            account.setOverflowSink(historySink);
+            if (journal != null) {
+                long sequence;
+                checkpointLock.readLock().lock();
+                try {
+                    accounts.put(owner, account);
+                    sequence = journal.appendOpen(owner, Math.round(initialBalance * 100));
+                } finally {
+                    checkpointLock.readLock().unlock();
+                }
+                journal.awaitDurable(sequence);
+            } else {
+                accounts.put(owner, account);
+            }
             LOGGER.info("Creato conto per " + owner + " con saldo iniziale di " + initialBalance);
         }
         
+        /**
+         * Rende persistente il sistema nella directory indicata: carica
+         * l'ultima istantanea, riapplica la coda del giornale, scrive subito
+         * una nuova istantanea (che comprende anche i conti già presenti in
+         * memoria) e da quel momento registra ogni apertura di conto e ogni
+         * trasferimento riuscito. Con snapshotIntervalMs > 0 le istantanee
+         * vengono ripetute periodicamente.
+         * 
+         * Funziona solo con il motore a lock: il motore a partizioni non
+         * passa da executeTransaction.
+         */
+        public void openJournal(Path directory, long snapshotIntervalMs) throws IOException {
+            if (journal != null) throw new IllegalStateException("Giornale già aperto");
+            if (!(engine instanceof LockEngine)) {
+                throw new IllegalStateException("Il giornale è supportato solo dal motore a lock");
+            }
+            
+            TransactionJournal.RecoveredState state = TransactionJournal.recover(directory);
+            for (Map.Entry<String, Long> entry : state.balances.entrySet()) {
+                accounts.put(entry.getKey(), new BankAccount(entry.getKey(), entry.getValue() / 100.0));
+            }
+            LOGGER.info("Ripresi " + state.balances.size() + " conti dal giornale (" + state.replayedRecords +
+                        " record riapplicati)");
+            
+            journal = new TransactionJournal(directory, state.lastSequence, Integer.getInteger("giornaleSegmentoMB", 64) << 20);
+            journalDirectory = directory;
+            takeSnapshot();
+            
+            if (snapshotIntervalMs > 0) {
+                snapshotScheduler = Executors.newSingleThreadScheduledExecutor();
+                snapshotScheduler.scheduleWithFixedDelay(() -> {
+                    try {
+                        takeSnapshot();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.SEVERE, "Errore durante la scrittura dell'istantanea", e);
+                    }
+                }, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        /**
+         * Scrive un'istantanea coerente dei saldi. Il write lock di
+         * checkpointLock attende che nessuna operazione sia tra l'aggiornamento
+         * dei saldi e l'aggiunta al giornale; la scrittura del file avviene
+         * dopo averlo rilasciato.
+         */
+        void takeSnapshot() throws IOException {
+            Map<String, Long> balances = new HashMap<>(accounts.size() * 4 / 3 + 1);
+            long lastSequence;
+            checkpointLock.writeLock().lock();
+            try {
+                lastSequence = journal.getLastSequence();
+                for (BankAccount account : accounts.values()) {
+                    balances.put(account.getOwner(), Math.round(account.getBalance() * 100));
+                }
+            } finally {
+                checkpointLock.writeLock().unlock();
+            }
+            journal.writeSnapshot(lastSequence, balances);
+            LOGGER.fine("Istantanea di " + balances.size() + " conti fino alla sequenza " + lastSequence);
+        }
+        
+        /**
+         * Le voci di cronologia che escono dal buffer di un conto pieno
+         * vengono scritte nel giornale invece di andare perse;
+         * printAccountHistory le mostra prima di quelle ancora nel buffer
+         */
+        public void spillHistoryToJournal() {
+            if (journal == null) throw new IllegalStateException("Giornale non aperto");
+            
+            historySink = journal::appendHistory;
+            for (BankAccount account : accounts.values()) {
+                account.setOverflowSink(historySink);
+            }
+        }
+        
+        /**
+         * Scrive l'istantanea finale e chiude il giornale
+         */
+        void closeJournal() throws IOException {
+            if (journal == null) return;
+            
+            if (historySink != null) {
+                historySink = null;
+                for (BankAccount account : accounts.values()) {
+                    account.setOverflowSink(null);
+                }
+            }
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdown();
+                try {
+                    snapshotScheduler.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                takeSnapshot();
+            } finally {
+                journal.close();
+                journal = null;
+            }
+        }
+        
+        public int getAccountCount() {
+            return accounts.size();
+        }
+        
+        /**
+         * Sostituisce la transazione casuale ogni 200 ms con un
+         * TransactionGenerator al ritmo indicato; va chiamato prima di
+         * startSimulation
+         */
+        public void useLoadGenerator(double ratePerSecond, int producers, double zipfTheta) {
+            if (isRunning) throw new IllegalStateException("Simulazione già avviata");
+            this.loadRate = ratePerSecond;
+            this.loadProducers = producers;
+            this.loadZipfTheta = zipfTheta;
+        }
+        
+        /**
+         * Attiva la modalità conti caldi: ogni intervalMs i conti che hanno
+         * avuto almeno threshold trasferimenti vengono suddivisi in
+         * subBalanceCount sotto-saldi, e i conti già suddivisi vengono
+         * ribilanciati. Richiede il motore a lock senza lotti, perché la
+         * compensazione e il motore a partizioni aggiornano i saldi in blocco.
+         */
+        public void enableHotAccounts(int subBalanceCount, long threshold, long intervalMs) {
+            if (hotAccountMonitor != null) throw new IllegalStateException("Modalità conti caldi già attiva");
+            if (subBalanceCount < 2) throw new IllegalArgumentException("Servono almeno 2 sotto-saldi");
+            if (batchSize > 1 || !(engine instanceof LockEngine)) {
+                throw new IllegalStateException("I conti caldi richiedono il motore a lock senza lotti");
+            }
+            
+            this.hotSubBalances = subBalanceCount;
+            this.hotThreshold = threshold;
+            hotAccountMonitor = Executors.newSingleThreadScheduledExecutor();
+            hotAccountMonitor.scheduleWithFixedDelay(this::checkHotAccounts, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+        
+        private void checkHotAccounts() {
+            try {
+                for (BankAccount account : accounts.values()) {
+                    long transfers = account.takeRecentTransfers();
+                    if (account.isSplit()) {
+                        account.rebalance();
+                    } else if (transfers >= hotThreshold) {
+                        account.split(hotSubBalances);
+                        LOGGER.log(Level.INFO, "Conto caldo {0} ({1} trasferimenti): suddiviso in {2} sotto-saldi",
+                                   new Object[] {account.getOwner(), transfers, hotSubBalances});
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Errore durante il controllo dei conti caldi", e);
+            }
+        }
+        
+        private void stopHotAccountMonitor() {
+            if (hotAccountMonitor == null) return;
+            
+            hotAccountMonitor.shutdownNow();
+            try {
+                hotAccountMonitor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Ultimo ribilanciamento, che registra anche le operazioni più recenti
+            for (BankAccount account : accounts.values()) {
+                account.rebalance();
+            }
+        }
+        
+        /**
+         * Sostituisce il motore delle transazioni; va chiamato prima di
+         * startSimulation
+         */
+        public void setEngine(TransactionEngine engine) {
+            if (isRunning) throw new IllegalStateException("Simulazione già avviata");
+            if (journal != null) throw new IllegalStateException("Il giornale è supportato solo dal motore a lock");
+            if (hotAccountMonitor != null) throw new IllegalStateException("I conti caldi richiedono il motore a lock");
+            this.engine = engine;
+        }
+        
         /**
          * Avvia la simulazione del sistema bancario
          */
@@ -118,12 +503,19 @@ public class ES01_SistemaBancarioConcorrente {
             if (isRunning) return;
             
             isRunning = true;
-            LOGGER.info("Avvio simulazione del sistema bancario");
+            LOGGER.info("Avvio simulazione del sistema bancario (motore: " + engine.getName() + ")");
             
-            // Avvia i thread per elaborare le transazioni
-            for (int i = 0; i < 3; i++) {
-                final int processorId = i;
-                transactionProcessors.submit(() -> processTransactions(processorId));
+            // Avvia il motore che elabora le transazioni
+            engine.start(accounts);
+            
+            if (loadRate > 0) {
+                loadGenerator = new TransactionGenerator(accounts.keySet(), loadZipfTheta, loadRate, loadProducers,
+                    transaction -> {
+                        engine.submit(transaction);
+                        totalTransactions.incrementAndGet();
+                    });
+                loadGenerator.start();
+                return;
             }
             
             // Pianifica la generazione di transazioni casuali ogni 200ms
@@ -143,19 +535,75 @@ public class ES01_SistemaBancarioConcorrente {
             // Ferma il generatore di transazioni
             transactionGenerator.shutdown();
             transactionGenerator.awaitTermination(1, TimeUnit.SECONDS);
-            
-            // Attende che tutte le transazioni in coda vengano elaborate
-            while (!transactionQueue.isEmpty()) {
-                Thread.sleep(100);
+            if (loadGenerator != null) {
+                loadGenerator.stop();
+                long completed = successfulTransactions.get() + failedTransactions.get();
+                LOGGER.info(String.format("Generatore: ritmo richiesto %.0f tx/s, sottomesse %.0f tx/s, completate %.0f tx/s",
+                                          loadGenerator.getRequestedRate(), loadGenerator.getAchievedRate(),
+                                          completed / loadGenerator.getElapsedSeconds()));
             }
             
-            // Ferma i processori di transazioni
-            transactionProcessors.shutdown();
-            transactionProcessors.awaitTermination(2, TimeUnit.SECONDS);
+            // Completa le transazioni in corso e ferma il motore
+            engine.stop();
+            stopHotAccountMonitor();
+            
+            try {
+                closeJournal();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Errore durante la chiusura del giornale", e);
+            }
             
             LOGGER.info("Simulazione terminata");
         }
         
+        /**
+         * Motore basato sui lock dei conti: la coda condivisa transactionQueue
+         * svuotata dal pool di processori (processTransactions)
+         */
+        private final class LockEngine implements TransactionEngine {
+            @Override
+            public void start(Map<String, BankAccount> accounts) {
+                // Avvia i thread per elaborare le transazioni
+                for (int i = 0; i < 3; i++) {
+                    final int processorId = i;
+                    transactionProcessors.submit(() -> processTransactions(processorId));
+                }
+            }
+            
+            @Override
+            public void submit(Transaction transaction) throws InterruptedException {
+                queueSlots.acquire();
+                transactionQueue.add(transaction); // La coda non è limitata: add non attende
+            }
+            
+            @Override
+            public void stop() throws InterruptedException {
+                // Attende che tutte le transazioni in coda vengano elaborate
+                while (!transactionQueue.isEmpty()) {
+                    Thread.sleep(100);
+                }
+                
+                // Ferma i processori di transazioni
+                transactionProcessors.shutdown();
+                transactionProcessors.awaitTermination(2, TimeUnit.SECONDS);
+            }
+            
+            @Override
+            public String getName() {
+                return batchSize > 1 ? "lock (lotti da " + batchSize + ")" : "lock";
+            }
+        }
+        
+        /**
+         * Chiude i pool di thread di un sistema la cui simulazione non è mai
+         * stata avviata (usato dai benchmark)
+         */
+        void shutdownExecutors() {
+            transactionGenerator.shutdownNow();
+            transactionProcessors.shutdownNow();
+            stopHotAccountMonitor();
+        }
+        
         /**
          * Genera una transazione casuale
          */
@@ -163,17 +611,21 @@ public class ES01_SistemaBancarioConcorrente {
             if (!isRunning) return;
             
             try {
-                // Ottiene la lista dei proprietari di conti
-                List<String> accountOwners = new ArrayList<>(accounts.keySet());
-                if (accountOwners.size() < 2) return;
+                // Ottiene l'array dei proprietari di conti
+                String[] owners = ownerIndex;
+                if (owners.length != accounts.size()) {
+                    owners = accounts.keySet().toArray(new String[0]);
+                    ownerIndex = owners;
+                }
+                if (owners.length < 2) return;
                 
-                Random random = new Random();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
                 
                 // Seleziona casualmente mittente e destinatario diversi
-                String fromOwner = accountOwners.get(random.nextInt(accountOwners.size()));
+                String fromOwner = owners[random.nextInt(owners.length)];
                 String toOwner;
                 do {
-                    toOwner = accountOwners.get(random.nextInt(accountOwners.size()));
+                    toOwner = owners[random.nextInt(owners.length)];
                 } while (toOwner.equals(fromOwner));
                 
                 // Genera un importo casuale tra 10 e 200
@@ -184,8 +636,8 @@ public class ES01_SistemaBancarioConcorrente {
                 Transaction transaction = new Transaction(
                     fromOwner, toOwner, amount, TransactionType.TRANSFER);
                 
-                transactionQueue.put(transaction);
-                LOGGER.fine("Generata transazione: " + transaction);
+                engine.submit(transaction);
+                LOGGER.log(Level.FINE, "Generata transazione: {0}", transaction);
                 
                 totalTransactions.incrementAndGet();
             } catch (Exception e) {
@@ -205,21 +657,34 @@ public class ES01_SistemaBancarioConcorrente {
                     Transaction transaction = transactionQueue.poll(500, TimeUnit.MILLISECONDS);
                     if (transaction == null) continue;
                     
-                    LOGGER.info("Processore #" + processorId + ": elaborazione " + transaction);
-                    
-                    // Elabora la transazione
-                    boolean success = executeTransaction(transaction);
-                    
-                    if (success) {
-                        successfulTransactions.incrementAndGet();
-                        LOGGER.info("Transazione completata con successo: " + transaction);
+                    if (batchSize > 1) {
+                        // Preleva senza attendere le altre transazioni già in coda
+                        List<Transaction> batch = new ArrayList<>(batchSize);
+                        batch.add(transaction);
+                        transactionQueue.drainTo(batch, batchSize - 1);
+                        queueSlots.release(batch.size());
+                        
+                        LOGGER.log(Level.INFO, "Processore #{0}: elaborazione lotto di {1} transazioni",
+                                   new Object[] {processorId, batch.size()});
+                        
+                        boolean[] results = executeBatch(batch);
+                        for (int i = 0; i < results.length; i++) {
+                            recordResult(batch.get(i), results[i]);
+                        }
                     } else {
-                        failedTransactions.incrementAndGet();
-                        LOGGER.warning("Transazione fallita: " + transaction);
+                        queueSlots.release();
+                        LOGGER.log(Level.INFO, "Processore #{0}: elaborazione {1}",
+                                   new Object[] {processorId, transaction});
+                        
+                        // Elabora la transazione
+                        recordResult(transaction, executeTransaction(transaction));
                     }
                     
-                    // Simula il tempo di elaborazione
-                    Thread.sleep(100 + (long)(Math.random() * 300));
+                    // Simula il tempo di elaborazione (non con il generatore di carico,
+                    // che deve misurare il motore e non l'attesa simulata)
+                    if (loadGenerator == null) {
+                        Thread.sleep(100 + (long)(Math.random() * 300));
+                    }
                     
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -233,6 +698,19 @@ public class ES01_SistemaBancarioConcorrente {
             LOGGER.info("Processore di transazioni #" + processorId + " terminato");
         }
         
+        /**
+         * Aggiorna le statistiche e registra l'esito di una transazione
+         */
+        void recordResult(Transaction transaction, boolean success) {
+            if (success) {
+                successfulTransactions.incrementAndGet();
+                LOGGER.log(Level.INFO, "Transazione completata con successo: {0}", transaction);
+            } else {
+                failedTransactions.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Transazione fallita: {0}", transaction);
+            }
+        }
+        
         /**
          * Esegue una transazione tra conti
          */
@@ -242,9 +720,84 @@ public class ES01_SistemaBancarioConcorrente {
             BankAccount toAccount = accounts.get(transaction.getToAccount());
             
             if (fromAccount == null || toAccount == null) {
-                LOGGER.warning("Conto non trovato per la transazione: " + transaction);
+                LOGGER.log(Level.WARNING, "Conto non trovato per la transazione: {0}", transaction);
+                return false;
+            }
+            
+            if (transaction.getType() != TransactionType.TRANSFER) {
+                return false; // Tipo di transazione non supportato
+            }
+            
+            if (hotAccountMonitor != null) {
+                fromAccount.countTransfer();
+                toAccount.countTransfer();
+            }
+            
+            if (journal == null) {
+                return transferWithLocks(fromAccount, toAccount, transaction.getAmount());
+            }
+            
+            // Il trasferimento è confermato solo quando il suo record è sul disco.
+            // Prima l'addebito, poi il record, infine l'accredito: se il record
+            // non può essere aggiunto basta riaccreditare l'origine, cosa che
+            // riesce sempre, e i saldi non contengono operazioni fuori giornale.
+            double amount = transaction.getAmount();
+            long sequence;
+            checkpointLock.readLock().lock();
+            try {
+                if (journal.isFailed()) {
+                    LOGGER.log(Level.WARNING, "Giornale guasto, transazione rifiutata: {0}", transaction);
+                    return false;
+                }
+                if (!fromAccount.tryWithdraw(amount, toAccount.getOwner())) {
+                    return false;
+                }
+                try {
+                    sequence = journal.appendTransfer(fromAccount.getOwner(), toAccount.getOwner(),
+                                                      Math.round(amount * 100));
+                } catch (RuntimeException e) {
+                    fromAccount.deposit(amount, toAccount.getOwner());
+                    LOGGER.log(Level.SEVERE, "Registrazione nel giornale fallita, transazione annullata: " + transaction, e);
+                    return false;
+                }
+                toAccount.deposit(amount, fromAccount.getOwner());
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            
+            try {
+                journal.awaitDurable(sequence);
+            } catch (UncheckedIOException e) {
+                LOGGER.log(Level.SEVERE, "Giornale non scritto su disco, transazione annullata: " + transaction, e);
+                reverse(fromAccount, toAccount, amount);
                 return false;
             }
+            return true;
+        }
+        
+        /**
+         * Storna un trasferimento già applicato ma non confermato dal
+         * giornale. Il giornale è guasto e nessuna istantanea verrà più
+         * scritta, quindi lo storno resta solo in memoria. Se nel frattempo il
+         * destinatario ha già speso l'importo lo storno non è possibile e
+         * viene solo segnalato.
+         */
+        private static void reverse(BankAccount fromAccount, BankAccount toAccount, double amount) {
+            if (toAccount.tryWithdraw(amount, fromAccount.getOwner())) {
+                fromAccount.deposit(amount, toAccount.getOwner());
+            } else {
+                LOGGER.log(Level.SEVERE, "Storno di {0} da {1} a {2} non possibile: saldo insufficiente",
+                           new Object[] {amount, toAccount.getOwner(), fromAccount.getOwner()});
+            }
+        }
+        
+        /**
+         * Trasferimento tra due conti con i write lock acquisiti in ordine
+         */
+        static boolean transferWithLocks(BankAccount fromAccount, BankAccount toAccount, double amount) {
+            if (fromAccount.isSplit() || toAccount.isSplit()) {
+                return transferSplit(fromAccount, toAccount, amount);
+            }
             
             // Determina l'ordine di acquisizione dei lock per prevenire deadlock
             // Acquisisce sempre prima il lock del conto con ID "minore" lessicograficamente
@@ -257,23 +810,23 @@ public class ES01_SistemaBancarioConcorrente {
             try {
                 secondLock.getLock().writeLock().lock();
                 try {
+                    // Uno dei conti può essere stato suddiviso mentre si attendeva il lock
+                    if (fromAccount.isSplit() || toAccount.isSplit()) {
+                        return transferSplit(fromAccount, toAccount, amount);
+                    }
+                    
                     // Verifica se c'è saldo sufficiente
-                    if (transaction.getType() == TransactionType.TRANSFER) {
-                        if (fromAccount.getBalance() < transaction.getAmount()) {
-                            LOGGER.warning("Saldo insufficiente per " + fromAccount.getOwner() + 
-                                         ": " + fromAccount.getBalance() + ", richiesto: " + 
-                                         transaction.getAmount());
-                            return false;
-                        }
-                        
-                        // Esegue il trasferimento
-                        fromAccount.withdraw(transaction.getAmount());
-                        toAccount.deposit(transaction.getAmount());
-                        
-                        return true;
+                    if (fromAccount.getBalance() < amount) {
+                        LOGGER.log(Level.WARNING, "Saldo insufficiente per {0}: {1}, richiesto: {2}",
+                                   new Object[] {fromAccount.getOwner(), fromAccount.getBalance(), amount});
+                        return false;
                     }
                     
-                    return false; // Tipo di transazione non supportato
+                    // Esegue il trasferimento
+                    fromAccount.withdraw(amount, toAccount.getOwner());
+                    toAccount.deposit(amount, fromAccount.getOwner());
+                    
+                    return true;
                 } finally {
                     secondLock.getLock().writeLock().unlock();
                 }
@@ -283,112 +836,3437 @@ public class ES01_SistemaBancarioConcorrente {
         }
         
         /**
-         * Stampa lo stato di tutti i conti
+         * Trasferimento in cui almeno un conto è suddiviso in sotto-saldi:
+         * prima l'addebito, che può fallire, poi l'accredito. Nessun thread
+         * tiene il lock di un conto mentre attende quello dell'altro.
          */
-        public void printAccountStatus() {
-            for (BankAccount account : accounts.values()) {
-                account.getLock().readLock().lock();
-                try {
-                    System.out.println(account);
-                } finally {
-                    account.getLock().readLock().unlock();
-                }
+        static boolean transferSplit(BankAccount fromAccount, BankAccount toAccount, double amount) {
+            if (!fromAccount.tryWithdraw(amount, toAccount.getOwner())) {
+                return false;
             }
+            toAccount.deposit(amount, fromAccount.getOwner());
+            return true;
         }
         
         /**
-         * Stampa le statistiche delle transazioni
+         * Esegue un lotto di trasferimenti compensando i movimenti per conto.
+         * 
+         * I write lock di tutti i conti coinvolti vengono acquisiti una sola
+         * volta, in ordine di proprietario. Le transazioni vengono poi
+         * validate nell'ordine del lotto su saldi proiettati, così una
+         * transazione che scoperebbe il conto fallisce esattamente come se
+         * fosse eseguita da sola. Infine a ogni conto viene applicata la sua
+         * variazione netta. Con pochi conti molto usati migliaia di coppie
+         * di lock diventano una sola acquisizione per conto.
+         * 
+         * @return l'esito di ogni transazione, nello stesso ordine del lotto
          */
-        public void printTransactionStatistics() {
-            System.out.println("Totale transazioni generate: " + totalTransactions.get());
-            System.out.println("Transazioni completate con successo: " + successfulTransactions.get());
-            System.out.println("Transazioni fallite: " + failedTransactions.get());
-            
-            if (totalTransactions.get() > 0) {
-                double successRate = (double) successfulTransactions.get() / totalTransactions.get() * 100;
-                System.out.printf("Tasso di successo: %.2f%%\n", successRate);
+        boolean[] executeBatch(List<Transaction> batch) {
+            if (journal == null) {
+                return applyBatch(batch);
             }
-        }
-    }
-    
-    /**
-     * Classe che rappresenta un conto bancario thread-safe
-     */
-    static class BankAccount {
-        private final String owner;
-        private double balance;
-        private final ReadWriteLock lock = new ReentrantReadWriteLock();
-        private final List<String> transactionHistory = Collections.synchronizedList(new ArrayList<>());
-        
-        public BankAccount(String owner, double initialBalance) {
-            this.owner = owner;
-            this.balance = initialBalance;
-            addToHistory("Apertura conto con saldo iniziale di " + initialBalance);
-        }
-        
-        public String getOwner() {
-            return owner;
-        }
-        
-        public double getBalance() {
-            lock.readLock().lock();
+            
+            // Un solo record per transazione riuscita e una sola attesa per il lotto
+            boolean[] results;
+            long sequence = -1;
+            checkpointLock.readLock().lock();
             try {
-                return balance;
+                if (journal.isFailed()) {
+                    LOGGER.log(Level.WARNING, "Giornale guasto, lotto di {0} transazioni rifiutato", batch.size());
+                    return new boolean[batch.size()];
+                }
+                try {
+                    results = applyBatch(batch, true);
+                } catch (UncheckedIOException e) {
+                    LOGGER.log(Level.SEVERE, "Registrazione nel giornale fallita, lotto annullato", e);
+                    return new boolean[batch.size()];
+                }
+                for (boolean result : results) {
+                    if (result) {
+                        sequence = journal.getLastSequence();
+                        break;
+                    }
+                }
             } finally {
-                lock.readLock().unlock();
+                checkpointLock.readLock().unlock();
+            }
+            if (sequence < 0) {
+                return results;
+            }
+            
+            try {
+                journal.awaitDurable(sequence);
+            } catch (UncheckedIOException e) {
+                LOGGER.log(Level.SEVERE, "Giornale non scritto su disco, lotto annullato", e);
+                for (int i = results.length - 1; i >= 0; i--) {
+                    if (results[i]) {
+                        Transaction transaction = batch.get(i);
+                        reverse(accounts.get(transaction.getFromAccount()), accounts.get(transaction.getToAccount()),
+                                transaction.getAmount());
+                        results[i] = false;
+                    }
+                }
             }
+            return results;
         }
         
-        public ReadWriteLock getLock() {
-            return lock;
+        private boolean[] applyBatch(List<Transaction> batch) {
+            return applyBatch(batch, false);
         }
         
-        public void deposit(double amount) {
-            if (amount <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+        /**
+         * @param journaled se true i trasferimenti validati vengono aggiunti al
+         *                  giornale prima di modificare i saldi, con i lock
+         *                  ancora acquisiti: se l'aggiunta fallisce l'eccezione
+         *                  esce senza che nessun saldo sia cambiato
+         */
+        private boolean[] applyBatch(List<Transaction> batch, boolean journaled) {
+            boolean[] results = new boolean[batch.size()];
             
-            lock.writeLock().lock();
-            try {
-                balance += amount;
-                addToHistory("Deposito di " + amount + ", nuovo saldo: " + balance);
-            } finally {
-                lock.writeLock().unlock();
+            // Conti coinvolti ordinati per proprietario: è l'ordine di acquisizione dei lock
+            TreeMap<String, NetPosition> positions = new TreeMap<>();
+            for (Transaction transaction : batch) {
+                BankAccount fromAccount = accounts.get(transaction.getFromAccount());
+                BankAccount toAccount = accounts.get(transaction.getToAccount());
+                if (fromAccount == null || toAccount == null) continue;
+                
+                positions.computeIfAbsent(fromAccount.getOwner(), owner -> new NetPosition(fromAccount));
+                positions.computeIfAbsent(toAccount.getOwner(), owner -> new NetPosition(toAccount));
             }
-        }
-        
-        public void withdraw(double amount) {
-            if (amount <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
             
-            lock.writeLock().lock();
+            for (NetPosition position : positions.values()) {
+                position.account.getLock().writeLock().lock();
+            }
             try {
-                if (balance < amount) {
+                for (NetPosition position : positions.values()) {
+                    position.initialBalance = position.account.getBalance();
+                    position.projectedBalance = position.initialBalance;
+                }
+                
+                // Validazione nell'ordine delle transazioni
+                for (int i = 0; i < batch.size(); i++) {
+                    Transaction transaction = batch.get(i);
+                    NetPosition from = positions.get(transaction.getFromAccount());
+                    NetPosition to = positions.get(transaction.getToAccount());
+                    
+                    if (from == null || to == null) {
+                        LOGGER.log(Level.WARNING, "Conto non trovato per la transazione: {0}", transaction);
+                        continue;
+                    }
+                    if (transaction.getType() != TransactionType.TRANSFER) {
+                        continue; // Tipo di transazione non supportato
+                    }
+                    if (from.projectedBalance < transaction.getAmount()) {
+                        continue; // Saldo insufficiente
+                    }
+                    
+                    from.projectedBalance -= transaction.getAmount();
+                    to.projectedBalance += transaction.getAmount();
+                    from.operations++;
+                    to.operations++;
+                    results[i] = true;
+                }
+                
+                if (journaled) {
+                    for (int i = 0; i < results.length; i++) {
+                        if (results[i]) {
+                            Transaction transaction = batch.get(i);
+                            journal.appendTransfer(transaction.getFromAccount(), transaction.getToAccount(),
+                                                   Math.round(transaction.getAmount() * 100));
+                        }
+                    }
+                }
+                
+                // Una sola variazione per conto
+                for (NetPosition position : positions.values()) {
+                    if (position.operations > 0) {
+                        position.account.applyNetChange(position.projectedBalance - position.initialBalance,
+                                                        position.operations);
+                    }
+                }
+            } finally {
+                for (NetPosition position : positions.descendingMap().values()) {
+                    position.account.getLock().writeLock().unlock();
+                }
+            }
+            
+            return results;
+        }
+        
+        /**
+         * Posizione di un conto durante l'esecuzione di un lotto
+         */
+        private static class NetPosition {
+            final BankAccount account;
+            double initialBalance;
+            double projectedBalance;
+            int operations;
+            
+            NetPosition(BankAccount account) {
+                this.account = account;
+            }
+        }
+        
+        /**
+         * Stampa lo stato di tutti i conti
+         */
+        public void printAccountStatus() {
+            for (BankAccount account : accounts.values()) {
+                account.getLock().readLock().lock();
+                try {
+                    System.out.println(account);
+                } finally {
+                    account.getLock().readLock().unlock();
+                }
+            }
+        }
+        
+        /**
+         * Stampa la cronologia di un conto: le voci conservate nel giornale,
+         * se presenti, e poi quelle ancora nel buffer del conto
+         */
+        public void printAccountHistory(String owner) {
+            BankAccount account = accounts.get(owner);
+            if (account == null) {
+                System.out.println("Conto di " + owner + " inesistente");
+                return;
+            }
+            if (journalDirectory != null) {
+                try {
+                    List<String> spilled = journal != null ? journal.readHistory(owner)
+                                                           : TransactionJournal.readHistory(journalDirectory, owner);
+                    for (String entry : spilled) {
+                        System.out.println("  " + entry);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Impossibile leggere la cronologia dal giornale", e);
+                }
+            }
+            for (String entry : account.getHistory()) {
+                System.out.println("  " + entry);
+            }
+        }
+        
+        /**
+         * Stampa le statistiche delle transazioni
+         */
+        public void printTransactionStatistics() {
+            System.out.println("Totale transazioni generate: " + totalTransactions.get());
+            System.out.println("Transazioni completate con successo: " + successfulTransactions.get());
+            System.out.println("Transazioni fallite: " + failedTransactions.get());
+            
+            if (totalTransactions.get() > 0) {
+                double successRate = (double) successfulTransactions.get() / totalTransactions.get() * 100;
+                System.out.printf("Tasso di successo: %.2f%%\n", successRate);
+            }
+        }
+    }
+    
+    /**
+     * Classe che rappresenta un conto bancario thread-safe
+     */
+    static class BankAccount {
+        // Numero di voci di cronologia conservate per conto (-DstoricoCapacita)
+        static final int HISTORY_CAPACITY = Integer.getInteger("storicoCapacita", 10);
+        
+        private final String owner;
+        private double balance;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final HistoryRing history = new HistoryRing(HISTORY_CAPACITY);
+        
+        // Destinazione delle voci più vecchie quando la cronologia è piena;
+        // con null vengono semplicemente sovrascritte
+        private volatile HistorySink overflowSink;
+        
+        // Sotto-saldi del conto caldo (null finché il conto non viene suddiviso)
+        private volatile SubBalances subBalances;
+        
+        // Trasferimenti dall'ultimo controllo dei conti caldi
+        private final LongAdder recentTransfers = new LongAdder();
+        
+        public BankAccount(String owner, double initialBalance) {
+            this.owner = owner;
+            this.balance = initialBalance;
+            addToHistory(HistoryType.OPEN, initialBalance, HistoryRing.NO_COUNTERPARTY);
+        }
+        
+        public String getOwner() {
+            return owner;
+        }
+        
+        public double getBalance() {
+            lock.readLock().lock();
+            try {
+                SubBalances parts = subBalances;
+                return parts != null ? parts.total() / 100.0 : balance;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public boolean isSplit() {
+            return subBalances != null;
+        }
+        
+        /**
+         * Suddivide il saldo in k sotto-saldi (vedi SubBalances). Da quel
+         * momento accrediti e addebiti non usano più il write lock del conto.
+         * La suddivisione è definitiva.
+         */
+        public void split(int k) {
+            lock.writeLock().lock();
+            try {
+                if (subBalances != null) return;
+                subBalances = new SubBalances(k, Math.round(balance * 100));
+                balance = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        /**
+         * Ribilancia i sotto-saldi di un conto suddiviso e registra nella
+         * cronologia un'unica voce con la variazione netta del periodo: le
+         * singole operazioni non vengono registrate per non serializzarle
+         * sul lock del conto.
+         */
+        public void rebalance() {
+            SubBalances parts = subBalances;
+            if (parts == null) return;
+            
+            long[] activity = parts.rebalance();
+            if (activity[1] > 0) {
+                lock.writeLock().lock();
+                try {
+                    addToHistory(HistoryType.NET_CHANGE, activity[0] / 100.0, HistoryRing.NO_COUNTERPARTY,
+                                 (int) Math.min(Integer.MAX_VALUE, activity[1]));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+        
+        public void countTransfer() {
+            recentTransfers.increment();
+        }
+        
+        /**
+         * Trasferimenti contati dall'ultima chiamata
+         */
+        public long takeRecentTransfers() {
+            return recentTransfers.sumThenReset();
+        }
+        
+        public ReadWriteLock getLock() {
+            return lock;
+        }
+        
+        public void setOverflowSink(HistorySink overflowSink) {
+            this.overflowSink = overflowSink;
+        }
+        
+        public void deposit(double amount) {
+            deposit(amount, HistoryRing.NO_COUNTERPARTY);
+        }
+        
+        /**
+         * Deposito proveniente dal conto del proprietario counterparty
+         */
+        public void deposit(double amount, String counterparty) {
+            if (amount <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            
+            SubBalances parts = subBalances;
+            if (parts == null) {
+                lock.writeLock().lock();
+                try {
+                    // Ricontrolla: il conto può essere stato suddiviso nel frattempo
+                    parts = subBalances;
+                    if (parts == null) {
+                        balance += amount;
+                        addToHistory(HistoryType.DEPOSIT, amount, counterparty);
+                        return;
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            parts.credit(Math.round(amount * 100));
+        }
+        
+        public void withdraw(double amount) {
+            withdraw(amount, HistoryRing.NO_COUNTERPARTY);
+        }
+        
+        /**
+         * Prelievo destinato al conto del proprietario counterparty
+         */
+        public void withdraw(double amount, String counterparty) {
+            if (!tryWithdraw(amount, counterparty)) {
+                throw new IllegalStateException("Saldo insufficiente");
+            }
+        }
+        
+        /**
+         * Prelievo che restituisce false invece di lanciare un'eccezione se
+         * il saldo non basta
+         */
+        public boolean tryWithdraw(double amount, String counterparty) {
+            if (amount <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            
+            SubBalances parts = subBalances;
+            if (parts == null) {
+                lock.writeLock().lock();
+                try {
+                    // Ricontrolla: il conto può essere stato suddiviso nel frattempo
+                    parts = subBalances;
+                    if (parts == null) {
+                        if (balance < amount) {
+                            return false;
+                        }
+                        balance -= amount;
+                        addToHistory(HistoryType.WITHDRAWAL, amount, counterparty);
+                        return true;
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return parts.tryDebit(Math.round(amount * 100));
+        }
+        
+        /**
+         * Applica in un colpo solo la variazione netta di più operazioni
+         * compensate (vedi BankSystem.executeBatch)
+         */
+        public void applyNetChange(double delta, int operations) {
+            lock.writeLock().lock();
+            try {
+                if (subBalances != null) {
+                    throw new IllegalStateException("Variazione netta non supportata su un conto suddiviso");
+                }
+                if (balance + delta < 0) {
                     throw new IllegalStateException("Saldo insufficiente");
                 }
-                balance -= amount;
-                addToHistory("Prelievo di " + amount + ", nuovo saldo: " + balance);
+                balance += delta;
+                addToHistory(HistoryType.NET_CHANGE, delta, HistoryRing.NO_COUNTERPARTY, operations);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        /**
+         * Registra un'operazione nella cronologia (chiamato con il write lock
+         * o dal costruttore). Scrive solo valori primitivi: il testo viene
+         * prodotto in getHistory, fuori dal lock. La controparte è il
+         * proprietario dell'altro conto, una stringa già esistente: nessuna
+         * allocazione.
+         */
+        private void addToHistory(HistoryType type, double amount, String counterparty) {
+            addToHistory(type, amount, counterparty, 1);
+        }
+        
+        private void addToHistory(HistoryType type, double amount, String counterparty, int operations) {
+            HistorySink sink = overflowSink;
+            if (sink != null && history.isFull()) {
+                history.spillOldest(owner, sink);
+            }
+            history.add(System.currentTimeMillis(), type, Math.round(amount * 100), counterparty, operations);
+        }
+        
+        /**
+         * Ultime operazioni del conto, dalla più vecchia alla più recente.
+         * Le voci vengono copiate con il read lock e formattate dopo averlo
+         * rilasciato.
+         */
+        public List<String> getHistory() {
+            HistoryRing copy;
+            lock.readLock().lock();
+            try {
+                copy = history.copy();
+            } finally {
+                lock.readLock().unlock();
+            }
+            return copy.render();
+        }
+        
+        @Override
+        public String toString() {
+            lock.readLock().lock();
+            try {
+                SubBalances parts = subBalances;
+                if (parts != null) {
+                    return "Conto di " + owner + ", Saldo: " + parts.total() / 100.0 +
+                           " (" + parts.getCount() + " sotto-saldi)";
+                }
+                return "Conto di " + owner + ", Saldo: " + balance;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Tipi di voce della cronologia di un conto
+     */
+    enum HistoryType {
+        OPEN,        // Apertura del conto
+        DEPOSIT,     // Accredito
+        WITHDRAWAL,  // Addebito
+        NET_CHANGE   // Variazione netta di un lotto compensato
+    }
+    
+    /**
+     * Destinazione delle voci di cronologia che escono da un HistoryRing
+     * pieno. Viene chiamata con il write lock del conto: non deve fare I/O
+     * né prendere lock condivisi tra conti.
+     */
+    interface HistorySink {
+        void spill(String owner, long timestamp, HistoryType type, long amountCents, String counterparty,
+                   int operations);
+    }
+    
+    /**
+     * Cronologia a capacità fissa di un conto: un buffer circolare di record
+     * (istante, tipo, importo in centesimi, proprietario della controparte,
+     * numero di operazioni) memorizzati in array paralleli. La controparte è
+     * il nome del proprietario e non un id del processo, così resta valida
+     * anche per le voci lette dal giornale dopo una ripresa; le operazioni
+     * sono 1 per le voci singole e il numero di trasferimenti compensati per
+     * NET_CHANGE. Aggiungere una voce non alloca nulla;
+     * quando il buffer è pieno la nuova voce prende il posto della più
+     * vecchia. Non è thread-safe: BankAccount lo usa sotto il proprio lock.
+     */
+    static class HistoryRing {
+        static final String NO_COUNTERPARTY = null;
+        
+        private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+        private static final HistoryType[] TYPES = HistoryType.values();
+        
+        private final long[] timestamps;
+        private final byte[] types;
+        private final long[] amountsCents;
+        private final String[] counterparties;
+        private final int[] operations;
+        
+        // Numero totale di voci aggiunte dalla creazione
+        private long written;
+        
+        public HistoryRing(int capacity) {
+            if (capacity <= 0) throw new IllegalArgumentException("La capacità deve essere positiva");
+            timestamps = new long[capacity];
+            types = new byte[capacity];
+            amountsCents = new long[capacity];
+            counterparties = new String[capacity];
+            operations = new int[capacity];
+        }
+        
+        private HistoryRing(HistoryRing source) {
+            timestamps = source.timestamps.clone();
+            types = source.types.clone();
+            amountsCents = source.amountsCents.clone();
+            counterparties = source.counterparties.clone();
+            operations = source.operations.clone();
+            written = source.written;
+        }
+        
+        public int capacity() {
+            return timestamps.length;
+        }
+        
+        public int size() {
+            return (int) Math.min(written, capacity());
+        }
+        
+        public boolean isFull() {
+            return written >= capacity();
+        }
+        
+        public void add(long timestamp, HistoryType type, long amountCents, String counterparty, int operationCount) {
+            int index = (int) (written % capacity());
+            timestamps[index] = timestamp;
+            types[index] = (byte) type.ordinal();
+            amountsCents[index] = amountCents;
+            counterparties[index] = counterparty;
+            operations[index] = operationCount;
+            written++;
+        }
+        
+        /**
+         * Consegna la voce più vecchia alla destinazione indicata; la voce
+         * resta nel buffer finché la successiva add non la sovrascrive
+         */
+        public void spillOldest(String owner, HistorySink sink) {
+            if (written == 0) return;
+            int index = oldestIndex();
+            sink.spill(owner, timestamps[index], TYPES[types[index]], amountsCents[index], counterparties[index],
+                       operations[index]);
+        }
+        
+        private int oldestIndex() {
+            return isFull() ? (int) (written % capacity()) : 0;
+        }
+        
+        public HistoryRing copy() {
+            return new HistoryRing(this);
+        }
+        
+        /**
+         * Testo delle voci, dalla più vecchia alla più recente
+         */
+        public List<String> render() {
+            List<String> entries = new ArrayList<>(size());
+            int start = oldestIndex();
+            for (int i = 0; i < size(); i++) {
+                int index = (start + i) % capacity();
+                entries.add(format(timestamps[index], TYPES[types[index]], amountsCents[index], counterparties[index],
+                                   operations[index]));
+            }
+            return entries;
+        }
+        
+        /**
+         * Testo di una voce, usato anche per le voci conservate dal giornale
+         */
+        static String format(long timestamp, HistoryType type, long amountCents, String counterparty, int operations) {
+            return FORMAT.format(Instant.ofEpochMilli(timestamp)) + " - " +
+                   describe(type, amountCents, counterparty, operations);
+        }
+        
+        static String describe(HistoryType type, long amountCents, String counterparty, int operations) {
+            String amount = String.format("%.2f", amountCents / 100.0);
+            switch (type) {
+                case OPEN:
+                    return "Apertura conto con saldo iniziale di " + amount;
+                case DEPOSIT:
+                    return "Deposito di " + amount + (counterparty != NO_COUNTERPARTY ? " dal conto di " + counterparty : "");
+                case WITHDRAWAL:
+                    return "Prelievo di " + amount + (counterparty != NO_COUNTERPARTY ? " verso il conto di " + counterparty : "");
+                case NET_CHANGE:
+                    return "Variazione netta di " + amount + " (" + operations + " operazioni)";
+                default:
+                    throw new IllegalArgumentException("Tipo sconosciuto: " + type);
+            }
+        }
+    }
+    
+    /**
+     * Conto bancario senza lock: il saldo è un long in centesimi aggiornato
+     * con compare-and-set tramite VarHandle.
+     * 
+     * Nessun thread si sospende mai: se due operazioni sullo stesso conto
+     * sono contemporanee una delle due fallisce il CAS e ritenta con il
+     * saldo aggiornato. Usare i centesimi evita anche gli errori di
+     * arrotondamento dei double (0.1 + 0.2 != 0.3).
+     */
+    static class LockFreeAccount {
+        private static final VarHandle BALANCE;
+        
+        static {
+            try {
+                BALANCE = MethodHandles.lookup()
+                    .findVarHandle(LockFreeAccount.class, "balanceCents", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+        
+        private final String owner;
+        private volatile long balanceCents;
+        
+        public LockFreeAccount(String owner, long initialBalanceCents) {
+            if (initialBalanceCents < 0) throw new IllegalArgumentException("Il saldo iniziale non può essere negativo");
+            this.owner = owner;
+            this.balanceCents = initialBalanceCents;
+        }
+        
+        public String getOwner() {
+            return owner;
+        }
+        
+        /**
+         * Lettura del saldo: una semplice lettura volatile, mai bloccante.
+         */
+        public long getBalanceCents() {
+            return balanceCents;
+        }
+        
+        public void deposit(long cents) {
+            if (cents <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            
+            long current;
+            do {
+                current = balanceCents;
+            } while (!BALANCE.compareAndSet(this, current, Math.addExact(current, cents)));
+        }
+        
+        /**
+         * Preleva l'importo se il saldo è sufficiente. Restituisce false senza
+         * modificare il conto se il saldo non basta.
+         */
+        public boolean tryWithdraw(long cents) {
+            if (cents <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            
+            long current;
+            do {
+                current = balanceCents;
+                if (current < cents) {
+                    return false;
+                }
+            } while (!BALANCE.compareAndSet(this, current, current - cents));
+            return true;
+        }
+        
+        /**
+         * Trasferimento con prenotazione ordinata: prima l'importo viene
+         * riservato (prelevato) dal conto di origine, poi accreditato al conto
+         * di destinazione. Il primo passo è l'unico che può fallire e in quel
+         * caso nessun conto è stato toccato; il secondo non può fallire.
+         * 
+         * Non servendo lock non esiste un ordine di acquisizione e quindi
+         * nessun rischio di deadlock. Tra i due passi l'importo è "in
+         * transito": la somma di tutti i saldi letta in quell'istante è
+         * inferiore al totale, ma nessun saldo diventa mai negativo.
+         */
+        public static boolean transfer(LockFreeAccount from, LockFreeAccount to, long cents) {
+            if (from == to) throw new IllegalArgumentException("Conto di origine e destinazione coincidono");
+            
+            if (!from.tryWithdraw(cents)) {
+                return false;
+            }
+            to.deposit(cents);
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("Conto di %s, Saldo: %d.%02d", owner, balanceCents / 100, balanceCents % 100);
+        }
+    }
+    
+    /**
+     * Confronto di throughput dei trasferimenti tra BankAccount (double
+     * protetto da ReentrantReadWriteLock, due write lock per trasferimento),
+     * LockFreeAccount (centesimi con CAS) e AccountTable (array di centesimi
+     * con lock a strisce) al crescere dei thread.
+     * 
+     * Ogni thread esegue trasferimenti casuali tra bench.conti conti per
+     * bench.durataMs millisecondi. Al termine si verifica che la somma dei
+     * saldi sia rimasta invariata. I trasferimenti di BankAccount includono
+     * anche l'aggiornamento della cronologia, come nel sistema reale.
+     * 
+     * Esecuzione: java ES01_SistemaBancarioConcorrente bench
+     */
+    static class AccountBenchmark {
+        private static final long INITIAL_CENTS = 1_000_000_000L;
+        
+        static void run() throws InterruptedException {
+            int accountCount = Integer.getInteger("bench.conti", 64);
+            long durationMs = Long.getLong("bench.durataMs", 1000L);
+            int[] threadCounts = Arrays.stream(System.getProperty("bench.thread", "2,4,8,16,32,64").split(","))
+                                       .mapToInt(s -> Integer.parseInt(s.trim()))
+                                       .toArray();
+            
+            System.out.println("Trasferimenti casuali tra " + accountCount + " conti, " + durationMs + " ms per misura");
+            System.out.printf("%-8s %18s %18s %18s %10s%n", "Thread", "RW-lock (op/s)", "Lock-free (op/s)",
+                              "Strisce (op/s)", "Rapporto");
+            for (int threads : threadCounts) {
+                double locked = measureLocked(accountCount, threads, durationMs);
+                double lockFree = measureLockFree(accountCount, threads, durationMs);
+                double striped = measureTable(accountCount, threads, durationMs);
+                System.out.printf("%-8d %,18.0f %,18.0f %,18.0f %9.2fx%n", threads, locked, lockFree, striped,
+                                  lockFree / locked);
+            }
+        }
+        
+        private static double measureLocked(int accountCount, int threads, long durationMs) throws InterruptedException {
+            BankAccount[] accounts = new BankAccount[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                accounts[i] = new BankAccount("C" + i, INITIAL_CENTS / 100.0);
+            }
+            
+            double ops = measure(threads, durationMs, (from, to, cents) ->
+                BankSystem.transferWithLocks(accounts[from], accounts[to], cents / 100.0), accountCount);
+            
+            double total = 0;
+            for (BankAccount account : accounts) total += account.getBalance();
+            double expected = accountCount * (INITIAL_CENTS / 100.0);
+            if (Math.abs(total - expected) >= 0.005) {
+                System.out.printf("  RW-lock: somma dei saldi %.2f invece di %.2f (arrotondamenti dei double)%n",
+                                  total, expected);
+            }
+            return ops;
+        }
+        
+        private static double measureLockFree(int accountCount, int threads, long durationMs) throws InterruptedException {
+            LockFreeAccount[] accounts = new LockFreeAccount[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                accounts[i] = new LockFreeAccount("C" + i, INITIAL_CENTS);
+            }
+            
+            double ops = measure(threads, durationMs, (from, to, cents) ->
+                LockFreeAccount.transfer(accounts[from], accounts[to], cents), accountCount);
+            
+            long total = 0;
+            for (LockFreeAccount account : accounts) total += account.getBalanceCents();
+            if (total != accountCount * INITIAL_CENTS) {
+                throw new IllegalStateException("Somma dei saldi non conservata: " + total);
+            }
+            return ops;
+        }
+        
+        private static double measureTable(int accountCount, int threads, long durationMs) throws InterruptedException {
+            AccountTable table = new AccountTable(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                table.openAccount(INITIAL_CENTS);
+            }
+            
+            double ops = measure(threads, durationMs, table::transfer, accountCount);
+            
+            if (table.totalBalanceCents() != accountCount * INITIAL_CENTS) {
+                throw new IllegalStateException("Somma dei saldi non conservata: " + table.totalBalanceCents());
+            }
+            return ops;
+        }
+        
+        interface Transfer {
+            boolean execute(int from, int to, long cents);
+        }
+        
+        private static double measure(int threads, long durationMs, Transfer transfer, int accountCount)
+                throws InterruptedException {
+            LongAdder completed = new LongAdder();
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread[] workers = new Thread[threads];
+            
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (running.get()) {
+                        int from = random.nextInt(accountCount);
+                        int to = random.nextInt(accountCount - 1);
+                        if (to >= from) to++;
+                        if (transfer.execute(from, to, 1 + random.nextInt(20_000))) {
+                            count++;
+                        }
+                    }
+                    completed.add(count);
+                });
+                workers[t].start();
+            }
+            
+            long begin = System.nanoTime();
+            start.countDown();
+            Thread.sleep(durationMs);
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            return completed.sum() / seconds;
+        }
+    }
+    
+    /**
+     * Tabella di conti compatta per milioni di conti: il saldo di ogni conto
+     * è un elemento di un array di long indicizzato dall'id del conto, senza
+     * un oggetto, un lock e una cronologia per ogni conto.
+     * 
+     * La sincronizzazione passa per una tabella fissa di lock a strisce: il
+     * conto id è protetto dal lock stripes[id & stripeMask]. Il numero di
+     * strisce dipende dai core (4 per core, arrotondato a potenza di 2) e non
+     * dal numero di conti, quindi il costo dei lock resta costante anche con
+     * decine di milioni di conti. Due conti sulla stessa striscia si
+     * serializzano a vicenda anche se distinti: è il prezzo della memoria
+     * risparmiata.
+     * 
+     * Un id viene prima riservato (reserved) e diventa visibile agli altri
+     * metodi (size) solo dopo che il suo saldo iniziale è stato scritto, in
+     * ordine di id. BankSystem la usa con -Dmotore=tabella (TableEngine).
+     */
+    static class AccountTable {
+        private final long[] balanceCents;
+        private final ReentrantLock[] stripes;
+        private final int stripeMask;
+        private final AtomicInteger reserved = new AtomicInteger(0);
+        private final AtomicInteger size = new AtomicInteger(0);
+        
+        public AccountTable(int capacity) {
+            this(capacity, Runtime.getRuntime().availableProcessors());
+        }
+        
+        public AccountTable(int capacity, int cores) {
+            if (capacity <= 0) throw new IllegalArgumentException("La capacità deve essere positiva");
+            
+            int stripeCount = 1;
+            while (stripeCount < cores * 4) {
+                stripeCount <<= 1;
+            }
+            this.balanceCents = new long[capacity];
+            this.stripes = new ReentrantLock[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new ReentrantLock();
+            }
+            this.stripeMask = stripeCount - 1;
+        }
+        
+        /**
+         * Apre un nuovo conto e ne restituisce l'id
+         */
+        public int openAccount(long initialBalanceCents) {
+            if (initialBalanceCents < 0) throw new IllegalArgumentException("Il saldo iniziale non può essere negativo");
+            
+            int id = reserved.getAndIncrement();
+            if (id >= balanceCents.length) {
+                reserved.decrementAndGet();
+                throw new IllegalStateException("Tabella piena: " + balanceCents.length + " conti");
+            }
+            ReentrantLock lock = stripeOf(id);
+            lock.lock();
+            try {
+                balanceCents[id] = initialBalanceCents;
+            } finally {
+                lock.unlock();
+            }
+            // Pubblica l'id dopo la scrittura del saldo, attendendo gli id precedenti
+            while (!size.compareAndSet(id, id + 1)) {
+                Thread.onSpinWait();
+            }
+            return id;
+        }
+        
+        public int size() {
+            return size.get();
+        }
+        
+        public int getStripeCount() {
+            return stripes.length;
+        }
+        
+        private ReentrantLock stripeOf(int id) {
+            return stripes[id & stripeMask];
+        }
+        
+        private void checkId(int id) {
+            if (id < 0 || id >= size.get()) throw new IllegalArgumentException("Conto inesistente: " + id);
+        }
+        
+        public long getBalanceCents(int id) {
+            checkId(id);
+            ReentrantLock lock = stripeOf(id);
+            lock.lock();
+            try {
+                return balanceCents[id];
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        public void deposit(int id, long cents) {
+            if (cents <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            checkId(id);
+            
+            ReentrantLock lock = stripeOf(id);
+            lock.lock();
+            try {
+                balanceCents[id] = Math.addExact(balanceCents[id], cents);
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        public boolean tryWithdraw(int id, long cents) {
+            if (cents <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            checkId(id);
+            
+            ReentrantLock lock = stripeOf(id);
+            lock.lock();
+            try {
+                if (balanceCents[id] < cents) {
+                    return false;
+                }
+                balanceCents[id] -= cents;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Trasferimento tra due conti. Le strisce vengono acquisite in ordine
+         * di indice crescente per prevenire il deadlock; se i due conti
+         * cadono sulla stessa striscia il lock viene preso una sola volta.
+         */
+        public boolean transfer(int from, int to, long cents) {
+            if (cents <= 0) throw new IllegalArgumentException("L'importo deve essere positivo");
+            if (from == to) throw new IllegalArgumentException("Conto di origine e destinazione coincidono");
+            checkId(from);
+            checkId(to);
+            
+            int fromStripe = from & stripeMask;
+            int toStripe = to & stripeMask;
+            ReentrantLock first = stripes[Math.min(fromStripe, toStripe)];
+            ReentrantLock second = fromStripe == toStripe ? null : stripes[Math.max(fromStripe, toStripe)];
+            
+            first.lock();
+            try {
+                if (second != null) second.lock();
+                try {
+                    if (balanceCents[from] < cents) {
+                        return false;
+                    }
+                    balanceCents[from] -= cents;
+                    balanceCents[to] += cents;
+                    return true;
+                } finally {
+                    if (second != null) second.unlock();
+                }
+            } finally {
+                first.unlock();
+            }
+        }
+        
+        /**
+         * Somma di tutti i saldi, letta con tutte le strisce acquisite in
+         * ordine: nessun trasferimento può essere a metà durante la lettura.
+         */
+        public long totalBalanceCents() {
+            for (ReentrantLock lock : stripes) {
+                lock.lock();
+            }
+            try {
+                long total = 0;
+                int n = size.get();
+                for (int i = 0; i < n; i++) {
+                    total += balanceCents[i];
+                }
+                return total;
+            } finally {
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    stripes[i].unlock();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Occupazione di heap per conto delle tre rappresentazioni: BankAccount
+     * in una ConcurrentHashMap (come in BankSystem), LockFreeAccount in un
+     * array e AccountTable. L'heap usato viene misurato dopo una garbage
+     * collection prima e dopo la creazione dei conti.
+     * 
+     * La riga di AccountTable vale solo per una tabella che è l'unica copia
+     * dei saldi. Con -Dmotore=tabella BankSystem tiene comunque un
+     * BankAccount per conto e TableEngine vi aggiunge la tabella, la mappa
+     * proprietario→id e i propri array: la riga "BankSystem, motore a
+     * tabella" misura questa configurazione reale, che occupa più memoria
+     * dei soli BankAccount. Il motore a tabella serve a ridurre il costo dei
+     * lock, non l'heap del sistema bancario.
+     * 
+     * Esecuzione: java -Xmx2g ES01_SistemaBancarioConcorrente memoria
+     * (memoria.oggetti conti per le due versioni a oggetti, memoria.conti
+     * per la tabella, predefiniti 200.000 e 20.000.000)
+     */
+    static class MemoryReport {
+        static void run() throws InterruptedException {
+            int objectCount = Integer.getInteger("memoria.oggetti", 200_000);
+            int tableCount = Integer.getInteger("memoria.conti", 20_000_000);
+            
+            System.out.printf("%-32s %12s %14s %14s%n", "Rappresentazione", "Conti", "Heap (MB)", "Byte per conto");
+            
+            long before = usedHeap();
+            ConcurrentHashMap<String, BankAccount> accounts = new ConcurrentHashMap<>();
+            for (int i = 0; i < objectCount; i++) {
+                String owner = "C" + i;
+                accounts.put(owner, new BankAccount(owner, 1000.0));
+            }
+            long accountBytes = usedHeap() - before;
+            print("BankAccount (RW-lock, cronologia)", objectCount, accountBytes);
+            
+            // Configurazione reale di -Dmotore=tabella: i BankAccount restano
+            TableEngine engine = new TableEngine(1, (transaction, success) -> { });
+            before = usedHeap();
+            engine.start(accounts);
+            print("BankSystem, motore a tabella", objectCount, accountBytes + usedHeap() - before);
+            engine.stop();
+            Reference.reachabilityFence(engine);
+            Reference.reachabilityFence(accounts);
+            engine = null;
+            accounts = null;
+            
+            before = usedHeap();
+            LockFreeAccount[] lockFree = new LockFreeAccount[objectCount];
+            for (int i = 0; i < objectCount; i++) {
+                lockFree[i] = new LockFreeAccount("C" + i, 100_000);
+            }
+            print("LockFreeAccount", objectCount, usedHeap() - before);
+            Reference.reachabilityFence(lockFree);
+            lockFree = null;
+            
+            before = usedHeap();
+            AccountTable table = new AccountTable(tableCount);
+            for (int i = 0; i < tableCount; i++) {
+                table.openAccount(100_000);
+            }
+            print("AccountTable (" + table.getStripeCount() + " strisce)", tableCount, usedHeap() - before);
+            
+            if (table.totalBalanceCents() != 100_000L * tableCount) {
+                throw new IllegalStateException("Somma dei saldi errata");
+            }
+        }
+        
+        private static void print(String name, int count, long bytes) {
+            System.out.printf("%-32s %,12d %14.1f %14.1f%n", name, count, bytes / (1024.0 * 1024.0),
+                              (double) bytes / count);
+        }
+        
+        private static long usedHeap() throws InterruptedException {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+    
+    /**
+     * Confronto tra l'elaborazione di una transazione alla volta
+     * (executeTransaction, due write lock per trasferimento) e quella a
+     * lotti compensati (executeBatch) con pochi conti molto usati.
+     * 
+     * La coda viene riempita con netting.transazioni trasferimenti casuali
+     * tra netting.conti conti e svuotata da netting.thread processori senza
+     * attese simulate.
+     * 
+     * Esecuzione: java ES01_SistemaBancarioConcorrente compensazione
+     */
+    static class NettingBenchmark {
+        static void run() throws InterruptedException {
+            int transactionCount = Integer.getInteger("netting.transazioni", 200_000);
+            int accountCount = Integer.getInteger("netting.conti", 4);
+            int threads = Integer.getInteger("netting.thread", 4);
+            int[] batchSizes = {1, 16, 256};
+            
+            System.out.println(transactionCount + " trasferimenti tra " + accountCount + " conti, " + threads + " processori");
+            System.out.printf("%-8s %16s %16s %12s%n", "Lotto", "Transazioni/s", "Lotti eseguiti", "Riuscite");
+            for (int batchSize : batchSizes) {
+                BankSystem bank = new BankSystem(batchSize);
+                for (int i = 0; i < accountCount; i++) {
+                    bank.accounts.put("C" + i, new BankAccount("C" + i, 1_000_000_000.0));
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < transactionCount; i++) {
+                    int from = random.nextInt(accountCount);
+                    int to = random.nextInt(accountCount - 1);
+                    if (to >= from) to++;
+                    bank.transactionQueue.add(new Transaction("C" + from, "C" + to, 10 + random.nextInt(190),
+                                                              TransactionType.TRANSFER));
+                }
+                
+                LongAdder succeeded = new LongAdder();
+                LongAdder batches = new LongAdder();
+                Thread[] workers = new Thread[threads];
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        List<Transaction> batch = new ArrayList<>(batchSize);
+                        while (bank.transactionQueue.drainTo(batch, batchSize) > 0) {
+                            if (batchSize == 1) {
+                                if (bank.executeTransaction(batch.get(0))) succeeded.increment();
+                            } else {
+                                for (boolean result : bank.executeBatch(batch)) {
+                                    if (result) succeeded.increment();
+                                }
+                            }
+                            batches.increment();
+                            batch.clear();
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                bank.shutdownExecutors();
+                
+                System.out.printf("%-8d %,16.0f %,16d %,12d%n", batchSize, transactionCount / seconds,
+                                  batches.sum(), succeeded.sum());
+            }
+        }
+    }
+    
+    /**
+     * Motore che esegue le transazioni sottomesse dal sistema bancario.
+     * BankSystem usa di default LockEngine (coda condivisa e lock dei conti);
+     * ShardEngine è l'alternativa partizionata senza lock, TableEngine quella
+     * sui saldi compatti di AccountTable.
+     */
+    interface TransactionEngine {
+        /**
+         * Avvia il motore sui conti esistenti
+         */
+        void start(Map<String, BankAccount> accounts);
+        
+        /**
+         * Accoda una transazione; attende se il motore ha già
+         * QUEUE_CAPACITY transazioni in attesa
+         */
+        void submit(Transaction transaction) throws InterruptedException;
+        
+        /**
+         * Completa le transazioni già sottomesse e ferma il motore
+         */
+        void stop() throws InterruptedException;
+        
+        String getName();
+    }
+    
+    /**
+     * Destinatario dell'esito di ogni transazione
+     */
+    interface TransactionListener {
+        void completed(Transaction transaction, boolean success);
+    }
+    
+    /**
+     * Motore partizionato a scrittore singolo (un attore per partizione).
+     * 
+     * I conti sono distribuiti su P partizioni in base all'hash del
+     * proprietario. Ogni partizione ha i propri saldi (in centesimi), una
+     * propria coda di messaggi in ingresso e un solo thread che la possiede:
+     * poiché nessun altro thread tocca quei saldi, le operazioni interne
+     * alla partizione non richiedono alcuna sincronizzazione.
+     * 
+     * Un trasferimento viene inviato alla partizione del conto di origine,
+     * che esegue l'addebito; se il destinatario appartiene a un'altra
+     * partizione le invia un messaggio di accredito. Entrambi i passi sono
+     * idempotenti: ogni partizione ricorda gli id delle transazioni recenti
+     * già addebitate o accreditate e ignora i duplicati. Un duplicato non
+     * viene notificato al listener ma conclude comunque la sottomissione che
+     * lo ha prodotto, ed è contato in getDuplicateCount.
+     * 
+     * submit attende quando ci sono già QUEUE_CAPACITY sottomissioni in
+     * corso. Gli accrediti tra partizioni invece non attendono mai: due
+     * partizioni che aspettano spazio l'una nell'altra si bloccherebbero.
+     * 
+     * I saldi dei BankAccount vengono aggiornati solo all'arresto del motore.
+     */
+    static class ShardEngine implements TransactionEngine {
+        private static final Object STOP = new Object();
+        private static final int RECENT_IDS = 65_536;
+        
+        private final int partitionCount;
+        private final TransactionListener listener;
+        private final Shard[] shards;
+        
+        // Transazioni sottomesse e non ancora concluse, al più QUEUE_CAPACITY
+        private final AtomicLong inFlight = new AtomicLong(0);
+        private final Semaphore admission = new Semaphore(QUEUE_CAPACITY);
+        
+        // Sottomissioni scartate perché duplicate
+        private final LongAdder duplicates = new LongAdder();
+        
+        // Partizione di ogni conto; non cambia dopo start
+        private Map<String, Integer> shardOf = Collections.emptyMap();
+        private Map<String, BankAccount> accounts = Collections.emptyMap();
+        
+        public ShardEngine(int partitionCount, TransactionListener listener) {
+            if (partitionCount <= 0) throw new IllegalArgumentException("Il numero di partizioni deve essere positivo");
+            this.partitionCount = partitionCount;
+            this.listener = listener;
+            this.shards = new Shard[partitionCount];
+        }
+        
+        @Override
+        public void start(Map<String, BankAccount> accounts) {
+            this.accounts = accounts;
+            Map<String, Integer> owners = new HashMap<>();
+            for (int i = 0; i < partitionCount; i++) {
+                shards[i] = new Shard(i);
+            }
+            for (BankAccount account : accounts.values()) {
+                int index = Math.floorMod(account.getOwner().hashCode(), partitionCount);
+                owners.put(account.getOwner(), index);
+                shards[index].balances.put(account.getOwner(), new ShardAccount(toCents(account.getBalance())));
+            }
+            shardOf = owners;
+            
+            // L'avvio dei thread pubblica in modo sicuro lo stato appena costruito
+            for (Shard shard : shards) {
+                shard.thread = new Thread(shard, "partizione-" + shard.index);
+                shard.thread.start();
+            }
+            LOGGER.info("Motore a partizioni avviato con " + partitionCount + " partizioni");
+        }
+        
+        @Override
+        public void submit(Transaction transaction) throws InterruptedException {
+            admission.acquire();
+            inFlight.incrementAndGet();
+            Integer index = shardOf.get(transaction.getFromAccount());
+            if (index == null) {
+                LOGGER.log(Level.WARNING, "Conto non trovato per la transazione: {0}", transaction);
+                complete(transaction, false);
+                return;
+            }
+            shards[index].inbox.add(transaction); // Non attende: il limite è admission
+        }
+        
+        @Override
+        public void stop() throws InterruptedException {
+            // Attende la conclusione dei trasferimenti, compresi gli accrediti in viaggio
+            while (inFlight.get() > 0) {
+                Thread.sleep(10);
+            }
+            for (Shard shard : shards) {
+                shard.inbox.put(STOP);
+            }
+            for (Shard shard : shards) {
+                shard.thread.join();
+            }
+            
+            // Riporta i saldi finali sui conti
+            for (Shard shard : shards) {
+                for (Map.Entry<String, ShardAccount> entry : shard.balances.entrySet()) {
+                    ShardAccount state = entry.getValue();
+                    if (state.operations > 0) {
+                        accounts.get(entry.getKey()).applyNetChange(
+                            (state.balanceCents - state.initialCents) / 100.0, state.operations);
+                    }
+                }
+            }
+            LOGGER.info("Motore a partizioni terminato");
+        }
+        
+        @Override
+        public String getName() {
+            return "partizioni (" + partitionCount + ")";
+        }
+        
+        private void complete(Transaction transaction, boolean success) {
+            listener.completed(transaction, success);
+            inFlight.decrementAndGet();
+            admission.release();
+        }
+        
+        /**
+         * Conclude senza esito una sottomissione duplicata. Ogni sottomissione
+         * termina in un solo punto: addebito rifiutato, addebito duplicato,
+         * accredito eseguito o accredito duplicato.
+         */
+        private void discardDuplicate(Transaction transaction) {
+            duplicates.increment();
+            inFlight.decrementAndGet();
+            admission.release();
+            LOGGER.log(Level.FINE, "Transazione duplicata ignorata: {0}", transaction);
+        }
+        
+        public long getDuplicateCount() {
+            return duplicates.sum();
+        }
+        
+        private static long toCents(double amount) {
+            return Math.round(amount * 100);
+        }
+        
+        /**
+         * Saldo di un conto all'interno della sua partizione
+         */
+        private static class ShardAccount {
+            final long initialCents;
+            long balanceCents;
+            int operations;
+            
+            ShardAccount(long initialCents) {
+                this.initialCents = initialCents;
+                this.balanceCents = initialCents;
+            }
+        }
+        
+        /**
+         * Messaggio di accredito inviato alla partizione del destinatario
+         */
+        private static class Credit {
+            final Transaction transaction;
+            final long cents;
+            
+            Credit(Transaction transaction, long cents) {
+                this.transaction = transaction;
+                this.cents = cents;
+            }
+        }
+        
+        /**
+         * Insieme limitato degli id visti più di recente, su array di long:
+         * un anello di RECENT_IDS id in ordine di arrivo e una tabella a
+         * indirizzamento aperto (scansione lineare, grande il doppio
+         * dell'anello) per la ricerca. Nessun boxing e nessuna allocazione
+         * per operazione. Gli id delle transazioni partono da 1, quindi 0
+         * segna uno slot libero.
+         */
+        private static class RecentIds {
+            private final long[] order = new long[RECENT_IDS];
+            private final long[] table = new long[Integer.highestOneBit(RECENT_IDS - 1) << 2];
+            private final int mask = table.length - 1;
+            private long added;
+            
+            /**
+             * @return false se l'id era già presente
+             */
+            boolean add(long id) {
+                int slot = slotOf(id);
+                while (table[slot] != 0) {
+                    if (table[slot] == id) return false;
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id;
+                
+                int position = (int) (added % RECENT_IDS);
+                if (added >= RECENT_IDS) {
+                    remove(order[position]);
+                }
+                order[position] = id;
+                added++;
+                return true;
+            }
+            
+            private int slotOf(long id) {
+                long h = id * 0x9E3779B97F4A7C15L;
+                return (int) (h >>> 32) & mask;
+            }
+            
+            /**
+             * Cancellazione con spostamento all'indietro: gli id successivi
+             * nella stessa sequenza vengono avvicinati al proprio slot, così la
+             * ricerca può fermarsi al primo slot libero senza marcatori
+             */
+            private void remove(long id) {
+                int slot = slotOf(id);
+                while (table[slot] != id) {
+                    slot = (slot + 1) & mask;
+                }
+                int hole = slot;
+                int next = (hole + 1) & mask;
+                while (table[next] != 0) {
+                    int home = slotOf(table[next]);
+                    // L'id in next può occupare il buco solo se il suo slot
+                    // naturale non cade tra il buco (escluso) e next
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        table[hole] = table[next];
+                        hole = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                table[hole] = 0;
+            }
+        }
+        
+        /**
+         * Partizione: stato e coda posseduti da un solo thread
+         */
+        private final class Shard implements Runnable {
+            final int index;
+            final BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+            final Map<String, ShardAccount> balances = new HashMap<>();
+            final RecentIds debited = new RecentIds();
+            final RecentIds credited = new RecentIds();
+            Thread thread;
+            
+            Shard(int index) {
+                this.index = index;
+            }
+            
+            @Override
+            public void run() {
+                List<Object> messages = new ArrayList<>();
+                try {
+                    while (true) {
+                        messages.add(inbox.take());
+                        inbox.drainTo(messages, 255);
+                        for (Object message : messages) {
+                            if (message == STOP) {
+                                return;
+                            } else if (message instanceof Credit) {
+                                credit((Credit) message);
+                            } else {
+                                debit((Transaction) message);
+                            }
+                        }
+                        messages.clear();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOGGER.warning("Partizione " + index + " interrotta");
+                }
+            }
+            
+            private void debit(Transaction transaction) {
+                if (!debited.add(transaction.getId())) {
+                    discardDuplicate(transaction); // Duplicato già addebitato
+                    return;
+                }
+                
+                ShardAccount from = balances.get(transaction.getFromAccount());
+                Integer target = shardOf.get(transaction.getToAccount());
+                long cents = toCents(transaction.getAmount());
+                
+                if (target == null || transaction.getType() != TransactionType.TRANSFER || cents <= 0 ||
+                    from.balanceCents < cents) {
+                    complete(transaction, false);
+                    return;
+                }
+                
+                from.balanceCents -= cents;
+                from.operations++;
+                
+                Credit credit = new Credit(transaction, cents);
+                if (target == index) {
+                    credit(credit);
+                } else {
+                    shards[target].inbox.add(credit);
+                }
+            }
+            
+            private void credit(Credit credit) {
+                if (!credited.add(credit.transaction.getId())) {
+                    discardDuplicate(credit.transaction); // Duplicato già accreditato
+                    return;
+                }
+                
+                ShardAccount to = balances.get(credit.transaction.getToAccount());
+                to.balanceCents += credit.cents;
+                to.operations++;
+                complete(credit.transaction, true);
+            }
+        }
+    }
+    
+    /**
+     * Motore basato su AccountTable: all'avvio i saldi dei conti vengono
+     * copiati in una tabella compatta e ogni proprietario riceve un id
+     * numerico. P processori svuotano una coda condivisa ed eseguono i
+     * trasferimenti con AccountTable.transfer, che prende solo i lock a
+     * strisce dei due conti. Come ShardEngine, riporta i saldi sui
+     * BankAccount solo all'arresto.
+     * 
+     * La tabella si aggiunge ai BankAccount invece di sostituirli, quindi
+     * questo motore non riduce l'heap del sistema (vedi MemoryReport).
+     */
+    static class TableEngine implements TransactionEngine {
+        private final int processorCount;
+        private final TransactionListener listener;
+        private final BlockingQueue<Transaction> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile boolean running;
+        private Thread[] processors;
+        
+        // Stato costruito in start e pubblicato dall'avvio dei thread
+        private AccountTable table;
+        private Map<String, Integer> idOf = Collections.emptyMap();
+        private BankAccount[] accountOf;
+        private long[] initialCents;
+        private AtomicIntegerArray operations;
+        
+        public TableEngine(int processorCount, TransactionListener listener) {
+            if (processorCount <= 0) throw new IllegalArgumentException("Il numero di processori deve essere positivo");
+            this.processorCount = processorCount;
+            this.listener = listener;
+        }
+        
+        @Override
+        public void start(Map<String, BankAccount> accounts) {
+            int n = Math.max(1, accounts.size());
+            table = new AccountTable(n);
+            accountOf = new BankAccount[n];
+            initialCents = new long[n];
+            operations = new AtomicIntegerArray(n);
+            Map<String, Integer> ids = new HashMap<>();
+            for (BankAccount account : accounts.values()) {
+                long cents = Math.round(account.getBalance() * 100);
+                int id = table.openAccount(cents);
+                ids.put(account.getOwner(), id);
+                accountOf[id] = account;
+                initialCents[id] = cents;
+            }
+            idOf = ids;
+            
+            running = true;
+            processors = new Thread[processorCount];
+            for (int i = 0; i < processorCount; i++) {
+                processors[i] = new Thread(this::process, "tabella-" + i);
+                processors[i].start();
+            }
+            LOGGER.info("Motore a tabella avviato con " + ids.size() + " conti, " + table.getStripeCount() +
+                        " strisce e " + processorCount + " processori");
+        }
+        
+        @Override
+        public void submit(Transaction transaction) throws InterruptedException {
+            queue.put(transaction);
+        }
+        
+        private void process() {
+            try {
+                while (running || !queue.isEmpty()) {
+                    Transaction transaction = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (transaction != null) {
+                        listener.completed(transaction, execute(transaction));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.warning("Processore " + Thread.currentThread().getName() + " interrotto");
+            }
+        }
+        
+        private boolean execute(Transaction transaction) {
+            Integer from = idOf.get(transaction.getFromAccount());
+            Integer to = idOf.get(transaction.getToAccount());
+            long cents = Math.round(transaction.getAmount() * 100);
+            if (from == null || to == null || from.equals(to) ||
+                transaction.getType() != TransactionType.TRANSFER || cents <= 0) {
+                return false;
+            }
+            if (!table.transfer(from, to, cents)) {
+                return false;
+            }
+            operations.incrementAndGet(from);
+            operations.incrementAndGet(to);
+            return true;
+        }
+        
+        @Override
+        public void stop() throws InterruptedException {
+            // I processori escono dopo aver svuotato la coda
+            running = false;
+            for (Thread processor : processors) {
+                processor.join();
+            }
+            
+            // Riporta i saldi finali sui conti
+            for (int id = 0; id < table.size(); id++) {
+                int count = operations.get(id);
+                if (count > 0) {
+                    accountOf[id].applyNetChange((table.getBalanceCents(id) - initialCents[id]) / 100.0, count);
+                }
+            }
+            LOGGER.info("Motore a tabella terminato");
+        }
+        
+        @Override
+        public String getName() {
+            return "tabella (" + processorCount + " processori)";
+        }
+    }
+    
+    /**
+     * Confronto di throughput tra il motore a lock (P thread che svuotano
+     * una coda condivisa chiamando executeTransaction), il motore a
+     * partizioni con P partizioni e il motore a tabella con P processori,
+     * al variare di P.
+     * 
+     * Esecuzione: java ES01_SistemaBancarioConcorrente motori
+     * (motori.conti, motori.transazioni, motori.partizioni)
+     */
+    static class EngineBenchmark {
+        static void run() throws InterruptedException {
+            int accountCount = Integer.getInteger("motori.conti", 10_000);
+            int transactionCount = Integer.getInteger("motori.transazioni", 500_000);
+            int[] partitions = Arrays.stream(System.getProperty("motori.partizioni", "1,2,4,8").split(","))
+                                     .mapToInt(s -> Integer.parseInt(s.trim()))
+                                     .toArray();
+            
+            // Il benchmark non deve misurare il logging
+            Level level = LOGGER.getLevel();
+            LOGGER.setLevel(Level.SEVERE);
+            try {
+                System.out.println(transactionCount + " trasferimenti tra " + accountCount + " conti");
+                System.out.printf("%-8s %18s %18s %18s%n", "P", "Lock (tx/s)", "Partizioni (tx/s)",
+                                  "Tabella (tx/s)");
+                for (int p : partitions) {
+                    List<Transaction> transactions = randomTransfers(accountCount, transactionCount);
+                    double locked = measureLocked(accountCount, transactions, p);
+                    double sharded = measureEngine(accountCount, transactions,
+                                                   listener -> new ShardEngine(p, listener));
+                    double table = measureEngine(accountCount, transactions,
+                                                 listener -> new TableEngine(p, listener));
+                    System.out.printf("%-8d %,18.0f %,18.0f %,18.0f%n", p, locked, sharded, table);
+                }
+            } finally {
+                LOGGER.setLevel(level);
+            }
+        }
+        
+        private static List<Transaction> randomTransfers(int accountCount, int transactionCount) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<Transaction> transactions = new ArrayList<>(transactionCount);
+            for (int i = 0; i < transactionCount; i++) {
+                int from = random.nextInt(accountCount);
+                int to = random.nextInt(accountCount - 1);
+                if (to >= from) to++;
+                transactions.add(new Transaction("C" + from, "C" + to, 1 + random.nextInt(100),
+                                                 TransactionType.TRANSFER));
+            }
+            return transactions;
+        }
+        
+        private static BankSystem newBank(int accountCount) {
+            BankSystem bank = new BankSystem();
+            for (int i = 0; i < accountCount; i++) {
+                bank.accounts.put("C" + i, new BankAccount("C" + i, 1_000_000.0));
+            }
+            return bank;
+        }
+        
+        private static double measureLocked(int accountCount, List<Transaction> transactions, int threads)
+                throws InterruptedException {
+            BankSystem bank = newBank(accountCount);
+            bank.transactionQueue.addAll(transactions);
+            
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    Transaction transaction;
+                    while ((transaction = bank.transactionQueue.poll()) != null) {
+                        bank.executeTransaction(transaction);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            bank.shutdownExecutors();
+            return transactions.size() / seconds;
+        }
+        
+        private static double measureEngine(int accountCount, List<Transaction> transactions,
+                                            Function<TransactionListener, TransactionEngine> factory)
+                throws InterruptedException {
+            BankSystem bank = newBank(accountCount);
+            LongAdder completed = new LongAdder();
+            TransactionEngine engine = factory.apply((transaction, success) -> completed.increment());
+            engine.start(bank.accounts);
+            
+            long start = System.nanoTime();
+            for (Transaction transaction : transactions) {
+                engine.submit(transaction);
+            }
+            engine.stop();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            bank.shutdownExecutors();
+            
+            if (completed.sum() != transactions.size()) {
+                throw new IllegalStateException("Transazioni concluse: " + completed.sum());
+            }
+            return transactions.size() / seconds;
+        }
+    }
+    
+    /**
+     * Giornale delle transazioni con commit di gruppo, istantanee e ripresa.
+     * 
+     * Ogni apertura di conto e ogni trasferimento riuscito viene aggiunto a
+     * un segmento mappato in memoria (giornale-<prima sequenza>.log) come
+     * record [lunghezza][CRC32C][tipo][sequenza][dati]. Chi aggiunge non
+     * forza il disco: attende con awaitDurable che il thread di commit abbia
+     * eseguito un force() che copra la sua sequenza. Mentre un force() è in
+     * corso si accumulano altri record, che il force() successivo rende
+     * durevoli tutti insieme: molti committer condividono una sola scrittura
+     * sincrona.
+     * 
+     * Un'istantanea (istantanea.bin) contiene i saldi in centesimi di tutti i
+     * conti e l'ultima sequenza che comprende; viene scritta su un file
+     * temporaneo e rinominata atomicamente. Dopo un'istantanea i segmenti
+     * interamente coperti vengono cancellati. Alla ripresa si carica
+     * l'istantanea e si riapplicano solo i record successivi. I
+     * trasferimenti sono variazioni additive dei saldi, quindi il loro
+     * ordine nel giornale non deve coincidere con quello di esecuzione.
+     * 
+     * Le voci di cronologia uscite dai buffer dei conti non sono nei
+     * segmenti, che le istantanee cancellano, ma in un file a parte
+     * (cronologia.log) che cresce senza essere compattato. Chi le consegna
+     * tiene il write lock del proprio conto, quindi le mette solo in una
+     * coda: le codifica e le scrive il thread giornale-cronologia, senza
+     * lock di conto.
+     */
+    static class TransactionJournal implements AutoCloseable {
+        private static final byte OPEN = 1;
+        private static final byte TRANSFER = 2;
+        private static final int RECORD_HEADER = 8;
+        private static final int SNAPSHOT_MAGIC = 0x42414E4B;
+        private static final String SNAPSHOT_FILE = "istantanea.bin";
+        private static final String HISTORY_FILE = "cronologia.log";
+        
+        private final Path directory;
+        private final int segmentSize;
+        private final CRC32C crc = new CRC32C();
+        
+        // Stato della scrittura, protetto da appendLock
+        private final Object appendLock = new Object();
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private final TreeMap<Long, Path> segments = new TreeMap<>();
+        private long lastSequence;
+        private boolean committerWaiting;
+        
+        // Voci di cronologia consegnate dai conti e non ancora codificate
+        private static final int HISTORY_QUEUE_CAPACITY = 1 << 14;
+        private static final SpilledEntry END_OF_HISTORY = new SpilledEntry(null, 0, null, 0, null, 0);
+        private final BlockingQueue<SpilledEntry> spilledHistory = new ArrayBlockingQueue<>(HISTORY_QUEUE_CAPACITY);
+        private final AtomicLong historyQueued = new AtomicLong(0);
+        private final Thread historyWriter;
+        
+        // Cronologia in eccesso dei conti, protetta da historyLock
+        private final Object historyLock = new Object();
+        private final ByteBuffer historyBuffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32C historyCrc = new CRC32C();
+        private FileChannel historyChannel;
+        private long historyWritten;
+        private IOException historyFailure;
+        
+        // Ultima sequenza resa durevole dal thread di commit
+        private final Object durableMonitor = new Object();
+        private volatile long durableSequence;
+        private volatile IOException failure;
+        
+        private final AtomicLong forceCount = new AtomicLong(0);
+        private final Thread committer;
+        private volatile boolean closed = false;
+        
+        /**
+         * Voce di cronologia in attesa del thread di scrittura
+         */
+        private static final class SpilledEntry {
+            final String owner;
+            final long timestamp;
+            final HistoryType type;
+            final long amountCents;
+            final String counterparty;
+            final int operations;
+            
+            SpilledEntry(String owner, long timestamp, HistoryType type, long amountCents, String counterparty,
+                         int operations) {
+                this.owner = owner;
+                this.timestamp = timestamp;
+                this.type = type;
+                this.amountCents = amountCents;
+                this.counterparty = counterparty;
+                this.operations = operations;
+            }
+        }
+        
+        /**
+         * Stato ricostruito dall'istantanea e dalla coda del giornale
+         */
+        static class RecoveredState {
+            final Map<String, Long> balances;
+            final long lastSequence;
+            final long replayedRecords;
+            
+            RecoveredState(Map<String, Long> balances, long lastSequence, long replayedRecords) {
+                this.balances = balances;
+                this.lastSequence = lastSequence;
+                this.replayedRecords = replayedRecords;
+            }
+        }
+        
+        /**
+         * Apre il giornale per nuove scritture dopo la sequenza lastSequence
+         * (di solito RecoveredState.lastSequence). Si parte sempre da un
+         * segmento nuovo, senza riscrivere la coda di un segmento precedente.
+         */
+        public TransactionJournal(Path directory, long lastSequence, int segmentSize) throws IOException {
+            if (segmentSize < 4096) throw new IllegalArgumentException("Segmento troppo piccolo: " + segmentSize);
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+            this.lastSequence = lastSequence;
+            this.durableSequence = lastSequence;
+            
+            Files.createDirectories(directory);
+            for (Path path : listSegments(directory)) {
+                segments.put(firstSequenceOf(path), path);
+            }
+            openSegment(lastSequence + 1);
+            
+            committer = new Thread(this::commitLoop, "giornale-commit");
+            committer.setDaemon(true);
+            committer.start();
+            historyWriter = new Thread(this::historyWriterLoop, "giornale-cronologia");
+            historyWriter.setDaemon(true);
+            historyWriter.start();
+        }
+        
+        public long getLastSequence() {
+            synchronized (appendLock) {
+                return lastSequence;
+            }
+        }
+        
+        public long getForceCount() {
+            return forceCount.get();
+        }
+        
+        /**
+         * Indica se un errore di I/O ha reso il giornale inutilizzabile: da
+         * quel momento append, awaitDurable e writeSnapshot falliscono
+         */
+        public boolean isFailed() {
+            return failure != null;
+        }
+        
+        public long appendOpen(String owner, long cents) {
+            byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+            return append(OPEN, ownerBytes, null, cents, null);
+        }
+        
+        public long appendTransfer(String from, String to, long cents) {
+            byte[] fromBytes = from.getBytes(StandardCharsets.UTF_8);
+            byte[] toBytes = to.getBytes(StandardCharsets.UTF_8);
+            return append(TRANSFER, fromBytes, toBytes, cents, null);
+        }
+        
+        /**
+         * Voce di cronologia uscita dal buffer di un conto (vedi HistorySink).
+         * Non influisce sui saldi e non passa dai segmenti: finisce nel file
+         * cronologia.log, che le istantanee non compattano.
+         * 
+         * Viene chiamata con il write lock del conto, quindi si limita ad
+         * accodare i valori: nessun lock condiviso e nessun I/O. Se il thread
+         * di scrittura è indietro di HISTORY_QUEUE_CAPACITY voci il chiamante
+         * attende che si liberi spazio; quel thread non prende lock di conto.
+         */
+        public void appendHistory(String owner, long timestamp, HistoryType type, long amountCents,
+                                  String counterparty, int operations) {
+            if (closed) throw new IllegalStateException("Giornale chiuso");
+            try {
+                spilledHistory.put(new SpilledEntry(owner, timestamp, type, amountCents, counterparty, operations));
+                historyQueued.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.warning("Voce di cronologia di " + owner + " persa: thread interrotto");
+            }
+        }
+        
+        /**
+         * Codifica le voci accodate nel buffer della cronologia, che viene
+         * scritto sul file quando è pieno, prima di una lettura e alla
+         * chiusura; le voci non vengono attese su disco. Termina con
+         * END_OF_HISTORY, dopo aver scritto le voci rimaste.
+         */
+        private void historyWriterLoop() {
+            List<SpilledEntry> batch = new ArrayList<>(256);
+            boolean ending = false;
+            try {
+                while (!ending || !spilledHistory.isEmpty()) {
+                    if (!ending) {
+                        batch.add(spilledHistory.take());
+                    }
+                    spilledHistory.drainTo(batch, 255);
+                    long written = 0;
+                    synchronized (historyLock) {
+                        for (SpilledEntry entry : batch) {
+                            if (entry == END_OF_HISTORY) {
+                                ending = true;
+                            } else {
+                                writeHistory(entry);
+                                written++;
+                            }
+                        }
+                        historyWritten += written;
+                        historyLock.notifyAll();
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * Aggiunge una voce al buffer della cronologia (chiamato con
+         * historyLock). Dopo il primo errore di scrittura le voci vengono
+         * scartate e le letture lo segnalano.
+         */
+        private void writeHistory(SpilledEntry entry) {
+            if (historyFailure != null) return;
+            
+            byte[] ownerBytes = entry.owner.getBytes(StandardCharsets.UTF_8);
+            byte[] counterpartyBytes = entry.counterparty != null ? entry.counterparty.getBytes(StandardCharsets.UTF_8)
+                                                                  : null;
+            int bodyLength = 2 + ownerBytes.length + 8 + 1 + 8 + 2 +
+                             (counterpartyBytes != null ? counterpartyBytes.length : 0) + 4;
+            if (RECORD_HEADER + bodyLength > historyBuffer.capacity()) {
+                LOGGER.warning("Voce di cronologia di " + entry.owner + " troppo grande, scartata");
+                return;
+            }
+            try {
+                if (historyBuffer.remaining() < RECORD_HEADER + bodyLength) {
+                    flushHistory();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Scrittura della cronologia fallita", e);
+                historyFailure = e;
+                return;
+            }
+            
+            int start = historyBuffer.position();
+            historyBuffer.position(start + RECORD_HEADER);
+            historyBuffer.putShort((short) ownerBytes.length);
+            historyBuffer.put(ownerBytes);
+            historyBuffer.putLong(entry.timestamp);
+            historyBuffer.put((byte) entry.type.ordinal());
+            historyBuffer.putLong(entry.amountCents);
+            // Lunghezza -1: nessuna controparte
+            if (counterpartyBytes != null) {
+                historyBuffer.putShort((short) counterpartyBytes.length);
+                historyBuffer.put(counterpartyBytes);
+            } else {
+                historyBuffer.putShort((short) -1);
+            }
+            historyBuffer.putInt(entry.operations);
+            
+            historyCrc.reset();
+            historyCrc.update(historyBuffer.duplicate().position(start + RECORD_HEADER).limit(start + RECORD_HEADER + bodyLength));
+            historyBuffer.putInt(start, bodyLength);
+            historyBuffer.putInt(start + 4, (int) historyCrc.getValue());
+        }
+        
+        /**
+         * Scrive sul file le voci di cronologia nel buffer (chiamato con
+         * historyLock)
+         */
+        private void flushHistory() throws IOException {
+            if (historyBuffer.position() == 0) return;
+            if (historyChannel == null) {
+                historyChannel = FileChannel.open(directory.resolve(HISTORY_FILE), StandardOpenOption.CREATE,
+                                                  StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            historyBuffer.flip();
+            while (historyBuffer.hasRemaining()) {
+                historyChannel.write(historyBuffer);
+            }
+            historyBuffer.clear();
+        }
+        
+        /**
+         * Voci di cronologia di un conto uscite dal suo buffer, dalla più
+         * vecchia alla più recente
+         */
+        public List<String> readHistory(String owner) throws IOException {
+            synchronized (historyLock) {
+                // Attende che le voci già accodate siano nel buffer
+                long queued = historyQueued.get();
+                try {
+                    while (historyWritten < queued) {
+                        historyLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Lettura della cronologia interrotta");
+                }
+                if (historyFailure != null) throw new IOException("Cronologia non scritta", historyFailure);
+                flushHistory();
+            }
+            return readHistory(directory, owner);
+        }
+        
+        /**
+         * Legge dal file cronologia.log della directory le voci di un conto,
+         * anche a giornale chiuso. Scorre l'intero file: serve per la
+         * consultazione, non per il percorso delle transazioni. Un record
+         * incompleto o con CRC errato chiude il file.
+         */
+        public static List<String> readHistory(Path directory, String owner) throws IOException {
+            List<String> entries = new ArrayList<>();
+            Path path = directory.resolve(HISTORY_FILE);
+            if (!Files.exists(path) || Files.size(path) == 0) return entries;
+            
+            HistoryType[] types = HistoryType.values();
+            CRC32C crc = new CRC32C();
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                while (buffer.remaining() >= RECORD_HEADER) {
+                    int length = buffer.getInt();
+                    int expectedCrc = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) break;
+                    
+                    ByteBuffer body = buffer.slice(buffer.position(), length);
+                    crc.reset();
+                    crc.update(body.duplicate());
+                    if ((int) crc.getValue() != expectedCrc) break;
+                    buffer.position(buffer.position() + length);
+                    
+                    if (!readString(body).equals(owner)) continue;
+                    long timestamp = body.getLong();
+                    HistoryType type = types[body.get()];
+                    long amountCents = body.getLong();
+                    short counterpartyLength = body.getShort();
+                    String counterparty = HistoryRing.NO_COUNTERPARTY;
+                    if (counterpartyLength >= 0) {
+                        byte[] bytes = new byte[counterpartyLength];
+                        body.get(bytes);
+                        counterparty = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    int operations = body.getInt();
+                    entries.add(HistoryRing.format(timestamp, type, amountCents, counterparty, operations));
+                }
+            }
+            return entries;
+        }
+
+        /**
+         * Aggiunge un record senza attendere il disco e ne restituisce la
+         * sequenza
+         */
+        private long append(byte type, byte[] first, byte[] second, long cents, byte[] extra) {
+            int bodyLength = 1 + 8 + 2 + first.length + (second != null ? 2 + second.length : 0) + 8 +
+                             (extra != null ? extra.length : 0);
+            int recordLength = RECORD_HEADER + bodyLength;
+            if (recordLength + 4 > segmentSize) throw new IllegalArgumentException("Record troppo grande");
+            
+            synchronized (appendLock) {
+                if (closed) throw new IllegalStateException("Giornale chiuso");
+                if (failure != null) throw new UncheckedIOException(failure);
+                
+                try {
+                    // Lascia sempre almeno 4 byte a zero come marcatore di fine segmento
+                    if (segment.position() + recordLength + 4 > segmentSize) {
+                        rollSegment();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                    throw new UncheckedIOException(failure);
+                }
+                
+                long sequence = ++lastSequence;
+                int start = segment.position();
+                segment.position(start + RECORD_HEADER);
+                segment.put(type);
+                segment.putLong(sequence);
+                segment.putShort((short) first.length);
+                segment.put(first);
+                if (second != null) {
+                    segment.putShort((short) second.length);
+                    segment.put(second);
+                }
+                segment.putLong(cents);
+                if (extra != null) {
+                    segment.put(extra);
+                }
+                
+                crc.reset();
+                crc.update(segment.duplicate().position(start + RECORD_HEADER).limit(start + recordLength));
+                segment.putInt(start, bodyLength);
+                segment.putInt(start + 4, (int) crc.getValue());
+                
+                if (committerWaiting) {
+                    appendLock.notify();
+                }
+                return sequence;
+            }
+        }
+        
+        /**
+         * Attende che il record con la sequenza indicata sia sul disco
+         */
+        public void awaitDurable(long sequence) {
+            boolean interrupted = false;
+            synchronized (durableMonitor) {
+                while (durableSequence < sequence) {
+                    if (failure != null) throw new UncheckedIOException(failure);
+                    try {
+                        durableMonitor.wait();
+                    } catch (InterruptedException e) {
+                        // L'attesa è breve: si completa e si ripristina il flag
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * Thread di commit: un force() per tutti i record aggiunti dal
+         * force() precedente. Se un force() fallisce il giornale non può più
+         * garantire la durabilità: l'errore viene registrato in failure, chi
+         * attende viene svegliato e riceve l'eccezione, e il thread termina.
+         */
+        private void commitLoop() {
+            while (true) {
+                long target;
+                MappedByteBuffer buffer;
+                synchronized (appendLock) {
+                    while (lastSequence == durableSequence && !closed) {
+                        committerWaiting = true;
+                        try {
+                            appendLock.wait();
+                        } catch (InterruptedException e) {
+                            // Si esce solo alla chiusura
+                        }
+                        committerWaiting = false;
+                    }
+                    if (lastSequence == durableSequence) {
+                        return;
+                    }
+                    target = lastSequence;
+                    buffer = segment;
+                }
+                
+                try {
+                    buffer.force();
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                forceCount.incrementAndGet();
+                synchronized (durableMonitor) {
+                    durableSequence = target;
+                    durableMonitor.notifyAll();
+                }
+            }
+        }
+        
+        private void openSegment(long firstSequence) throws IOException {
+            Path path = directory.resolve(String.format("giornale-%020d.log", firstSequence));
+            FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                segment = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+            channel = file;
+            segments.put(firstSequence, path);
+            // Il nuovo file deve sopravvivere al crash insieme ai record che conterrà
+            syncDirectory();
+        }
+        
+        /**
+         * Rende durevoli le voci della directory (file creati, rinominati o
+         * cancellati): force() su un file non le comprende.
+         */
+        private void syncDirectory() throws IOException {
+            FileChannel dir;
+            try {
+                dir = FileChannel.open(directory, StandardOpenOption.READ);
+            } catch (AccessDeniedException e) {
+                // Windows non permette di aprire una directory come file: ci si affida al file system
+                return;
+            }
+            try (dir) {
+                dir.force(true);
+            }
+        }
+        
+        /**
+         * Chiude il segmento pieno, rendendolo durevole, e ne apre uno nuovo
+         * (chiamato con appendLock)
+         */
+        /**
+         * Registra in failure il primo errore che rende il giornale
+         * inutilizzabile e sveglia chi attende il disco
+         */
+        private void fail(Exception e) {
+            LOGGER.log(Level.SEVERE, "Scrittura del giornale su disco fallita", e);
+            synchronized (durableMonitor) {
+                if (failure == null) {
+                    failure = e instanceof IOException ? (IOException) e
+                            : e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause()
+                            : new IOException(e);
+                }
+                durableMonitor.notifyAll();
+            }
+        }
+        
+        /**
+         * Passa a un segmento nuovo (chiamato con appendLock). Il segmento
+         * pieno resta quello corrente finché il nuovo non è aperto.
+         */
+        private void rollSegment() throws IOException {
+            segment.force();
+            FileChannel previous = channel;
+            openSegment(lastSequence + 1);
+            previous.close();
+        }
+        
+        /**
+         * Scrive un'istantanea dei saldi che comprende tutti i record fino a
+         * lastSequence, poi cancella i segmenti che non servono più
+         */
+        public void writeSnapshot(long lastSequence, Map<String, Long> balances) throws IOException {
+            // Con il giornale guasto i saldi in memoria possono non corrispondere a ciò che è sul disco
+            if (failure != null) throw new IOException("Giornale guasto: istantanea non scritta", failure);
+            
+            Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                CRC32C checksum = new CRC32C();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(file), checksum), 1 << 16));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(lastSequence);
+                out.writeInt(balances.size());
+                for (Map.Entry<String, Long> entry : balances.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+                out.flush();
+                out.writeLong(checksum.getValue());
+                out.flush();
+                file.force(true);
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+                       StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // La rinomina deve essere sul disco prima di cancellare i segmenti che l'istantanea sostituisce
+            syncDirectory();
+            
+            // Un segmento è superfluo se il successivo inizia entro lastSequence + 1
+            synchronized (appendLock) {
+                Long next = segments.higherKey(segments.firstKey());
+                while (next != null && next <= lastSequence + 1) {
+                    Files.deleteIfExists(segments.pollFirstEntry().getValue());
+                    next = segments.higherKey(segments.firstKey());
+                }
+            }
+        }
+        
+        /**
+         * Carica l'ultima istantanea e riapplica i record successivi. Un
+         * record incompleto o con CRC errato chiude il suo segmento: è una
+         * scrittura interrotta da un crash, mai confermata al chiamante.
+         */
+        public static RecoveredState recover(Path directory) throws IOException {
+            Map<String, Long> balances = new HashMap<>();
+            long snapshotSequence = 0;
+            
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) {
+                CRC32C checksum = new CRC32C();
+                try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                        new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16), checksum))) {
+                    if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Istantanea non valida: " + snapshot);
+                    snapshotSequence = in.readLong();
+                    int count = in.readInt();
+                    balances = new HashMap<>(count * 4 / 3 + 1);
+                    for (int i = 0; i < count; i++) {
+                        balances.put(in.readUTF(), in.readLong());
+                    }
+                    long computed = checksum.getValue();
+                    if (in.readLong() != computed) throw new IOException("CRC dell'istantanea errato: " + snapshot);
+                }
+            }
+            
+            long lastSequence = snapshotSequence;
+            long replayed = 0;
+            CRC32C crc = new CRC32C();
+            for (Path path : listSegments(directory)) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                    while (buffer.remaining() >= RECORD_HEADER) {
+                        int length = buffer.getInt();
+                        int expectedCrc = buffer.getInt();
+                        if (length <= 0 || length > buffer.remaining()) break;
+                        
+                        ByteBuffer body = buffer.slice(buffer.position(), length);
+                        crc.reset();
+                        crc.update(body.duplicate());
+                        if ((int) crc.getValue() != expectedCrc) break;
+                        buffer.position(buffer.position() + length);
+                        
+                        byte type = body.get();
+                        long sequence = body.getLong();
+                        lastSequence = Math.max(lastSequence, sequence);
+                        if (sequence <= snapshotSequence) continue;
+                        
+                        String first = readString(body);
+                        if (type == OPEN) {
+                            balances.put(first, body.getLong());
+                        } else if (type == TRANSFER) {
+                            String second = readString(body);
+                            long cents = body.getLong();
+                            balances.merge(first, -cents, Long::sum);
+                            balances.merge(second, cents, Long::sum);
+                        } else {
+                            throw new IOException("Tipo di record sconosciuto " + type + " in " + path);
+                        }
+                        replayed++;
+                    }
+                }
+            }
+            return new RecoveredState(balances, lastSequence, replayed);
+        }
+        
+        private static String readString(ByteBuffer body) {
+            byte[] bytes = new byte[body.getShort()];
+            body.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        private static List<Path> listSegments(Path directory) throws IOException {
+            List<Path> paths = new ArrayList<>();
+            if (!Files.isDirectory(directory)) return paths;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "giornale-*.log")) {
+                for (Path path : stream) {
+                    paths.add(path);
+                }
+            }
+            paths.sort((a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+            return paths;
+        }
+        
+        private static long firstSequenceOf(Path path) {
+            String name = path.getFileName().toString();
+            return Long.parseLong(name.substring("giornale-".length(), name.length() - ".log".length()));
+        }
+        
+        @Override
+        public void close() throws IOException {
+            synchronized (appendLock) {
+                if (closed) return;
+                closed = true;
+                appendLock.notifyAll();
+            }
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (appendLock) {
+                if (failure == null) {
+                    segment.force();
+                }
+                channel.close();
+            }
+            // Il thread di scrittura svuota la coda prima di terminare
+            boolean interrupted = false;
+            boolean ended = false;
+            while (!ended) {
+                try {
+                    spilledHistory.put(END_OF_HISTORY);
+                    ended = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            while (historyWriter.isAlive()) {
+                try {
+                    historyWriter.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (historyLock) {
+                flushHistory();
+                if (historyChannel != null) {
+                    historyChannel.force(true);
+                    historyChannel.close();
+                    historyChannel = null;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Misure del giornale: trasferimenti durevoli al secondo eseguiti da più
+     * thread tramite executeTransaction (con il numero medio di record per
+     * force) e tempo di ripresa di un'istantanea di giornale.ripresa conti
+     * seguita da una coda di giornale.coda trasferimenti.
+     * 
+     * Esecuzione: java -Xmx4g ES01_SistemaBancarioConcorrente giornale [directory]
+     * (giornale.thread, giornale.conti, giornale.durataMs)
+     */
+    static class JournalBenchmark {
+        static void run(Path directory) throws IOException, InterruptedException {
+            int threads = Integer.getInteger("giornale.thread", 16);
+            int accountCount = Integer.getInteger("giornale.conti", 10_000);
+            long durationMs = Long.getLong("giornale.durataMs", 3000L);
+            int recoveryAccounts = Integer.getInteger("giornale.ripresa", 2_000_000);
+            int tailRecords = Integer.getInteger("giornale.coda", 1_000_000);
+            
+            Level level = LOGGER.getLevel();
+            LOGGER.setLevel(Level.SEVERE);
+            try {
+                Path transfers = directory.resolve("trasferimenti");
+                deleteDirectory(transfers);
+                measureDurableTransfers(transfers, threads, accountCount, durationMs);
+                
+                Path recovery = directory.resolve("ripresa");
+                deleteDirectory(recovery);
+                measureRecovery(recovery, recoveryAccounts, tailRecords);
+            } finally {
+                LOGGER.setLevel(level);
+            }
+        }
+        
+        private static void measureDurableTransfers(Path directory, int threads, int accountCount, long durationMs)
+                throws IOException, InterruptedException {
+            BankSystem bank = new BankSystem();
+            for (int i = 0; i < accountCount; i++) {
+                bank.accounts.put("C" + i, new BankAccount("C" + i, 1_000_000.0));
+            }
+            bank.openJournal(directory, 0);
+            TransactionJournal journal = bank.journal;
+            long forcesBefore = journal.getForceCount();
+            
+            LongAdder completed = new LongAdder();
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        int from = random.nextInt(accountCount);
+                        int to = random.nextInt(accountCount - 1);
+                        if (to >= from) to++;
+                        if (bank.executeTransaction(new Transaction("C" + from, "C" + to, 1 + random.nextInt(100),
+                                                                    TransactionType.TRANSFER))) {
+                            completed.increment();
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            Thread.sleep(durationMs);
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long forces = journal.getForceCount() - forcesBefore;
+            bank.closeJournal();
+            bank.shutdownExecutors();
+            
+            System.out.printf("Trasferimenti durevoli: %,.0f/s con %d thread (%,d force, %.1f record per force)%n",
+                              completed.sum() / seconds, threads, forces, (double) completed.sum() / Math.max(1, forces));
+        }
+        
+        private static void measureRecovery(Path directory, int accountCount, int tailRecords) throws IOException {
+            Map<String, Long> balances = new HashMap<>(accountCount * 4 / 3 + 1);
+            for (int i = 0; i < accountCount; i++) {
+                balances.put("C" + i, 100_000L);
+            }
+            try (TransactionJournal journal = new TransactionJournal(directory, 0, 64 << 20)) {
+                journal.writeSnapshot(0, balances);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long sequence = 0;
+                for (int i = 0; i < tailRecords; i++) {
+                    sequence = journal.appendTransfer("C" + random.nextInt(accountCount),
+                                                      "C" + random.nextInt(accountCount), 1);
+                }
+                journal.awaitDurable(sequence);
+            }
+            balances = null;
+            
+            long start = System.nanoTime();
+            TransactionJournal.RecoveredState state = TransactionJournal.recover(directory);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Ripresa: %,d conti e %,d record riapplicati in %.2f s%n",
+                              state.balances.size(), state.replayedRecords, seconds);
+        }
+        
+        private static void deleteDirectory(Path directory) throws IOException {
+            if (!Files.exists(directory)) return;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Distribuzione Zipfiana sugli indici 0..n-1: l'indice 0 è il più
+     * frequente e la probabilità dell'indice i è proporzionale a
+     * 1/(i+1)^theta. Usa l'algoritmo di Gray et al. (lo stesso di YCSB):
+     * la costante zeta(n, theta) si calcola una volta in O(n), poi ogni
+     * estrazione costa O(1).
+     */
+    static class ZipfianSampler {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final double halfPowTheta;
+        
+        public ZipfianSampler(int n, double theta) {
+            if (n < 2) throw new IllegalArgumentException("Servono almeno 2 elementi");
+            if (theta <= 0 || theta >= 1) throw new IllegalArgumentException("theta deve essere in (0, 1): " + theta);
+            
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(n, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+            this.halfPowTheta = 1 + Math.pow(0.5, theta);
+        }
+        
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+        
+        public int next(double uniform) {
+            double uz = uniform * zetan;
+            if (uz < 1) return 0;
+            if (uz < halfPowTheta) return 1;
+            return (int) Math.min(n - 1, (long) (n * Math.pow(eta * uniform - eta + 1, alpha)));
+        }
+        
+        public double getTheta() {
+            return theta;
+        }
+    }
+    
+    /**
+     * Destinazione delle transazioni prodotte da TransactionGenerator
+     * (ad esempio TransactionEngine::submit)
+     */
+    interface TransactionSink {
+        void accept(Transaction transaction) throws InterruptedException;
+    }
+    
+    /**
+     * Generatore sintetico di trasferimenti ad alto ritmo per i test di carico.
+     * 
+     * I conti sono in un array indicizzato costruito all'avvio; ogni
+     * produttore usa ThreadLocalRandom e sceglie i conti in modo uniforme o
+     * Zipfiano (pochi conti ricevono la maggior parte del traffico). Il ritmo
+     * totale richiesto è diviso tra i produttori, ognuno dei quali calcola
+     * l'istante previsto di ogni invio dal precedente istante previsto: se
+     * resta indietro recupera inviando subito.
+     * 
+     * Il ritmo ottenuto conta le transazioni consegnate al sink, non quelle
+     * eseguite: con i motori, le cui code sono limitate, il sink attende
+     * quando sono piene e il ritmo ottenuto scende verso quello che il
+     * motore accetta, ma le transazioni completate vanno contate dal suo
+     * listener.
+     */
+    static class TransactionGenerator {
+        private final String[] owners;
+        private final ZipfianSampler zipf;
+        private final double ratePerSecond;
+        private final int producerCount;
+        private final TransactionSink sink;
+        
+        private final LongAdder generated = new LongAdder();
+        private volatile boolean running = false;
+        private Thread[] producers;
+        private long startNanos;
+        private long stopNanos;
+        
+        /**
+         * @param zipfTheta 0 per la scelta uniforme, altrimenti il parametro
+         *                  theta della distribuzione Zipfiana (0 < theta < 1)
+         */
+        public TransactionGenerator(Collection<String> owners, double zipfTheta, double ratePerSecond,
+                                    int producerCount, TransactionSink sink) {
+            if (owners.size() < 2) throw new IllegalArgumentException("Servono almeno 2 conti");
+            if (ratePerSecond <= 0) throw new IllegalArgumentException("Il ritmo deve essere positivo");
+            if (producerCount <= 0) throw new IllegalArgumentException("Serve almeno un produttore");
+            
+            this.owners = owners.toArray(new String[0]);
+            this.zipf = zipfTheta > 0 ? new ZipfianSampler(this.owners.length, zipfTheta) : null;
+            this.ratePerSecond = ratePerSecond;
+            this.producerCount = producerCount;
+            this.sink = sink;
+        }
+        
+        public void start() {
+            running = true;
+            producers = new Thread[producerCount];
+            startNanos = System.nanoTime();
+            for (int i = 0; i < producerCount; i++) {
+                producers[i] = new Thread(this::produce, "generatore-" + i);
+                producers[i].start();
+            }
+        }
+        
+        /**
+         * Ferma i produttori, interrompendo quelli in attesa nel sink
+         */
+        public void stop() throws InterruptedException {
+            running = false;
+            for (Thread producer : producers) {
+                producer.interrupt();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            stopNanos = System.nanoTime();
+        }
+        
+        public long getGenerated() {
+            return generated.sum();
+        }
+        
+        public double getRequestedRate() {
+            return ratePerSecond;
+        }
+        
+        /**
+         * Transazioni consegnate al sink al secondo, tra start e stop
+         */
+        public double getAchievedRate() {
+            return generated.sum() / getElapsedSeconds();
+        }
+        
+        /**
+         * Secondi trascorsi da start (fino a stop, se già chiamato)
+         */
+        public double getElapsedSeconds() {
+            long end = running ? System.nanoTime() : stopNanos;
+            return (end - startNanos) / 1e9;
+        }
+        
+        private int pick(ThreadLocalRandom random) {
+            return zipf != null ? zipf.next(random.nextDouble()) : random.nextInt(owners.length);
+        }
+        
+        private void produce() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double intervalNanos = 1e9 * producerCount / ratePerSecond;
+            double intended = System.nanoTime();
+            long count = 0;
+            
+            try {
+                while (running) {
+                    long now = System.nanoTime();
+                    if (now < intended) {
+                        LockSupport.parkNanos((long) intended - now);
+                        continue;
+                    }
+                    
+                    // Invia tutte le transazioni il cui istante previsto è passato
+                    while (intended <= now && running) {
+                        int from = pick(random);
+                        int to;
+                        do {
+                            to = pick(random);
+                        } while (to == from);
+                        
+                        sink.accept(new Transaction(owners[from], owners[to], random.nextInt(1_000, 20_000) / 100.0,
+                                                    TransactionType.TRANSFER));
+                        intended += intervalNanos;
+                        if (++count == 256) {
+                            generated.add(count);
+                            count = 0;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
-                lock.writeLock().unlock();
+                generated.add(count);
+            }
+        }
+    }
+    
+    /**
+     * Prova di carico del generatore: produce trasferimenti al ritmo
+     * richiesto e li invia a un semplice contatore o al motore a partizioni,
+     * poi confronta il ritmo ottenuto con quello richiesto.
+     * 
+     * Esecuzione: java ES01_SistemaBancarioConcorrente generatore
+     * (generatore.ritmo, generatore.thread, generatore.conti,
+     *  generatore.theta = 0 per uniforme, generatore.durataMs,
+     *  generatore.destinazione = conteggio|partizioni)
+     */
+    static class GeneratorBenchmark {
+        static void run() throws InterruptedException {
+            double rate = Double.parseDouble(System.getProperty("generatore.ritmo", "1000000"));
+            int producers = Integer.getInteger("generatore.thread", 4);
+            int accountCount = Integer.getInteger("generatore.conti", 100_000);
+            double theta = Double.parseDouble(System.getProperty("generatore.theta", "0.99"));
+            long durationMs = Long.getLong("generatore.durataMs", 3000L);
+            String target = System.getProperty("generatore.destinazione", "conteggio");
+            
+            List<String> owners = new ArrayList<>(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                owners.add("C" + i);
             }
+            
+            LongAdder executed = new LongAdder();
+            LongAdder hottest = new LongAdder();
+            ShardEngine engine = null;
+            TransactionSink sink;
+            BankSystem bank = null;
+            if (target.equals("partizioni")) {
+                bank = new BankSystem();
+                for (String owner : owners) {
+                    bank.accounts.put(owner, new BankAccount(owner, 1_000_000.0));
+                }
+                engine = new ShardEngine(Runtime.getRuntime().availableProcessors(),
+                                         (transaction, success) -> executed.increment());
+                engine.start(bank.accounts);
+                sink = engine::submit;
+            } else {
+                sink = transaction -> {
+                    if (transaction.getFromAccount().equals("C0")) hottest.increment();
+                };
+            }
+            
+            TransactionGenerator generator = new TransactionGenerator(owners, theta, rate, producers, sink);
+            long start = System.nanoTime();
+            generator.start();
+            Thread.sleep(durationMs);
+            generator.stop();
+            
+            System.out.printf("Distribuzione: %s, %,d conti, %d produttori, destinazione: %s%n",
+                              theta > 0 ? "Zipf (theta " + theta + ")" : "uniforme", accountCount, producers, target);
+            System.out.printf("Ritmo richiesto: %,.0f tx/s, ottenuto: %,.0f tx/s (%.1f%%), generate: %,d%n",
+                              generator.getRequestedRate(), generator.getAchievedRate(),
+                              100 * generator.getAchievedRate() / generator.getRequestedRate(), generator.getGenerated());
+            
+            if (engine != null) {
+                Level level = LOGGER.getLevel();
+                LOGGER.setLevel(Level.WARNING);
+                engine.stop();
+                LOGGER.setLevel(level);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Eseguite dal motore a partizioni: %,d (%,.0f tx/s compreso lo svuotamento)%n",
+                                  executed.sum(), executed.sum() / seconds);
+                bank.shutdownExecutors();
+            } else {
+                System.out.printf("Quota del conto più usato (C0) come origine: %.2f%%%n",
+                                  100.0 * hottest.sum() / Math.max(1, generator.getGenerated()));
+            }
+        }
+    }
+    
+    /**
+     * Handler di java.util.logging asincrono e a lotti.
+     * 
+     * publish non formatta e non scrive nulla: inserisce il LogRecord
+     * (messaggio con parametri {0}, {1}... non ancora sostituiti) in un
+     * buffer circolare senza lock. Un thread in background estrae i record,
+     * li formatta e li scrive a blocchi su un file tramite FileChannel,
+     * ruotando i file quando superano la dimensione massima
+     * (nome.log, nome.1.log, ... nome.<n-1>.log).
+     * 
+     * Quando il buffer è pieno il comportamento dipende da OverflowPolicy:
+     * DROP scarta il record e lo conta, BLOCK attende che si liberi spazio.
+     * Se il thread di scrittura incontra un errore di I/O l'handler passa
+     * allo stato guasto: l'errore va all'ErrorManager e da quel momento
+     * publish scarta (e conta) i record invece di accodarli o di attendere
+     * un consumatore che non c'è più.
+     */
+    static class AsyncLogHandler extends Handler {
+        enum OverflowPolicy { DROP, BLOCK }
+        
+        private static final int WRITE_BUFFER = 256 * 1024;
+        
+        private final LogRing ring;
+        private final OverflowPolicy policy;
+        private final Path basePath;
+        private final long maxFileBytes;
+        private final int fileCount;
+        
+        private final Thread writer;
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder written = new LongAdder();
+        private volatile boolean closed = false;
+        private volatile boolean failed = false;
+        
+        // Usati solo dal thread di scrittura
+        private FileChannel channel;
+        private long fileBytes;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+        
+        public AsyncLogHandler(Path basePath, int ringCapacity, OverflowPolicy policy, long maxFileBytes,
+                               int fileCount) throws IOException {
+            if (fileCount <= 0) throw new IllegalArgumentException("Serve almeno un file");
+            this.ring = new LogRing(ringCapacity);
+            this.policy = policy;
+            this.basePath = basePath;
+            this.maxFileBytes = maxFileBytes;
+            this.fileCount = fileCount;
+            setFormatter(new CompactFormatter());
+            
+            Path parent = basePath.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            openFile();
+            
+            writer = new Thread(this::writeLoop, "log-asincrono");
+            writer.setDaemon(true);
+            writer.start();
         }
         
-        private void addToHistory(String entry) {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-            String timestamp = sdf.format(new Date());
-            transactionHistory.add(timestamp + " - " + entry);
+        @Override
+        public void publish(LogRecord record) {
+            if (closed || !isLoggable(record)) return;
             
-            // Mantiene la cronologia limitata alle ultime 10 transazioni
-            while (transactionHistory.size() > 10) {
-                transactionHistory.remove(0);
+            if (!failed && ring.offer(record)) return;
+            if (policy == OverflowPolicy.DROP || failed) {
+                dropped.increment();
+                return;
+            }
+            while (!ring.offer(record)) {
+                if (closed) return;
+                if (failed) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(50_000);
+            }
+        }
+        
+        public long getDropped() {
+            return dropped.sum();
+        }
+        
+        public long getWritten() {
+            return written.sum();
+        }
+        
+        public boolean isFailed() {
+            return failed;
+        }
+        
+        private void writeLoop() {
+            try {
+                while (true) {
+                    int drained = 0;
+                    LogRecord record;
+                    while (drained < 4096 && (record = ring.poll()) != null) {
+                        write(record);
+                        drained++;
+                    }
+                    if (drained > 0) {
+                        flushBuffer();
+                        written.add(drained);
+                    } else if (closed) {
+                        return;
+                    } else {
+                        LockSupport.parkNanos(1_000_000);
+                    }
+                }
+            } catch (IOException e) {
+                failed = true;
+                reportError("Errore di scrittura del log", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+        
+        private void write(LogRecord record) throws IOException {
+            String text;
+            try {
+                text = getFormatter().format(record);
+            } catch (RuntimeException e) {
+                reportError("Errore di formattazione del log", e, ErrorManager.FORMAT_FAILURE);
+                return;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > buffer.remaining()) {
+                flushBuffer();
+            }
+            if (bytes.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+        }
+        
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+        
+        private void writeFully(ByteBuffer data) throws IOException {
+            int length = data.remaining();
+            if (length == 0) return;
+            if (fileBytes + length > maxFileBytes && fileBytes > 0) {
+                rotate();
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
             }
+            fileBytes += length;
         }
         
+        private Path fileName(int index) {
+            String name = basePath.getFileName().toString();
+            return basePath.resolveSibling(index == 0 ? name + ".log" : name + "." + index + ".log");
+        }
+        
+        private void openFile() throws IOException {
+            channel = FileChannel.open(fileName(0), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.APPEND);
+            fileBytes = channel.size();
+        }
+        
+        private void rotate() throws IOException {
+            channel.close();
+            Files.deleteIfExists(fileName(fileCount - 1));
+            for (int i = fileCount - 2; i >= 0; i--) {
+                if (Files.exists(fileName(i))) {
+                    Files.move(fileName(i), fileName(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            openFile();
+        }
+        
+        /**
+         * Attende che il thread in background abbia scritto sul file tutti i
+         * record pubblicati prima della chiamata (o che l'handler sia
+         * guasto). Gli scritti sono contati dopo la scrittura di ogni
+         * blocco, quindi basta confrontarli con le posizioni riservate nel
+         * buffer circolare.
+         */
         @Override
-        public String toString() {
-            lock.readLock().lock();
+        public void flush() {
+            long published = ring.published();
+            while (written.sum() < published && !failed && writer.isAlive()) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        
+        /**
+         * Scrive i record ancora nel buffer e chiude il file
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
             try {
-                return "Conto di " + owner + ", Saldo: " + balance;
+                writer.join();
+                channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                reportError("Errore di chiusura del log", e, ErrorManager.CLOSE_FAILURE);
+            }
+        }
+        
+        /**
+         * Buffer circolare limitato a più produttori e un consumatore, senza
+         * lock (schema di D. Vyukov). Ogni cella ha un numero di sequenza: un
+         * produttore riserva una posizione con un CAS su tail, scrive il
+         * record e pubblica la cella aggiornandone la sequenza; il
+         * consumatore legge una cella solo quando la sua sequenza indica che
+         * è stata pubblicata.
+         */
+        static class LogRing {
+            private final LogRecord[] slots;
+            private final AtomicLongArray sequences;
+            private final int mask;
+            private final AtomicLong tail = new AtomicLong(0);
+            
+            // Usato solo dal consumatore
+            private long head = 0;
+            
+            LogRing(int capacity) {
+                if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+                    throw new IllegalArgumentException("La capacità deve essere una potenza di 2: " + capacity);
+                }
+                slots = new LogRecord[capacity];
+                sequences = new AtomicLongArray(capacity);
+                for (int i = 0; i < capacity; i++) {
+                    sequences.set(i, i);
+                }
+                mask = capacity - 1;
+            }
+            
+            /**
+             * @return false se il buffer è pieno
+             */
+            boolean offer(LogRecord record) {
+                long position = tail.get();
+                while (true) {
+                    int index = (int) (position & mask);
+                    long difference = sequences.get(index) - position;
+                    if (difference == 0) {
+                        if (tail.compareAndSet(position, position + 1)) {
+                            slots[index] = record;
+                            sequences.set(index, position + 1);
+                            return true;
+                        }
+                        position = tail.get();
+                    } else if (difference < 0) {
+                        return false;
+                    } else {
+                        position = tail.get();
+                    }
+                }
+            }
+            
+            /**
+             * Record inseriti finora con offer (compresi quelli non ancora
+             * estratti)
+             */
+            long published() {
+                return tail.get();
+            }
+            
+            /**
+             * @return il record più vecchio, o null se il buffer è vuoto
+             */
+            LogRecord poll() {
+                int index = (int) (head & mask);
+                if (sequences.get(index) != head + 1) {
+                    return null;
+                }
+                LogRecord record = slots[index];
+                slots[index] = null;
+                sequences.set(index, head + mask + 1);
+                head++;
+                return record;
+            }
+        }
+        
+        /**
+         * Una riga per record: istante, livello, id del thread e messaggio
+         * con i parametri sostituiti. La classe chiamante non viene
+         * riportata: ricavarla richiederebbe di esaminare lo stack nel
+         * thread che registra, proprio il costo che l'handler evita.
+         */
+        static class CompactFormatter extends Formatter {
+            private static final DateTimeFormatter TIME =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+            
+            @Override
+            public String format(LogRecord record) {
+                StringBuilder line = new StringBuilder(128);
+                TIME.formatTo(record.getInstant(), line);
+                line.append(' ').append(record.getLevel().getName())
+                    .append(" [thread ").append(record.getLongThreadID()).append("] ")
+                    .append(formatMessage(record))
+                    .append('\n');
+                if (record.getThrown() != null) {
+                    StringWriter trace = new StringWriter();
+                    record.getThrown().printStackTrace(new PrintWriter(trace));
+                    line.append(trace);
+                }
+                return line.toString();
+            }
+        }
+    }
+    
+    /**
+     * Costo del logging per transazione: più thread registrano il messaggio
+     * di esito di ogni trasferimento con un FileHandler sincrono (formatta e
+     * scrive sotto il lock dell'handler) e con AsyncLogHandler, in entrambe
+     * le politiche di buffer pieno.
+     * 
+     * Esecuzione: java ES01_SistemaBancarioConcorrente log [directory]
+     * (log.thread, log.record per thread)
+     */
+    static class LoggingBenchmark {
+        static void run(Path directory) throws IOException, InterruptedException {
+            int threads = Integer.getInteger("log.thread", 4);
+            int perThread = Integer.getInteger("log.record", 200_000);
+            Files.createDirectories(directory);
+            
+            System.out.printf("%-26s %16s %12s %12s%n", "Handler", "Record/s", "Scartati", "Scritti");
+            
+            FileHandler sync = new FileHandler(directory.resolve("sincrono.log").toString(), false);
+            sync.setFormatter(new AsyncLogHandler.CompactFormatter());
+            double rate = measure(sync, threads, perThread);
+            sync.close();
+            System.out.printf("%-26s %,16.0f %12s %,12d%n", "FileHandler sincrono", rate, "-", (long) threads * perThread);
+            
+            for (AsyncLogHandler.OverflowPolicy policy : AsyncLogHandler.OverflowPolicy.values()) {
+                AsyncLogHandler async = new AsyncLogHandler(directory.resolve("asincrono-" + policy), 1 << 16, policy,
+                                                            64L << 20, 3);
+                rate = measure(async, threads, perThread);
+                async.close();
+                System.out.printf("%-26s %,16.0f %,12d %,12d%n", "AsyncLogHandler " + policy, rate,
+                                  async.getDropped(), async.getWritten());
+            }
+        }
+        
+        private static double measure(Handler handler, int threads, int perThread) throws InterruptedException {
+            Logger logger = Logger.getAnonymousLogger();
+            logger.setUseParentHandlers(false);
+            logger.setLevel(Level.ALL);
+            handler.setLevel(Level.ALL);
+            logger.addHandler(handler);
+            
+            Transaction transaction = new Transaction("Alice", "Bob", 42.5, TransactionType.TRANSFER);
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        logger.log(Level.INFO, "Transazione completata con successo: {0}", transaction);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            logger.removeHandler(handler);
+            return (double) threads * perThread / seconds;
+        }
+    }
+    
+    /**
+     * Saldo di un conto caldo suddiviso in K sotto-saldi in centesimi,
+     * ciascuno con il proprio lock.
+     * 
+     * Un accredito va su un sotto-saldo scelto a caso; un addebito prova
+     * prima il sotto-saldo del thread corrente e, se non basta, prende i
+     * lock di tutti i sotto-saldi in ordine di indice e preleva anche dagli
+     * altri. Così K operazioni sullo stesso conto possono procedere in
+     * parallelo invece di serializzarsi su un unico lock.
+     * 
+     * Nei long[] i sotto-saldi sono distanziati di una linea di cache (8
+     * long), così gli aggiornamenti di due sotto-saldi non si contendono la
+     * stessa linea. I K ReentrantLock invece non sono distanziati: lo stato
+     * di ciascuno vive in un oggetto interno allocato dal JDK, spesso
+     * vicino a quello degli altri, quindi l'acquisizione di lock diversi può
+     * ancora causare false sharing.
+     */
+    static class SubBalances {
+        private static final int STRIDE = 8;
+        
+        private final int count;
+        private final ReentrantLock[] locks;
+        // Per ogni sotto-saldo (all'indice i * STRIDE): saldo, variazione e
+        // operazioni dall'ultimo ribilanciamento, protetti da locks[i]
+        private final long[] cents;
+        private final long[] netCents;
+        private final long[] operations;
+        
+        public SubBalances(int count, long initialCents) {
+            if (count <= 0) throw new IllegalArgumentException("Serve almeno un sotto-saldo");
+            this.count = count;
+            this.locks = new ReentrantLock[count];
+            for (int i = 0; i < count; i++) {
+                locks[i] = new ReentrantLock();
+            }
+            this.cents = new long[count * STRIDE];
+            this.netCents = new long[count * STRIDE];
+            this.operations = new long[count * STRIDE];
+            spread(initialCents);
+        }
+        
+        public int getCount() {
+            return count;
+        }
+        
+        /**
+         * Distribuisce il totale in parti uguali (chiamato con tutti i lock)
+         */
+        private void spread(long total) {
+            for (int i = 0; i < count; i++) {
+                cents[i * STRIDE] = total / count + (i < total % count ? 1 : 0);
+            }
+        }
+        
+        /** Sotto-saldo del thread corrente: l'hash viene mescolato per distribuire identità vicine. */
+        private int localIndex() {
+            int h = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+            return ((h ^ (h >>> 16)) & 0x7FFFFFFF) % count;
+        }
+        
+        public void credit(long amount) {
+            int i = ThreadLocalRandom.current().nextInt(count);
+            locks[i].lock();
+            try {
+                cents[i * STRIDE] += amount;
+                netCents[i * STRIDE] += amount;
+                operations[i * STRIDE]++;
             } finally {
-                lock.readLock().unlock();
+                locks[i].unlock();
+            }
+        }
+        
+        public boolean tryDebit(long amount) {
+            int local = localIndex();
+            locks[local].lock();
+            try {
+                if (cents[local * STRIDE] >= amount) {
+                    cents[local * STRIDE] -= amount;
+                    netCents[local * STRIDE] -= amount;
+                    operations[local * STRIDE]++;
+                    return true;
+                }
+            } finally {
+                locks[local].unlock();
+            }
+            
+            // Il sotto-saldo locale non basta: prende in prestito dagli altri
+            lockAll();
+            try {
+                if (sum() < amount) {
+                    return false;
+                }
+                long remaining = amount;
+                for (int k = 0; k < count && remaining > 0; k++) {
+                    int i = (local + k) % count;
+                    long taken = Math.min(remaining, cents[i * STRIDE]);
+                    cents[i * STRIDE] -= taken;
+                    remaining -= taken;
+                }
+                netCents[local * STRIDE] -= amount;
+                operations[local * STRIDE]++;
+                return true;
+            } finally {
+                unlockAll();
+            }
+        }
+        
+        /**
+         * Saldo totale, letto con tutti i lock
+         */
+        public long total() {
+            lockAll();
+            try {
+                return sum();
+            } finally {
+                unlockAll();
+            }
+        }
+        
+        /**
+         * Riporta i sotto-saldi in parti uguali e restituisce la variazione
+         * netta e il numero di operazioni dal ribilanciamento precedente
+         */
+        public long[] rebalance() {
+            lockAll();
+            try {
+                long net = 0;
+                long ops = 0;
+                for (int i = 0; i < count; i++) {
+                    net += netCents[i * STRIDE];
+                    ops += operations[i * STRIDE];
+                    netCents[i * STRIDE] = 0;
+                    operations[i * STRIDE] = 0;
+                }
+                spread(sum());
+                return new long[] {net, ops};
+            } finally {
+                unlockAll();
+            }
+        }
+        
+        private long sum() {
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                total += cents[i * STRIDE];
+            }
+            return total;
+        }
+        
+        private void lockAll() {
+            for (ReentrantLock lock : locks) {
+                lock.lock();
+            }
+        }
+        
+        private void unlockAll() {
+            for (int i = count - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+    
+    /**
+     * Throughput dei trasferimenti da e verso un solo conto caldo al variare
+     * del numero K di sotto-saldi (K = 1: conto non suddiviso, write lock
+     * del conto). Ogni thread alterna trasferimenti da un conto freddo
+     * casuale al conto caldo e viceversa; il ribilanciamento gira ogni 100 ms.
+     * 
+     * Esecuzione: java ES01_SistemaBancarioConcorrente caldi
+     * (caldi.k, caldi.thread, caldi.durataMs)
+     */
+    static class HotAccountBenchmark {
+        static void run() throws InterruptedException {
+            int[] subBalanceCounts = Arrays.stream(System.getProperty("caldi.k", "1,2,4,8,16").split(","))
+                                           .mapToInt(s -> Integer.parseInt(s.trim()))
+                                           .toArray();
+            int threads = Integer.getInteger("caldi.thread", 8);
+            long durationMs = Long.getLong("caldi.durataMs", 1000L);
+            int coldCount = 1000;
+            
+            Level level = LOGGER.getLevel();
+            LOGGER.setLevel(Level.WARNING);
+            try {
+                System.out.println(threads + " thread, trasferimenti tra il conto caldo e " + coldCount + " conti freddi");
+                System.out.printf("%-6s %16s%n", "K", "Trasferimenti/s");
+                for (int k : subBalanceCounts) {
+                    System.out.printf("%-6d %,16.0f%n", k, measure(k, threads, durationMs, coldCount));
+                }
+            } finally {
+                LOGGER.setLevel(level);
+            }
+        }
+        
+        private static double measure(int k, int threads, long durationMs, int coldCount) throws InterruptedException {
+            BankSystem bank = new BankSystem();
+            BankAccount hot = new BankAccount("Caldo", 1_000_000.0);
+            bank.accounts.put(hot.getOwner(), hot);
+            BankAccount[] cold = new BankAccount[coldCount];
+            for (int i = 0; i < coldCount; i++) {
+                cold[i] = new BankAccount("F" + i, 1_000_000.0);
+                bank.accounts.put(cold[i].getOwner(), cold[i]);
+            }
+            double expected = 1_000_000.0 * (coldCount + 1);
+            if (k > 1) {
+                hot.split(k);
+                bank.enableHotAccounts(k, Long.MAX_VALUE, 100);
+            }
+            
+            LongAdder completed = new LongAdder();
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    while (running.get()) {
+                        BankAccount other = cold[random.nextInt(coldCount)];
+                        double amount = (1 + random.nextInt(10_000)) / 100.0;
+                        boolean toHot = random.nextBoolean();
+                        if (BankSystem.transferWithLocks(toHot ? other : hot, toHot ? hot : other, amount)) {
+                            count++;
+                        }
+                    }
+                    completed.add(count);
+                });
+                workers[t].start();
+            }
+            Thread.sleep(durationMs);
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            bank.shutdownExecutors();
+            
+            double total = 0;
+            for (BankAccount account : bank.accounts.values()) {
+                total += account.getBalance();
             }
+            if (Math.abs(total - expected) > 1) {
+                throw new IllegalStateException("Somma dei saldi non conservata: " + total);
+            }
+            return completed.sum() / seconds;
         }
     }
     
@@ -396,6 +4274,10 @@ public class ES01_SistemaBancarioConcorrente {
      * Classe che rappresenta una transazione bancaria
      */
     static class Transaction {
+        // Generatore degli identificativi univoci delle transazioni
+        private static final AtomicLong NEXT_ID = new AtomicLong(1);
+        
+        private final long id;
         private final String fromAccount;
         private final String toAccount;
         private final double amount;
@@ -408,6 +4290,11 @@ public class ES01_SistemaBancarioConcorrente {
             this.amount = amount;
             this.type = type;
             this.timestamp = System.currentTimeMillis();
+            this.id = NEXT_ID.getAndIncrement();
+        }
+        
+        public long getId() {
+            return id;
         }
         
         public String getFromAccount() {
@@ -0,0 +1,42 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Nucleo di elaborazione a blocchi di SistemaElaborazioneDati scritto con la
+ * Vector API (modulo incubator jdk.incubator.vector).
+ *
+ * Applica la trasformazione sqrt(x) * 10 a più valori per istruzione: il
+ * numero di corsie dipende dai registri SIMD della CPU (ad esempio 4 double
+ * con AVX2, 8 con AVX-512). Gli elementi finali che non riempiono un vettore
+ * sono elaborati con il ciclo scalare.
+ *
+ * È in un file separato perché richiede il modulo incubator sia in
+ * compilazione sia in esecuzione:
+ *   javac --add-modules jdk.incubator.vector SistemaElaborazioneDati.java NucleoVettoriale.java
+ *   java --add-modules jdk.incubator.vector SistemaElaborazioneDati simd
+ * Senza questo file o senza il modulo SistemaElaborazioneDati usa il nucleo
+ * scalare.
+ */
+public class NucleoVettoriale implements SistemaElaborazioneDati.BatchKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void apply(double[] in, double[] out, int length) {
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, in, i)
+                        .sqrt()
+                        .mul(10.0)
+                        .intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = Math.sqrt(in[i]) * 10;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vettoriale (" + SPECIES.length() + " corsie)";
+    }
+}
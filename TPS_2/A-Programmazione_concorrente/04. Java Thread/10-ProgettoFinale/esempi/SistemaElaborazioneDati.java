@@ -1,13 +1,57 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Random;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.AbstractQueue;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 /**
  * Esempio di implementazione di un Sistema di Elaborazione Dati Concorrente.
@@ -17,8 +61,33 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class SistemaElaborazioneDati {
 
     public static void main(String[] args) throws Exception {
-        // Creazione del sistema
-        Controller controller = new Controller();
+        if (args.length > 0 && args[0].equals("confronto")) {
+            ExecutionComparison.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("wal")) {
+            WalBenchmark.run(Paths.get(args.length > 1 ? args[1] : "wal-bench"));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("simd")) {
+            KernelBenchmark.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("carico")) {
+            LoadCurve.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("grafo")) {
+            DataflowDemo.run();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bench")) {
+            PipelineBenchmark.run();
+            return;
+        }
+        
+        // Creazione del sistema con la configurazione letta dalle proprietà di sistema
+        Controller controller = new Controller(Config.fromSystemProperties());
         
         // Avvio del sistema
         controller.start();
@@ -35,356 +104,4537 @@ public class SistemaElaborazioneDati {
     
     /**
      * Classe che rappresenta un dato da elaborare.
+     * 
+     * Oltre al timestamp in millisecondi conserva l'istante di accodamento
+     * misurato con System.nanoTime(), usato per le latenze della pipeline.
+     * Se il dato è stato scritto nel WriteAheadLog ne conserva anche il
+     * numero di sequenza (altrimenti -1). I dati ripresi dal log alla
+     * riapertura sono segnati come replayed: il loro istante di accodamento
+     * originale è perso e non vanno contati nelle latenze. Il payload
+     * opzionale serve a simulare record di dimensione diversa nel benchmark.
+     * count è il numero di valori riassunti dal dato: 1 per i dati generati,
+     * il numero di valori della finestra per gli aggregati del Dataflow.
      */
     static class Data {
         private final int id;
         private final String source;
         private final double value;
         private final long timestamp;
+        private final long enqueueNanos;
+        private final long sequence;
+        private final byte[] payload;
+        private final boolean replayed;
+        private final long count;
+        private static final byte[] NO_PAYLOAD = new byte[0];
         
         public Data(int id, String source, double value) {
+            this(id, source, value, System.currentTimeMillis(), -1, NO_PAYLOAD);
+        }
+        
+        public Data(int id, String source, double value, long timestamp, long sequence) {
+            this(id, source, value, timestamp, sequence, NO_PAYLOAD);
+        }
+        
+        public Data(int id, String source, double value, byte[] payload) {
+            this(id, source, value, System.currentTimeMillis(), -1, payload);
+        }
+        
+        private Data(int id, String source, double value, long timestamp, long sequence, byte[] payload) {
+            this(id, source, value, timestamp, sequence, payload, System.nanoTime());
+        }
+        
+        private Data(int id, String source, double value, long timestamp, long sequence, byte[] payload,
+                     long enqueueNanos) {
+            this(id, source, value, timestamp, sequence, payload, enqueueNanos, false, 1);
+        }
+        
+        private Data(int id, String source, double value, long timestamp, long sequence, byte[] payload,
+                     long enqueueNanos, boolean replayed, long count) {
             this.id = id;
             this.source = source;
             this.value = value;
-            this.timestamp = System.currentTimeMillis();
+            this.timestamp = timestamp;
+            this.enqueueNanos = enqueueNanos;
+            this.sequence = sequence;
+            this.payload = payload;
+            this.replayed = replayed;
+            this.count = count;
+        }
+        
+        /** Dato ripreso dal WriteAheadLog alla riapertura. */
+        static Data replayed(int id, String source, double value, long timestamp, long sequence) {
+            return new Data(id, source, value, timestamp, sequence, NO_PAYLOAD, System.nanoTime(), true, 1);
+        }
+        
+        /** Aggregato di count valori con media average, ad esempio una finestra. */
+        static Data aggregate(int id, String source, double average, long count) {
+            return new Data(id, source, average, System.currentTimeMillis(), -1, NO_PAYLOAD,
+                            System.nanoTime(), false, count);
+        }
+        
+        /** Copia con un nuovo valore; conserva l'istante di accodamento per le latenze. */
+        public Data withValue(double newValue) {
+            return new Data(id, source, newValue, timestamp, sequence, payload, enqueueNanos, replayed, count);
         }
         
         public int getId() { return id; }
         public String getSource() { return source; }
         public double getValue() { return value; }
         public long getTimestamp() { return timestamp; }
+        public long getEnqueueNanos() { return enqueueNanos; }
+        public long getSequence() { return sequence; }
+        public byte[] getPayload() { return payload; }
+        public boolean isReplayed() { return replayed; }
+        public long getCount() { return count; }
         
         @Override
         public String toString() {
             return String.format("Data[id=%d, source=%s, value=%.2f, time=%d]", 
-                               id, source, value, timestamp);
+                               getId(), getSource(), getValue(), getTimestamp());
         }
     }
     
     /**
      * Classe che rappresenta il risultato dell'elaborazione.
+     * 
+     * Conserva la fonte del dato di origine: gli id sono numerati da ogni
+     * generatore separatamente, quindi non permettono di ricavarla. count
+     * è il numero di valori riassunti, come Data.getCount(): per un
+     * aggregato processedValue è la media di count valori.
      */
     static class Result {
         private final int dataId;
+        private final String source;
         private final double processedValue;
-        private final long processingTime;
+        private final long processingNanos;
+        private final long count;
         
-        public Result(int dataId, double processedValue, long processingTime) {
+        public Result(int dataId, String source, double processedValue, long processingNanos) {
+            this(dataId, source, processedValue, processingNanos, 1);
+        }
+        
+        public Result(int dataId, String source, double processedValue, long processingNanos, long count) {
             this.dataId = dataId;
+            this.source = source;
             this.processedValue = processedValue;
-            this.processingTime = processingTime;
+            this.processingNanos = processingNanos;
+            this.count = count;
         }
         
         public int getDataId() { return dataId; }
+        public String getSource() { return source; }
         public double getProcessedValue() { return processedValue; }
-        public long getProcessingTime() { return processingTime; }
+        public long getProcessingNanos() { return processingNanos; }
+        public long getCount() { return count; }
     }
     
     /**
-     * Componente che genera dati simulati.
+     * Istogramma di latenze in nanosecondi con bucket logaritmici.
+     * 
+     * Ogni potenza di 2 è divisa in 16 sotto-bucket lineari, quindi l'errore
+     * relativo sul valore riportato è al più 1/16 (circa 6%) su tutto
+     * l'intervallo, da 1 ns a oltre un'ora. La registrazione è un singolo
+     * incremento atomico, senza lock; snapshot() copia i contatori per
+     * calcolare i percentili, anche su un intervallo (differenza di snapshot).
      */
-    static class DataGenerator implements Runnable {
-        private final BlockingQueue<Data> outputQueue;
-        private final String sourceName;
-        private final Random random = new Random();
-        private final AtomicLong counter = new AtomicLong(0);
-        private volatile boolean running = true;
-        private final int delayMs;
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
         
-        public DataGenerator(String sourceName, BlockingQueue<Data> queue, int delayMs) {
-            this.sourceName = sourceName;
-            this.outputQueue = queue;
-            this.delayMs = delayMs;
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLong max = new AtomicLong(0);
+        private final LongAdder sum = new LongAdder();
+        
+        public void record(long nanos) {
+            record(nanos, 1);
         }
         
-        @Override
-        public void run() {
-            try {
-                while (running) {
-                    // Genera un nuovo dato
-                    int id = (int) counter.incrementAndGet();
-                    double value = random.nextDouble() * 100;
-                    Data data = new Data(id, sourceName, value);
-                    
-                    // Inserisci il dato nella coda
-                    outputQueue.put(data);
-                    
-                    // Simula un ritardo nella generazione
-                    Thread.sleep(delayMs);
+        public void record(long nanos, long count) {
+            if (count <= 0) return;
+            long value = Math.max(0, nanos);
+            counts.addAndGet(bucketIndex(value), count);
+            sum.add(value * count);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // riprova finché il massimo non è aggiornato
+            }
+        }
+        
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+        
+        /** Valore più alto rappresentato dal bucket. */
+        static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int subBucket = index % SUB_BUCKETS;
+            int shift = exponent - SUB_BUCKET_BITS;
+            long lower = ((long) (SUB_BUCKETS + subBucket)) << shift;
+            return lower + (1L << shift) - 1;
+        }
+        
+        public Snapshot snapshot() {
+            long[] copy = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return new Snapshot(copy, max.get());
+        }
+        
+        /**
+         * Copia i contatori in un array fornito dal chiamante (lungo almeno
+         * NUM_BUCKETS) e restituisce il numero di valori: permette di calcolare
+         * i percentili senza allocare uno Snapshot.
+         */
+        public long copyCounts(long[] into) {
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                into[i] = counts.get(i);
+                total += into[i];
+            }
+            return total;
+        }
+        
+        public long getMax() {
+            return max.get();
+        }
+        
+        /** Somma di tutti i valori registrati, in nanosecondi. */
+        public long getSumNanos() {
+            return sum.sum();
+        }
+        
+        /** Percentile (0-100) in nanosecondi dei contatori indicati, 0 se sono vuoti. */
+        static long percentile(long[] counts, long totalCount, long max, double percentile) {
+            if (totalCount == 0) return 0;
+            long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+            rank = Math.max(1, Math.min(rank, totalCount));
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.out.println("DataGenerator " + sourceName + " interrotto");
-            } catch (Exception e) {
-                System.err.println("Errore in DataGenerator " + sourceName + ": " + e.getMessage());
             }
+            return max;
         }
         
-        public void stop() {
-            running = false;
+        /**
+         * Copia immutabile dei contatori di un istogramma.
+         */
+        static final class Snapshot {
+            private final long[] counts;
+            private final long totalCount;
+            private final long max;
+            
+            Snapshot(long[] counts, long max) {
+                this.counts = counts;
+                this.max = max;
+                long total = 0;
+                for (long c : counts) {
+                    total += c;
+                }
+                this.totalCount = total;
+            }
+            
+            /**
+             * Istogramma dei soli valori registrati dopo lo snapshot precedente.
+             * Il massimo è stimato con il bucket più alto non vuoto.
+             */
+            public Snapshot since(Snapshot previous) {
+                long[] diff = new long[counts.length];
+                int highest = -1;
+                for (int i = 0; i < counts.length; i++) {
+                    diff[i] = counts[i] - previous.counts[i];
+                    if (diff[i] > 0) highest = i;
+                }
+                long intervalMax = highest < 0 ? 0 : Math.min(max, bucketUpperBound(highest));
+                return new Snapshot(diff, intervalMax);
+            }
+            
+            public long getCount() {
+                return totalCount;
+            }
+            
+            public long getMax() {
+                return max;
+            }
+            
+            /** Percentile (0-100) in nanosecondi, 0 se l'istogramma è vuoto. */
+            public long percentile(double percentile) {
+                return LatencyHistogram.percentile(counts, totalCount, max, percentile);
+            }
+            
+            public String format() {
+                return String.format("p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms (n=%d)",
+                                     toMillis(percentile(50)), toMillis(percentile(90)),
+                                     toMillis(percentile(99)), toMillis(percentile(99.9)),
+                                     toMillis(max), totalCount);
+            }
+            
+            private static double toMillis(long nanos) {
+                return nanos / 1_000_000.0;
+            }
+        }
+    }
+    
+    /**
+     * Registro che associa a ogni fonte un identificativo compatto (byte),
+     * usato dalla rappresentazione colonnare al posto della stringa.
+     */
+    static class SourceRegistry {
+        private final List<String> names = new CopyOnWriteArrayList<>();
+        
+        public synchronized byte register(String name) {
+            int index = names.indexOf(name);
+            if (index >= 0) return (byte) index;
+            if (names.size() > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Troppe fonti registrate");
+            }
+            names.add(name);
+            return (byte) (names.size() - 1);
         }
         
-        public long getGeneratedCount() {
-            return counter.get();
+        public String nameOf(byte sourceId) {
+            return names.get(sourceId);
+        }
+        
+        public int size() {
+            return names.size();
         }
     }
     
     /**
-     * Pool di worker che elaborano i dati.
+     * Blocco di record in formato colonnare (struct-of-arrays).
+     * 
+     * Al posto di un oggetto Data e di un oggetto Result per ogni record, i campi
+     * di più record sono memorizzati in array paralleli pre-allocati. I blocchi
+     * vengono presi da un ChunkPool, riempiti dal generatore, elaborati dal
+     * worker, aggregati e infine restituiti al pool: a regime il percorso non
+     * alloca nulla per record.
      */
-    static class WorkerPool {
-        private final ExecutorService executor;
-        private final BlockingQueue<Data> inputQueue;
-        private final Consumer<Result> resultConsumer;
-        private final AtomicLong processedCount = new AtomicLong(0);
-        private final AtomicLong errorCount = new AtomicLong(0);
-        private volatile boolean running = true;
-        private final List<Future<?>> workerFutures = new ArrayList<>();
+    static class DataChunk {
+        final int[] ids;
+        final double[] values;
+        final long[] timestamps;
+        final byte[] sourceIds;
+        final double[] processedValues;
+        int size;
+        long processingNanos;
         
-        public WorkerPool(int numWorkers, BlockingQueue<Data> inputQueue, Consumer<Result> resultConsumer) {
-            this.executor = Executors.newFixedThreadPool(numWorkers);
-            this.inputQueue = inputQueue;
-            this.resultConsumer = resultConsumer;
+        public DataChunk(int capacity) {
+            this.ids = new int[capacity];
+            this.values = new double[capacity];
+            this.timestamps = new long[capacity];
+            this.sourceIds = new byte[capacity];
+            this.processedValues = new double[capacity];
+        }
+        
+        public int capacity() {
+            return ids.length;
+        }
+        
+        public boolean isFull() {
+            return size == ids.length;
+        }
+        
+        public void add(int id, byte sourceId, double value, long timestamp) {
+            ids[size] = id;
+            sourceIds[size] = sourceId;
+            values[size] = value;
+            timestamps[size] = timestamp;
+            size++;
+        }
+        
+        void reset() {
+            size = 0;
+            processingNanos = 0;
+        }
+    }
+    
+    /**
+     * Pool di blocchi colonnari pre-allocati.
+     * 
+     * Il numero di blocchi è fisso: se sono tutti in uso, acquire() attende
+     * che un worker ne restituisca uno, limitando così anche la memoria usata.
+     */
+    static class ChunkPool {
+        private final BlockingQueue<DataChunk> free;
+        private final int chunkSize;
+        
+        public ChunkPool(int numChunks, int chunkSize) {
+            this.free = new ArrayBlockingQueue<>(numChunks);
+            this.chunkSize = chunkSize;
+            for (int i = 0; i < numChunks; i++) {
+                free.add(new DataChunk(chunkSize));
+            }
+        }
+        
+        public DataChunk acquire() throws InterruptedException {
+            return free.take();
+        }
+        
+        public void release(DataChunk chunk) {
+            chunk.reset();
+            free.offer(chunk);
+        }
+        
+        public int available() {
+            return free.size();
+        }
+        
+        public int getChunkSize() {
+            return chunkSize;
+        }
+    }
+    
+    /**
+     * Strategia di attesa usata dal ring buffer quando la coda è piena
+     * (produttori) o vuota (consumatori). Il parametro attempt conta i
+     * tentativi consecutivi falliti e permette strategie con backoff.
+     */
+    interface WaitStrategy {
+        void idle(int attempt);
+        
+        /** Attesa attiva: latenza minima, un core occupato per ogni thread in attesa. */
+        static WaitStrategy busySpin() {
+            return attempt -> Thread.onSpinWait();
+        }
+        
+        /** Breve attesa attiva, poi cede il processore agli altri thread. */
+        static WaitStrategy yielding() {
+            return attempt -> {
+                if (attempt < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            };
+        }
+        
+        /** Breve attesa attiva, poi sospende il thread con backoff esponenziale fino a 1 ms. */
+        static WaitStrategy parking() {
+            return attempt -> {
+                if (attempt < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    int shift = Math.min(attempt - 100, 10);
+                    LockSupport.parkNanos(1_000L << shift);
+                }
+            };
+        }
+        
+        static WaitStrategy fromName(String name) {
+            switch (name.toLowerCase()) {
+                case "spin": return busySpin();
+                case "yield": return yielding();
+                case "park": return parking();
+                default: throw new IllegalArgumentException("Strategia di attesa sconosciuta: " + name);
+            }
+        }
+    }
+    
+    /**
+     * Coda circolare limitata multi-produttore/multi-consumatore senza lock.
+     * 
+     * Gli slot sono pre-allocati e ognuno ha un contatore di sequenza che indica
+     * se è libero per la scrittura della posizione pos (sequenza == pos) oppure
+     * pronto per la lettura (sequenza == pos + 1). Produttori e consumatori si
+     * contendono solo con un compareAndSet sui contatori tail e head, senza mai
+     * acquisire un lock. Implementa BlockingQueue così che DataGenerator e
+     * WorkerPool possano usarla al posto di ArrayBlockingQueue senza modifiche:
+     * le operazioni bloccanti attendono secondo la WaitStrategy configurata.
+     * 
+     * Il numero di slot è arrotondato alla potenza di 2 successiva per usare una
+     * maschera al posto del modulo, ma la capacità logica resta quella richiesta:
+     * con capacità 100 la coda accetta 100 elementi come ArrayBlockingQueue(100).
+     * peek e iterator restituiscono una vista debolmente consistente, come le
+     * altre code concorrenti di java.util.concurrent.
+     */
+    static class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+        private final int capacity;
+        private final int slotCount;
+        private final int mask;
+        private final AtomicReferenceArray<E> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong head = new AtomicLong(0);
+        private final AtomicLong tail = new AtomicLong(0);
+        private final WaitStrategy waitStrategy;
+        
+        public RingBufferQueue(int requestedCapacity, WaitStrategy waitStrategy) {
+            if (requestedCapacity < 1) throw new IllegalArgumentException("La capacità deve essere positiva");
             
-            // Avvia i worker
-            for (int i = 0; i < numWorkers; i++) {
-                workerFutures.add(executor.submit(this::workerTask));
+            // Slot arrotondati alla potenza di 2 successiva, capacità logica invariata
+            int count = 1;
+            while (count < requestedCapacity) {
+                count <<= 1;
+            }
+            this.capacity = requestedCapacity;
+            this.slotCount = count;
+            this.mask = slotCount - 1;
+            this.slots = new AtomicReferenceArray<>(slotCount);
+            this.sequences = new AtomicLongArray(slotCount);
+            for (int i = 0; i < slotCount; i++) {
+                sequences.set(i, i);
             }
+            this.waitStrategy = waitStrategy;
         }
         
-        private void workerTask() {
-            try {
-                while (running || !inputQueue.isEmpty()) {
-                    // Preleva un dato dalla coda con timeout
-                    Data data = inputQueue.poll(100, TimeUnit.MILLISECONDS);
-                    if (data != null) {
-                        try {
-                            // Elabora il dato
-                            long startTime = System.currentTimeMillis();
-                            double processedValue = processData(data);
-                            long processingTime = System.currentTimeMillis() - startTime;
-                            
-                            // Crea il risultato
-                            Result result = new Result(data.getId(), processedValue, processingTime);
-                            
-                            // Invia il risultato al consumer
-                            resultConsumer.accept(result);
-                            
-                            // Incrementa il contatore
-                            processedCount.incrementAndGet();
-                        } catch (Exception e) {
-                            errorCount.incrementAndGet();
-                            System.err.println("Errore nell'elaborazione del dato " + data.getId() + ": " + e.getMessage());
-                        }
+        @Override
+        public boolean offer(E e) {
+            if (e == null) throw new NullPointerException();
+            
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.getAcquire(index) - pos;
+                if (diff == 0) {
+                    // Slot libero, ma la capacità logica può essere minore del numero di slot.
+                    // head cresce soltanto: una lettura vecchia può solo sovrastimare la profondità
+                    if (pos - head.get() >= capacity) {
+                        return false;
+                    }
+                    // Prova a riservarlo
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        slots.setPlain(index, e);
+                        sequences.setRelease(index, pos + 1);
+                        return true;
                     }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    // Lo slot contiene ancora un elemento non letto: coda piena
+                    return false;
+                } else {
+                    // Un altro produttore ha già preso questa posizione
+                    pos = tail.get();
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.out.println("Worker interrotto");
             }
         }
         
-        private double processData(Data data) {
-            // Simulazione di elaborazione
-            try {
-                // Simula un carico di lavoro variabile
-                int processingTime = 50 + new Random().nextInt(200);
-                Thread.sleep(processingTime);
-                
-                // Applica una trasformazione al valore
-                return Math.sqrt(data.getValue()) * 10;
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Elaborazione interrotta", e);
+        @Override
+        public E poll() {
+            long pos = head.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.getAcquire(index) - (pos + 1);
+                if (diff == 0) {
+                    // Elemento pronto: prova a consumarlo
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        E e = slots.getPlain(index);
+                        slots.setPlain(index, null);
+                        // Rende lo slot disponibile per il giro successivo del buffer
+                        sequences.setRelease(index, pos + slotCount);
+                        return e;
+                    }
+                    pos = head.get();
+                } else if (diff < 0) {
+                    // Nessun elemento pubblicato in questa posizione: coda vuota
+                    return null;
+                } else {
+                    pos = head.get();
+                }
+            }
+        }
+        
+        @Override
+        public E peek() {
+            while (true) {
+                long pos = head.get();
+                int index = (int) (pos & mask);
+                if (sequences.getAcquire(index) != pos + 1) {
+                    // Nessun elemento pubblicato in testa, salvo che un consumatore l'abbia appena preso
+                    if (head.get() == pos) return null;
+                    continue;
+                }
+                E e = slots.get(index);
+                // Se head non è cambiato nessun consumatore ha ancora svuotato lo slot
+                if (head.get() == pos && e != null) return e;
+            }
+        }
+        
+        @Override
+        public void put(E e) throws InterruptedException {
+            int attempt = 0;
+            while (!offer(e)) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                waitStrategy.idle(attempt++);
+            }
+        }
+        
+        @Override
+        public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            int attempt = 0;
+            while (!offer(e)) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (System.nanoTime() - deadline >= 0) return false;
+                waitStrategy.idle(attempt++);
+            }
+            return true;
+        }
+        
+        @Override
+        public E take() throws InterruptedException {
+            int attempt = 0;
+            E e;
+            while ((e = poll()) == null) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                waitStrategy.idle(attempt++);
+            }
+            return e;
+        }
+        
+        @Override
+        public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            int attempt = 0;
+            E e;
+            while ((e = poll()) == null) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (System.nanoTime() - deadline >= 0) return null;
+                waitStrategy.idle(attempt++);
+            }
+            return e;
+        }
+        
+        @Override
+        public int drainTo(Collection<? super E> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+        
+        @Override
+        public int drainTo(Collection<? super E> c, int maxElements) {
+            if (c == this) throw new IllegalArgumentException();
+            
+            int drained = 0;
+            E e;
+            while (drained < maxElements && (e = poll()) != null) {
+                c.add(e);
+                drained++;
+            }
+            return drained;
+        }
+        
+        @Override
+        public int size() {
+            // Lettura non atomica dei due contatori: il valore è indicativo
+            long size = tail.get() - head.get();
+            return (int) Math.max(0, Math.min(size, capacity));
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+        
+        @Override
+        public int remainingCapacity() {
+            return capacity - size();
+        }
+        
+        /**
+         * Restituisce un iteratore su una copia degli elementi presenti al momento
+         * della chiamata: non lancia ConcurrentModificationException e non riflette
+         * gli inserimenti e i prelievi successivi. La rimozione non è supportata.
+         */
+        @Override
+        public Iterator<E> iterator() {
+            List<E> snapshot = new ArrayList<>();
+            long pos = head.get();
+            long end = tail.get();
+            for (; pos < end; pos++) {
+                int index = (int) (pos & mask);
+                if (sequences.getAcquire(index) != pos + 1) continue;
+                E e = slots.get(index);
+                // Scarta lo slot se nel frattempo è stato consumato o riscritto
+                if (e != null && sequences.getAcquire(index) == pos + 1) {
+                    snapshot.add(e);
+                }
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        }
+        
+        @Override
+        public String toString() {
+            return "RingBufferQueue[size=" + size() + ", capacity=" + capacity + "]";
+        }
+    }
+    
+    /**
+     * Tipo di coda usata per collegare i generatori ai worker.
+     */
+    enum Transport {
+        BLOCKING_QUEUE, // ArrayBlockingQueue con un unico lock
+        RING_BUFFER     // RingBufferQueue senza lock
+    }
+    
+    /**
+     * Controllo di flusso tra generatori e worker basato su crediti.
+     * 
+     * Un produttore deve ottenere un credito prima di inserire un elemento
+     * nella coda; i crediti vengono restituiti dal WorkerPool quando preleva
+     * gli elementi. La restituzione segue due soglie sulla profondità della
+     * coda (isteresi): sopra la soglia bassa i crediti liberati si accumulano
+     * e vengono concessi in blocco solo quando la coda scende sotto la soglia
+     * bassa o quando ne sono stati accumulati high - low. La coda non supera
+     * quindi mai la soglia alta.
+     * 
+     * Il controllore misura anche il throughput dei consumatori (media mobile
+     * esponenziale dei crediti restituiti) e calcola il ritmo di emissione dei
+     * produttori: rallenta sopra la soglia alta, accelera sotto quella bassa
+     * per sfruttare la capacità inutilizzata, altrimenti segue i consumatori.
+     */
+    static class FlowController {
+        private static final long UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+        private static final double EWMA_ALPHA = 0.3;
+        
+        private final BlockingQueue<?> queue;
+        private final int highWatermark;
+        private final int lowWatermark;
+        private final int numProducers;
+        private final double minRate;
+        private final double maxRate;
+        private final Semaphore credits;
+        private final AtomicInteger pendingCredits = new AtomicInteger(0);
+        private final AtomicLong releasedCredits = new AtomicLong(0);
+        
+        // Stato del controllo di ritmo, aggiornato da un solo produttore alla volta
+        private final AtomicLong lastUpdateNanos = new AtomicLong(System.nanoTime());
+        private volatile long lastReleased = 0;
+        private volatile double consumerRate = 0;
+        private volatile double targetRate;
+        
+        /**
+         * @param queue coda controllata
+         * @param highWatermark profondità massima della coda
+         * @param lowWatermark profondità sotto la quale i crediti vengono concessi subito
+         * @param numProducers numero di produttori tra cui ripartire il ritmo
+         * @param initialRate ritmo complessivo iniziale in elementi al secondo
+         * @param maxRate ritmo complessivo massimo in elementi al secondo
+         */
+        public FlowController(BlockingQueue<?> queue, int highWatermark, int lowWatermark,
+                              int numProducers, double initialRate, double maxRate) {
+            if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+                throw new IllegalArgumentException("Soglie non valide: alta=" + highWatermark + ", bassa=" + lowWatermark);
+            }
+            this.queue = queue;
+            this.highWatermark = highWatermark;
+            this.lowWatermark = lowWatermark;
+            this.numProducers = numProducers;
+            this.minRate = numProducers;
+            this.maxRate = maxRate;
+            this.credits = new Semaphore(highWatermark);
+            this.targetRate = Math.min(Math.max(initialRate, minRate), maxRate);
+        }
+        
+        /** Chiamato dal produttore prima di inserire un elemento: attende un credito. */
+        public void acquire() throws InterruptedException {
+            credits.acquire();
+        }
+        
+        /** Chiamato dal WorkerPool dopo aver prelevato n elementi dalla coda. */
+        public void release(int n) {
+            releasedCredits.addAndGet(n);
+            int pending = pendingCredits.addAndGet(n);
+            if (queue.size() <= lowWatermark || pending >= highWatermark - lowWatermark) {
+                int grant = pendingCredits.getAndSet(0);
+                if (grant > 0) {
+                    credits.release(grant);
+                }
+            }
+        }
+        
+        /** Intervallo in nanosecondi che un produttore deve attendere tra due emissioni. */
+        public long pacingDelayNanos() {
+            maybeUpdateRate();
+            return (long) (1_000_000_000.0 * numProducers / targetRate);
+        }
+        
+        private void maybeUpdateRate() {
+            long now = System.nanoTime();
+            long last = lastUpdateNanos.get();
+            if (now - last < UPDATE_INTERVAL_NANOS || !lastUpdateNanos.compareAndSet(last, now)) {
+                return;
+            }
+            
+            long released = releasedCredits.get();
+            double measured = (released - lastReleased) / ((now - last) / 1_000_000_000.0);
+            lastReleased = released;
+            double rate = consumerRate == 0 ? measured : EWMA_ALPHA * measured + (1 - EWMA_ALPHA) * consumerRate;
+            consumerRate = rate;
+            
+            int depth = queue.size();
+            double target;
+            if (depth >= highWatermark) {
+                // I consumatori non tengono il passo: emette meno di quanto consumano
+                target = rate * 0.9;
+            } else if (depth <= lowWatermark) {
+                // Capacità inutilizzata: aumenta il ritmo per sondare i consumatori
+                target = Math.max(targetRate * 1.2, rate * 1.1);
+            } else {
+                target = rate;
+            }
+            targetRate = Math.min(Math.max(target, minRate), maxRate);
+        }
+        
+        public int getAvailableCredits() {
+            return credits.availablePermits();
+        }
+        
+        public double getConsumerRate() {
+            return consumerRate;
+        }
+        
+        public double getTargetRate() {
+            return targetRate;
+        }
+        
+        public int getHighWatermark() {
+            return highWatermark;
+        }
+        
+        public int getLowWatermark() {
+            return lowWatermark;
+        }
+    }
+    
+    /**
+     * Politica di conferma delle scritture sul log.
+     */
+    enum SyncPolicy {
+        GROUP, // Chi scrive attende il commit di gruppo prima di proseguire
+        ASYNC  // Il dato è nella page cache subito; il disco è forzato al più ogni commitIntervalMs
+    }
+    
+    /**
+     * Log di scrittura anticipata (write-ahead log) dei dati in ingresso.
+     * 
+     * I record sono aggiunti in coda a segmenti di dimensione fissa mappati in
+     * memoria (MappedByteBuffer): una scrittura è una copia in memoria sotto
+     * un lock, e sopravvive al crash del processo perché le pagine appartengono
+     * al kernel. Un thread di commit si sveglia appena ci sono record nuovi e
+     * forza su disco il segmento corrente (commit di gruppo): mentre un
+     * force() è in corso altri record si accumulano, e il force() successivo
+     * li rende durevoli tutti insieme, da qualsiasi generatore. Con
+     * SyncPolicy.ASYNC nessuno attende il disco e il thread di commit lascia
+     * passare almeno commitIntervalMs tra due force().
+     * 
+     * Ogni record riceve un numero di sequenza. I worker segnano i record
+     * completati in un anello indicizzato per sequenza e il checkpoint avanza
+     * fino al primo record non ancora completato; i segmenti interamente
+     * precedenti al checkpoint vengono cancellati. Alla riapertura i record
+     * validi successivi al checkpoint vengono recuperati per essere rielaborati
+     * (consegna almeno una volta).
+     * 
+     * Formato di un record: [int lunghezza][int CRC32C][long sequenza][int id]
+     * [long timestamp][double valore][short lunghezza fonte][byte fonte]. Un
+     * record troncato o con CRC errato segna la fine del log.
+     * 
+     * Se un force() o la creazione di un segmento falliscono il log non può
+     * più garantire la durabilità: l'errore resta in failure, chi attende
+     * il disco viene svegliato, e append() e awaitDurable() lo rilanciano
+     * come UncheckedIOException.
+     */
+    static class WriteAheadLog implements AutoCloseable {
+        private static final String CHECKPOINT_FILE = "checkpoint";
+        private static final int HEADER_BYTES = 8;
+        private static final int FIXED_PAYLOAD_BYTES = 8 + 4 + 8 + 8 + 2;
+        private static final int MAX_SOURCE_BYTES = 1024;
+        // Record pendenti (aggiunti e non ancora completati) al più: oltre, append() attende
+        private static final int PENDING_WINDOW = 1 << 16;
+        
+        private final Path directory;
+        private final int segmentBytes;
+        private final SyncPolicy syncPolicy;
+        private final ReentrantLock appendLock = new ReentrantLock();
+        private final CRC32C crc = new CRC32C();
+        private final byte[] scratch = new byte[HEADER_BYTES + FIXED_PAYLOAD_BYTES + MAX_SOURCE_BYTES];
+        private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+        private final Map<String, byte[]> encodedSources = new ConcurrentHashMap<>();
+        private final AtomicLongArray completed = new AtomicLongArray(PENDING_WINDOW);
+        private final long commitIntervalNanos;
+        private final Thread committer;
+        private final ScheduledExecutorService checkpointer;
+        // Segnalata da append quando il thread di commit attende record nuovi
+        private final Condition recordsAppended = appendLock.newCondition();
+        private boolean committerWaiting;
+        private final List<Data> recovered;
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private long nextSequence;
+        private volatile long appendedSequence;
+        private volatile long durableSequence;
+        private volatile IOException failure;
+        private volatile long checkpointSequence;
+        private long writtenCheckpoint;
+        private final AtomicLong forceCount = new AtomicLong(0);
+        private volatile boolean closed;
+        
+        public WriteAheadLog(Path directory, int segmentBytes, SyncPolicy syncPolicy, long commitIntervalMs)
+                throws IOException {
+            if (segmentBytes < HEADER_BYTES + FIXED_PAYLOAD_BYTES + MAX_SOURCE_BYTES) {
+                throw new IllegalArgumentException("Segmento troppo piccolo: " + segmentBytes + " byte");
+            }
+            this.directory = Files.createDirectories(directory);
+            this.segmentBytes = segmentBytes;
+            this.syncPolicy = syncPolicy;
+            this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMs);
+            for (int i = 0; i < PENDING_WINDOW; i++) {
+                completed.set(i, -1);
+            }
+            
+            // Recupero: i record dopo il checkpoint saranno rielaborati
+            long checkpoint = readCheckpoint();
+            this.recovered = recover(checkpoint);
+            this.checkpointSequence = checkpoint;
+            this.writtenCheckpoint = checkpoint;
+            this.appendedSequence = nextSequence - 1;
+            this.durableSequence = nextSequence - 1;
+            
+            // Le nuove scritture iniziano sempre in un segmento nuovo
+            openSegment(nextSequence);
+            
+            committer = new Thread(this::commitLoop, "WAL-Commit");
+            committer.setDaemon(true);
+            committer.start();
+            
+            checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "WAL-Checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+            checkpointer.scheduleWithFixedDelay(this::checkpoint, 100, 100, TimeUnit.MILLISECONDS);
+        }
+        
+        /**
+         * Aggiunge un record al log e ne restituisce il numero di sequenza.
+         * Non attende il disco: con SyncPolicy.GROUP chi scrive chiama poi
+         * awaitDurable().
+         */
+        public long append(int id, String source, double value, long timestamp) throws InterruptedException {
+            byte[] sourceBytes = encodeSource(source);
+            long sequence = lockWindow(1);
+            try {
+                writeRecord(sequence, id, sourceBytes, value, timestamp);
+                return sequence;
+            } finally {
+                appendLock.unlock();
+            }
+        }
+        
+        /**
+         * Aggiunge count record consecutivi della stessa fonte e restituisce
+         * la sequenza del primo (gli altri seguono senza buchi). Il posto
+         * nell'anello è ottenuto per tutto il lotto prima di scrivere: chi
+         * attende a metà lotto tratterrebbe il checkpoint con i propri record
+         * non ancora completati. Con SyncPolicy.GROUP basta poi una sola
+         * awaitDurable() sull'ultima sequenza.
+         */
+        public long append(String source, int[] ids, double[] values, long[] timestamps, int count)
+                throws InterruptedException {
+            if (count <= 0 || count > PENDING_WINDOW) throw new IllegalArgumentException("Lotto non valido: " + count);
+            byte[] sourceBytes = encodeSource(source);
+            long first = lockWindow(count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    writeRecord(first + i, ids[i], sourceBytes, values[i], timestamps[i]);
+                }
+                return first;
+            } finally {
+                appendLock.unlock();
+            }
+        }
+        
+        private byte[] encodeSource(String source) {
+            byte[] sourceBytes = encodedSources.computeIfAbsent(source, s -> s.getBytes(StandardCharsets.UTF_8));
+            if (sourceBytes.length > MAX_SOURCE_BYTES) {
+                throw new IllegalArgumentException("Nome della fonte troppo lungo: " + source);
+            }
+            return sourceBytes;
+        }
+        
+        /**
+         * Acquisisce appendLock quando nell'anello c'è posto per count record
+         * e restituisce la prima sequenza libera; il chiamante rilascia il lock.
+         */
+        private long lockWindow(int count) throws InterruptedException {
+            while (true) {
+                // L'attesa di posto nell'anello avviene senza il lock, così il
+                // commit e gli altri generatori non restano bloccati
+                awaitWindow(appendedSequence + count);
+                appendLock.lockInterruptibly();
+                if (closed || failure != null) {
+                    appendLock.unlock();
+                    if (failure != null) throw new UncheckedIOException("Log non più scrivibile", failure);
+                    throw new IllegalStateException("Log chiuso");
+                }
+                long sequence = nextSequence;
+                if (sequence + count - 1 - checkpointSequence < PENDING_WINDOW) {
+                    return sequence;
+                }
+                // Un altro generatore ha preso il posto rimasto: si attende di nuovo
+                appendLock.unlock();
+            }
+        }
+        
+        /** Scrive un record nel segmento corrente; chiamato con appendLock acquisito. */
+        private void writeRecord(long sequence, int id, byte[] sourceBytes, double value, long timestamp) {
+            int payload = FIXED_PAYLOAD_BYTES + sourceBytes.length;
+            scratchBuffer.clear();
+            scratchBuffer.putInt(payload).putInt(0)
+                         .putLong(sequence).putInt(id).putLong(timestamp).putDouble(value)
+                         .putShort((short) sourceBytes.length).put(sourceBytes);
+            crc.reset();
+            crc.update(scratch, HEADER_BYTES, payload);
+            scratchBuffer.putInt(4, (int) crc.getValue());
+            
+            int length = HEADER_BYTES + payload;
+            // Lascia almeno un intero a zero come terminatore del segmento
+            if (segment.remaining() < length + 4) {
+                rollSegment(sequence);
+            }
+            segment.put(scratch, 0, length);
+            nextSequence = sequence + 1;
+            appendedSequence = sequence;
+            if (committerWaiting) {
+                recordsAppended.signal();
+            }
+        }
+        
+        /**
+         * Attende che nell'anello dei completamenti ci sia posto per la
+         * sequenza: succede solo se i worker restano indietro di PENDING_WINDOW
+         * record, e funziona come ulteriore backpressure sui generatori.
+         * Va chiamato senza appendLock.
+         */
+        private void awaitWindow(long sequence) throws InterruptedException {
+            while (sequence - checkpointSequence >= PENDING_WINDOW) {
+                advanceCheckpoint();
+                if (sequence - checkpointSequence < PENDING_WINDOW) return;
+                if (Thread.interrupted()) throw new InterruptedException();
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        
+        /** Attende che il commit di gruppo abbia reso durevole la sequenza. */
+        public void awaitDurable(long sequence) throws InterruptedException {
+            if (durableSequence >= sequence) return;
+            synchronized (this) {
+                while (durableSequence < sequence) {
+                    if (failure != null) throw new UncheckedIOException("Log non più scrivibile", failure);
+                    if (closed) throw new IllegalStateException("Log chiuso");
+                    wait();
+                }
+            }
+        }
+        
+        /** Segna come completato un record: il checkpoint potrà superarlo. */
+        public void markCompleted(long sequence) {
+            if (sequence >= 0) {
+                completed.set((int) (sequence & (PENDING_WINDOW - 1)), sequence);
+            }
+        }
+        
+        public SyncPolicy getSyncPolicy() {
+            return syncPolicy;
+        }
+        
+        /** Record recuperati all'apertura, successivi all'ultimo checkpoint. */
+        public List<Data> getRecovered() {
+            return recovered;
+        }
+        
+        public long getCheckpointSequence() {
+            return checkpointSequence;
+        }
+        
+        public long getAppendedCount() {
+            return appendedSequence + 1;
+        }
+        
+        public long getForceCount() {
+            return forceCount.get();
+        }
+        
+        /**
+         * Thread di commit: attende che ci siano record non ancora durevoli e
+         * forza il segmento corrente una sola volta per tutti i record
+         * aggiunti dal force() precedente. Termina alla chiusura, dopo
+         * l'ultimo commit.
+         */
+        private void commitLoop() {
+            while (true) {
+                long upTo;
+                MappedByteBuffer current;
+                appendLock.lock();
+                try {
+                    while (appendedSequence == durableSequence && !closed) {
+                        committerWaiting = true;
+                        recordsAppended.awaitUninterruptibly();
+                        committerWaiting = false;
+                    }
+                    if (appendedSequence == durableSequence) return;
+                    upTo = appendedSequence;
+                    current = segment;
+                } finally {
+                    appendLock.unlock();
+                }
+                
+                // I segmenti precedenti sono stati forzati al cambio di segmento
+                try {
+                    current.force();
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                forceCount.incrementAndGet();
+                synchronized (this) {
+                    durableSequence = upTo;
+                    notifyAll();
+                }
+                
+                // Senza nessuno in attesa conviene raccogliere più record per force()
+                if (syncPolicy == SyncPolicy.ASYNC && !closed) {
+                    LockSupport.parkNanos(commitIntervalNanos);
+                }
+            }
+        }
+        
+        /**
+         * Avanza il checkpoint fino al primo record non completato. I valori
+         * nell'anello sono le sequenze stesse, quindi non vanno mai azzerati.
+         */
+        private synchronized void advanceCheckpoint() {
+            long sequence = checkpointSequence;
+            while (completed.get((int) (sequence & (PENDING_WINDOW - 1))) == sequence) {
+                sequence++;
+            }
+            checkpointSequence = sequence;
+        }
+        
+        /** Scrive il checkpoint se è avanzato e cancella i segmenti non più necessari. */
+        private void checkpoint() {
+            advanceCheckpoint();
+            long sequence = checkpointSequence;
+            if (sequence == writtenCheckpoint) return;
+            try {
+                writeCheckpoint(sequence);
+                writtenCheckpoint = sequence;
+                deleteSegmentsBefore(sequence);
+            } catch (IOException e) {
+                System.err.println("Errore nella scrittura del checkpoint: " + e.getMessage());
+            }
+        }
+        
+        /**
+         * Registra un errore che rende il log non più scrivibile e sveglia
+         * chi attende il disco
+         */
+        private void fail(Exception e) {
+            System.err.println("Errore nella scrittura del log: " + e);
+            IOException cause = e instanceof IOException ? (IOException) e
+                              : e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause()
+                              : new IOException(e);
+            synchronized (this) {
+                if (failure == null) failure = cause;
+                notifyAll();
+            }
+        }
+        
+        /**
+         * Passa a un segmento nuovo; chiamato con appendLock acquisito. Se
+         * qualcosa fallisce segment e channel restano quelli del segmento
+         * pieno e il log viene segnato come guasto.
+         */
+        private void rollSegment(long firstSequence) {
+            FileChannel previous = channel;
+            try {
+                // Il segmento pieno deve essere durevole prima di essere abbandonato
+                segment.force();
+                forceCount.incrementAndGet();
+                openSegment(firstSequence);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                throw new UncheckedIOException("Impossibile creare un nuovo segmento", failure);
+            }
+            try {
+                previous.close();
+            } catch (IOException e) {
+                System.err.println("Errore nella chiusura di un segmento: " + e.getMessage());
+            }
+        }
+        
+        /** Apre e mappa un segmento; segment e channel cambiano solo se entrambe le operazioni riescono. */
+        private void openSegment(long firstSequence) throws IOException {
+            // Un segmento omonimo può esistere solo vuoto (creato e mai scritto): viene sovrascritto
+            FileChannel file = FileChannel.open(segmentPath(firstSequence), StandardOpenOption.CREATE,
+                                                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                segment = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+            channel = file;
+        }
+        
+        private Path segmentPath(long firstSequence) {
+            return directory.resolve(String.format("wal-%020d.log", firstSequence));
+        }
+        
+        private static long segmentFirstSequence(Path path) {
+            String name = path.getFileName().toString();
+            return Long.parseLong(name.substring(4, name.length() - 4));
+        }
+        
+        /** Segmenti ordinati per prima sequenza. */
+        private List<Path> listSegments() throws IOException {
+            List<Path> segments = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "wal-*.log")) {
+                for (Path path : stream) {
+                    segments.add(path);
+                }
+            }
+            segments.sort((a, b) -> Long.compare(segmentFirstSequence(a), segmentFirstSequence(b)));
+            return segments;
+        }
+        
+        /**
+         * Legge i segmenti dal più recente che contiene il checkpoint in poi e
+         * restituisce i record validi successivi al checkpoint.
+         */
+        private List<Data> recover(long checkpoint) throws IOException {
+            List<Path> segments = listSegments();
+            int first = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                if (segmentFirstSequence(segments.get(i)) <= checkpoint) first = i;
+            }
+            
+            List<Data> records = new ArrayList<>();
+            nextSequence = checkpoint;
+            for (int i = first; i < segments.size(); i++) {
+                try (FileChannel in = FileChannel.open(segments.get(i), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                    readSegment(buffer, checkpoint, records);
+                }
+            }
+            return records;
+        }
+        
+        private void readSegment(ByteBuffer buffer, long checkpoint, List<Data> records) {
+            CRC32C check = new CRC32C();
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int payload = buffer.getInt();
+                int expectedCrc = buffer.getInt();
+                if (payload < FIXED_PAYLOAD_BYTES || payload > buffer.remaining()) return;
+                
+                check.reset();
+                check.update(buffer.slice(buffer.position(), payload));
+                if ((int) check.getValue() != expectedCrc) return;
+                
+                long sequence = buffer.getLong();
+                int id = buffer.getInt();
+                long timestamp = buffer.getLong();
+                double value = buffer.getDouble();
+                byte[] sourceBytes = new byte[buffer.getShort()];
+                buffer.get(sourceBytes);
+                
+                if (sequence >= checkpoint) {
+                    records.add(Data.replayed(id, new String(sourceBytes, StandardCharsets.UTF_8), value,
+                                              timestamp, sequence));
+                }
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        }
+        
+        private long readCheckpoint() throws IOException {
+            Path path = directory.resolve(CHECKPOINT_FILE);
+            if (!Files.exists(path)) {
+                // Nessun checkpoint: si riparte dal segmento più vecchio
+                List<Path> segments = listSegments();
+                return segments.isEmpty() ? 0 : segmentFirstSequence(segments.get(0));
+            }
+            return ByteBuffer.wrap(Files.readAllBytes(path)).getLong();
+        }
+        
+        /** Scrive il checkpoint su un file temporaneo e lo rinomina in modo atomico. */
+        private void writeCheckpoint(long sequence) throws IOException {
+            Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                out.write(ByteBuffer.allocate(8).putLong(0, sequence));
+                out.force(true);
+            }
+            Files.move(temp, directory.resolve(CHECKPOINT_FILE),
+                       StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        
+        /** Un segmento è superfluo se il successivo inizia non oltre il checkpoint. */
+        private void deleteSegmentsBefore(long sequence) throws IOException {
+            List<Path> segments = listSegments();
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (segmentFirstSequence(segments.get(i + 1)) > sequence) break;
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+        
+        /**
+         * Chiude il log: ultimo commit e ultimo checkpoint. I record non
+         * completati restano nel log e saranno recuperati alla riapertura.
+         */
+        @Override
+        public void close() throws IOException {
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            appendLock.lock();
+            try {
+                closed = true;
+                recordsAppended.signal();
+            } finally {
+                appendLock.unlock();
+            }
+            // Il thread di commit rende durevoli gli ultimi record e termina
+            LockSupport.unpark(committer);
+            boolean interrupted = false;
+            while (committer.isAlive()) {
+                try {
+                    committer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            checkpoint();
+            channel.close();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Distribuzione degli arrivi di un generatore a ciclo aperto.
+     */
+    enum ArrivalPattern {
+        CONSTANT, // Intervalli uguali
+        POISSON,  // Intervalli esponenziali: arrivi indipendenti
+        BURSTY    // Raffiche: periodi attivi a ritmo maggiorato alternati a pause
+    }
+    
+    /**
+     * Programma degli istanti di invio di un generatore a ciclo aperto.
+     * 
+     * Ogni istante è calcolato dal precedente istante previsto, non da quello
+     * in cui l'invio è avvenuto davvero: se il generatore resta bloccato il
+     * programma non scivola in avanti e gli invii arretrati partono subito
+     * dopo. La latenza misurata dall'istante previsto include quindi anche il
+     * tempo in cui il sistema non ha accettato dati (coordinated omission).
+     * 
+     * Con BURSTY il ritmo medio resta ratePerSecond: durante i periodi attivi
+     * di onMillis gli arrivi sono più fitti di (onMillis + offMillis) / onMillis
+     * volte, durante le pause di offMillis non ce ne sono. Non è thread-safe:
+     * ogni generatore ha il proprio programma.
+     */
+    static class ArrivalSchedule {
+        private final ArrivalPattern pattern;
+        private final double ratePerSecond;
+        private final long onNanos;
+        private final long cycleNanos;
+        private final Random random = new Random();
+        private long startNanos;
+        private long nextNanos = Long.MIN_VALUE;
+        
+        public ArrivalSchedule(ArrivalPattern pattern, double ratePerSecond, long onMillis, long offMillis) {
+            if (ratePerSecond <= 0) throw new IllegalArgumentException("Il ritmo deve essere positivo");
+            if (pattern == ArrivalPattern.BURSTY && (onMillis <= 0 || offMillis < 0)) {
+                throw new IllegalArgumentException("Durate delle raffiche non valide");
+            }
+            this.pattern = pattern;
+            this.ratePerSecond = ratePerSecond;
+            this.onNanos = TimeUnit.MILLISECONDS.toNanos(onMillis);
+            this.cycleNanos = TimeUnit.MILLISECONDS.toNanos(onMillis + offMillis);
+        }
+        
+        /** Istante previsto (System.nanoTime()) del prossimo invio. */
+        public long next() {
+            if (nextNanos == Long.MIN_VALUE) {
+                startNanos = nextNanos = System.nanoTime();
+                return nextNanos;
+            }
+            
+            double rate = pattern == ArrivalPattern.BURSTY
+                          ? ratePerSecond * cycleNanos / onNanos
+                          : ratePerSecond;
+            long gap = pattern == ArrivalPattern.POISSON
+                       ? (long) (-Math.log(1 - random.nextDouble()) * 1_000_000_000.0 / rate)
+                       : (long) (1_000_000_000.0 / rate);
+            long candidate = nextNanos + gap;
+            
+            if (pattern == ArrivalPattern.BURSTY) {
+                // Un arrivo che cade in una pausa slitta all'inizio del periodo attivo successivo
+                long position = (candidate - startNanos) % cycleNanos;
+                if (position >= onNanos) {
+                    candidate += cycleNanos - position;
+                }
+            }
+            nextNanos = candidate;
+            return candidate;
+        }
+        
+        public ArrivalPattern getPattern() {
+            return pattern;
+        }
+        
+        public double getRatePerSecond() {
+            return ratePerSecond;
+        }
+    }
+    
+    /**
+     * Componente che genera dati simulati.
+     * 
+     * In modalità colonnare il generatore riempie blocchi presi dal ChunkPool
+     * e inserisce nella coda un blocco completo alla volta.
+     * 
+     * Con un FlowController il generatore ottiene un credito prima di ogni
+     * inserimento e sostituisce il ritardo fisso con il ritmo calcolato dal
+     * controllore. Il tempo passato in attesa di crediti o di spazio in coda
+     * è misurato come tempo bloccato per backpressure.
+     * 
+     * Con un WriteAheadLog ogni dato viene scritto nel log prima di essere
+     * inserito nella coda. A ciclo aperto gli arrivi già scaduti (ad esempio
+     * dopo un blocco) formano un lotto di al più WAL_BATCH dati: con
+     * SyncPolicy.GROUP il generatore attende un solo commit per l'intero
+     * lotto invece di uno per dato.
+     * 
+     * Con un ArrivalSchedule il generatore funziona a ciclo aperto: invia
+     * ogni dato all'istante previsto dal programma invece di attendere un
+     * ritardo fisso dopo ogni inserimento, e l'istante di accodamento del
+     * dato è quello previsto, così le latenze includono l'eventuale ritardo
+     * accumulato dal generatore bloccato.
+     */
+    static class DataGenerator implements Runnable {
+        static final int WAL_BATCH = 256;
+        
+        private final BlockingQueue<Data> outputQueue;
+        private final BlockingQueue<DataChunk> chunkQueue;
+        private final ChunkPool chunkPool;
+        private final FlowController flowController;
+        private final WriteAheadLog wal;
+        private final String sourceName;
+        private final byte sourceId;
+        private final Random random = new Random();
+        private final AtomicLong counter = new AtomicLong(0);
+        private final AtomicLong blockedNanos = new AtomicLong(0);
+        private volatile boolean running = true;
+        private final int delayMs;
+        private int payloadBytes;
+        private ArrivalSchedule arrivals;
+        // Istante già estratto dal programma e non ancora usato (Long.MIN_VALUE se assente)
+        private long pendingArrival = Long.MIN_VALUE;
+        // Lotto in preparazione, riusato a ogni giro
+        private final long[] batchIntended = new long[WAL_BATCH];
+        private final int[] batchIds = new int[WAL_BATCH];
+        private final double[] batchValues = new double[WAL_BATCH];
+        private final long[] batchTimestamps = new long[WAL_BATCH];
+        private final LatencyHistogram sendLagHistogram = new LatencyHistogram();
+        
+        public DataGenerator(String sourceName, BlockingQueue<Data> queue, int delayMs) {
+            this(sourceName, queue, delayMs, null);
+        }
+        
+        public DataGenerator(String sourceName, BlockingQueue<Data> queue, int delayMs,
+                             FlowController flowController) {
+            this(sourceName, queue, delayMs, flowController, null);
+        }
+        
+        public DataGenerator(String sourceName, BlockingQueue<Data> queue, int delayMs,
+                             FlowController flowController, WriteAheadLog wal) {
+            this.sourceName = sourceName;
+            this.sourceId = 0;
+            this.outputQueue = queue;
+            this.chunkQueue = null;
+            this.chunkPool = null;
+            this.flowController = flowController;
+            this.wal = wal;
+            this.delayMs = delayMs;
+        }
+        
+        public DataGenerator(String sourceName, byte sourceId, BlockingQueue<DataChunk> chunkQueue,
+                             ChunkPool chunkPool, int delayMs) {
+            this(sourceName, sourceId, chunkQueue, chunkPool, delayMs, null);
+        }
+        
+        public DataGenerator(String sourceName, byte sourceId, BlockingQueue<DataChunk> chunkQueue,
+                             ChunkPool chunkPool, int delayMs, FlowController flowController) {
+            this.sourceName = sourceName;
+            this.sourceId = sourceId;
+            this.outputQueue = null;
+            this.chunkQueue = chunkQueue;
+            this.chunkPool = chunkPool;
+            this.flowController = flowController;
+            this.wal = null;
+            this.delayMs = delayMs;
+        }
+        
+        @Override
+        public void run() {
+            if (chunkQueue != null) {
+                runColumnar();
+                return;
+            }
+            
+            try {
+                while (running) {
+                    // A ciclo aperto attende l'istante previsto per il prossimo invio
+                    int count = 0;
+                    batchIntended[count++] = arrivals != null ? awaitNextArrival() : 0;
+                    
+                    // Gli arrivi già scaduti entrano nello stesso lotto del log
+                    while (wal != null && arrivals != null && count < WAL_BATCH && running && nextArrivalDue()) {
+                        batchIntended[count++] = takeArrival();
+                    }
+                    
+                    // Genera i nuovi dati
+                    for (int i = 0; i < count; i++) {
+                        batchIds[i] = (int) counter.incrementAndGet();
+                        batchValues[i] = random.nextDouble() * 100;
+                        batchTimestamps[i] = System.currentTimeMillis();
+                    }
+                    long firstSequence = -1;
+                    if (wal != null) {
+                        // I dati sono nel log prima di entrare nella coda
+                        firstSequence = wal.append(sourceName, batchIds, batchValues, batchTimestamps, count);
+                        if (wal.getSyncPolicy() == SyncPolicy.GROUP) {
+                            wal.awaitDurable(firstSequence + count - 1);
+                        }
+                    }
+                    
+                    // Inserisci i dati nella coda
+                    for (int i = 0; i < count; i++) {
+                        byte[] payload = Data.NO_PAYLOAD;
+                        if (payloadBytes > 0) {
+                            payload = new byte[payloadBytes];
+                            payload[0] = (byte) batchIds[i];
+                        }
+                        Data data = new Data(batchIds[i], sourceName, batchValues[i], batchTimestamps[i],
+                                             wal != null ? firstSequence + i : -1, payload,
+                                             arrivals != null ? batchIntended[i] : System.nanoTime());
+                        send(outputQueue, data);
+                        if (arrivals != null) {
+                            // Ritardo dell'invio rispetto al programma
+                            sendLagHistogram.record(System.nanoTime() - batchIntended[i]);
+                        }
+                    }
+                    
+                    if (arrivals == null) {
+                        // Simula un ritardo nella generazione
+                        pause();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("DataGenerator " + sourceName + " interrotto");
+            } catch (Exception e) {
+                System.err.println("Errore in DataGenerator " + sourceName + ": " + e.getMessage());
+            }
+        }
+        
+        private void runColumnar() {
+            DataChunk chunk = null;
+            try {
+                while (running) {
+                    // Riempie un blocco intero senza allocare oggetti per record
+                    chunk = chunkPool.acquire();
+                    long base = counter.get();
+                    long now = System.nanoTime();
+                    int n = chunk.capacity();
+                    for (int i = 0; i < n; i++) {
+                        chunk.add((int) (base + i + 1), sourceId, random.nextDouble() * 100, now);
+                    }
+                    
+                    // Inserisci il blocco nella coda
+                    send(chunkQueue, chunk);
+                    chunk = null;
+                    counter.addAndGet(n);
+                    
+                    // Simula un ritardo nella generazione
+                    pause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("DataGenerator " + sourceName + " interrotto");
+            } catch (Exception e) {
+                System.err.println("Errore in DataGenerator " + sourceName + ": " + e.getMessage());
+            } finally {
+                // Un blocco non ancora inserito in coda torna al pool
+                if (chunk != null) {
+                    chunkPool.release(chunk);
+                }
+            }
+        }
+        
+        /**
+         * Inserisce un elemento nella coda, prima ottenendo un credito se il
+         * controllo di flusso è attivo, e misura il tempo passato bloccato.
+         */
+        private <E> void send(BlockingQueue<E> queue, E element) throws InterruptedException {
+            long start = System.nanoTime();
+            try {
+                if (flowController != null) {
+                    flowController.acquire();
+                }
+                queue.put(element);
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        
+        /** Attende l'istante previsto del prossimo arrivo, se non è già passato, e lo restituisce. */
+        private long awaitNextArrival() throws InterruptedException {
+            long intendedNanos = takeArrival();
+            long remaining;
+            while (running && (remaining = intendedNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+            return intendedNanos;
+        }
+        
+        private long takeArrival() {
+            long intendedNanos = pendingArrival != Long.MIN_VALUE ? pendingArrival : arrivals.next();
+            pendingArrival = Long.MIN_VALUE;
+            return intendedNanos;
+        }
+        
+        /** Indica se l'istante del prossimo arrivo è già passato, senza consumarlo. */
+        private boolean nextArrivalDue() {
+            if (pendingArrival == Long.MIN_VALUE) {
+                pendingArrival = arrivals.next();
+            }
+            return pendingArrival <= System.nanoTime();
+        }
+        
+        private void pause() throws InterruptedException {
+            if (flowController != null) {
+                TimeUnit.NANOSECONDS.sleep(flowController.pacingDelayNanos());
+            } else {
+                Thread.sleep(delayMs);
+            }
+        }
+        
+        public void stop() {
+            running = false;
+        }
+        
+        public String getSourceName() {
+            return sourceName;
+        }
+        
+        /**
+         * Attiva la generazione a ciclo aperto secondo il programma indicato;
+         * va impostata prima di avviare il generatore.
+         */
+        public void setArrivals(ArrivalSchedule arrivals) {
+            if (chunkQueue != null) throw new IllegalStateException("Il ciclo aperto richiede dati singoli");
+            if (flowController != null) {
+                throw new IllegalStateException("Il ciclo aperto non è compatibile con il controllo di flusso");
+            }
+            this.arrivals = arrivals;
+        }
+        
+        /** Ritardi degli invii rispetto all'istante previsto (solo a ciclo aperto). */
+        public LatencyHistogram getSendLagHistogram() {
+            return sendLagHistogram;
+        }
+        
+        /** Dimensione del payload dei dati generati; va impostata prima di avviare il generatore. */
+        public void setPayloadBytes(int payloadBytes) {
+            this.payloadBytes = payloadBytes;
+        }
+        
+        /** Tempo complessivo passato in attesa di crediti o di spazio in coda. */
+        public long getBlockedNanos() {
+            return blockedNanos.get();
+        }
+        
+        public long getGeneratedCount() {
+            return counter.get();
+        }
+    }
+    
+    /**
+     * Nucleo di calcolo applicato a un intero blocco di valori: out[i] =
+     * sqrt(in[i]) * 10, la trasformazione di processData.
+     */
+    interface BatchKernel {
+        void apply(double[] in, double[] out, int length);
+        
+        String name();
+    }
+    
+    /**
+     * Scelta del nucleo a blocchi. Il nucleo vettoriale (NucleoVettoriale,
+     * Vector API) è caricato per nome solo se è stato compilato e il modulo
+     * jdk.incubator.vector è presente; altrimenti si usa il ciclo scalare,
+     * che il compilatore JIT può comunque vettorizzare automaticamente
+     * perché è un ciclo semplice su array senza dipendenze tra iterazioni.
+     */
+    static final class BatchKernels {
+        static final BatchKernel SCALAR = new BatchKernel() {
+            @Override
+            public void apply(double[] in, double[] out, int length) {
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.sqrt(in[i]) * 10;
+                }
+            }
+            
+            @Override
+            public String name() {
+                return "scalare";
+            }
+        };
+        
+        /** Nucleo vettoriale, o null se non disponibile. */
+        static final BatchKernel VECTOR = loadVector();
+        
+        /** Nucleo usato dalla modalità colonnare (-Dnucleo=scalare forza il ciclo scalare). */
+        static final BatchKernel DEFAULT =
+            VECTOR != null && !"scalare".equalsIgnoreCase(System.getProperty("nucleo")) ? VECTOR : SCALAR;
+        
+        private BatchKernels() {}
+        
+        private static BatchKernel loadVector() {
+            try {
+                return (BatchKernel) Class.forName("NucleoVettoriale").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Classe non compilata o modulo incubator non aggiunto con --add-modules
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Modalità di esecuzione dell'elaborazione dei singoli dati.
+     */
+    enum ExecutionMode {
+        PLATFORM_POOL,     // Worker su thread di piattaforma: concorrenza pari al numero di worker
+        VIRTUAL_PER_RECORD // Un thread virtuale per dato, concorrenza limitata da un semaforo
+    }
+    
+    /**
+     * Accesso ai thread virtuali (Java 21+). Il metodo viene cercato via
+     * reflection, così l'esempio compila ed esegue anche su versioni
+     * precedenti, dove si ripiega su un pool di thread di piattaforma.
+     */
+    static final class VirtualThreads {
+        private VirtualThreads() {}
+        
+        static boolean isAvailable() {
+            try {
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+        
+        /** Executor con un thread virtuale per task, o un pool di thread di piattaforma se non disponibile. */
+        static ExecutorService newPerTaskExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool();
+            }
+        }
+    }
+    
+    /**
+     * Parametri del ridimensionamento automatico del WorkerPool.
+     * 
+     * Il numero di worker richiesto segue la legge di Little: per servire un
+     * ritmo di arrivo lambda con tempo di servizio medio S servono in media
+     * lambda * S worker occupati; dividendo per l'utilizzo desiderato si
+     * lascia un margine, e la coda accumulata aggiunge i worker necessari a
+     * smaltirla entro drainMs. L'isteresi richiede più valutazioni
+     * consecutive concordi prima di cambiare, e la riduzione avviene un
+     * worker alla volta.
+     */
+    static class AutoscalePolicy {
+        final int minWorkers;
+        final int maxWorkers;
+        final long intervalMs;
+        final double targetUtilization;
+        final long drainMs;
+        final int scaleUpTicks;
+        final int scaleDownTicks;
+        
+        public AutoscalePolicy(int minWorkers, int maxWorkers) {
+            this(minWorkers, maxWorkers, 1000, 0.7, 2000, 2, 5);
+        }
+        
+        public AutoscalePolicy(int minWorkers, int maxWorkers, long intervalMs, double targetUtilization,
+                               long drainMs, int scaleUpTicks, int scaleDownTicks) {
+            if (minWorkers < 1 || maxWorkers < minWorkers) {
+                throw new IllegalArgumentException("Limiti dei worker non validi: " + minWorkers + "-" + maxWorkers);
+            }
+            if (targetUtilization <= 0 || targetUtilization > 1) {
+                throw new IllegalArgumentException("L'utilizzo desiderato deve essere in (0, 1]");
+            }
+            this.minWorkers = minWorkers;
+            this.maxWorkers = maxWorkers;
+            this.intervalMs = intervalMs;
+            this.targetUtilization = targetUtilization;
+            this.drainMs = drainMs;
+            this.scaleUpTicks = scaleUpTicks;
+            this.scaleDownTicks = scaleDownTicks;
+        }
+    }
+    
+    /**
+     * Pool di worker che elaborano i dati.
+     * 
+     * In modalità batch ogni worker preleva fino a batchSize elementi con una
+     * sola operazione sulla coda (drainTo), eventualmente attendendo al più
+     * lingerMs per completare il batch, e pubblica tutti i risultati del batch
+     * al consumer con un'unica chiamata. Con batchSize = 1 il comportamento
+     * coincide con l'elaborazione elemento per elemento.
+     * 
+     * In modalità colonnare i worker prelevano blocchi DataChunk, li elaborano
+     * con processChunk, li passano al consumer e li restituiscono al pool.
+     * Ogni blocco conta come un batch nelle statistiche.
+     * 
+     * Il numero di worker può variare durante l'esecuzione: con
+     * enableAutoscaling() un thread di controllo valuta periodicamente
+     * profondità della coda, utilizzo dei worker e tempo di servizio e
+     * avvia nuovi worker o chiede a quelli in eccesso di terminare.
+     * 
+     * In modalità VIRTUAL_PER_RECORD i worker fanno solo da dispatcher: ogni
+     * dato prelevato viene elaborato in un proprio thread virtuale e la
+     * concorrenza è limitata da un semaforo di maxInFlight permessi invece
+     * che dal numero di thread.
+     * 
+     * In modalità partizionata ogni partizione (lane) ha la propria coda e un
+     * solo worker dedicato: i dati di una fonte finiscono sempre nella stessa
+     * partizione e vengono elaborati e pubblicati nell'ordine di arrivo, e i
+     * worker non si contendono una coda condivisa.
+     */
+    static class WorkerPool {
+        // Pool non limitato: ogni worker è un task di lunga durata e il loro
+        // numero è governato da activeWorkers/targetWorkers
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final BooleanSupplier workerLoop;
+        private final AtomicInteger activeWorkers = new AtomicInteger(0);
+        private volatile int targetWorkers;
+        private final AtomicLong busyNanos = new AtomicLong(0);
+        private ScheduledExecutorService autoscaler;
+        private volatile WriteAheadLog wal;
+        private volatile ToDoubleFunction<Data> kernel = this::processData;
+        private final ExecutionMode executionMode;
+        private final ExecutorService recordExecutor;
+        private final Semaphore inFlight;
+        private final int maxInFlight;
+        private final BlockingQueue<Data> inputQueue;
+        private final List<BlockingQueue<Data>> lanes;
+        private final Consumer<List<Result>> resultConsumer;
+        private final BlockingQueue<DataChunk> chunkQueue;
+        private final ChunkPool chunkPool;
+        private final Consumer<DataChunk> chunkConsumer;
+        private final FlowController flowController;
+        private final int batchSize;
+        private final long lingerNanos;
+        private final AtomicLong processedCount = new AtomicLong(0);
+        private final AtomicLong errorCount = new AtomicLong(0);
+        private final AtomicLong batchCount = new AtomicLong(0);
+        private final AtomicLong batchedItems = new AtomicLong(0);
+        private final LatencyHistogram queueWaitHistogram = new LatencyHistogram();
+        private final LatencyHistogram serviceHistogram = new LatencyHistogram();
+        private final LatencyHistogram endToEndHistogram = new LatencyHistogram();
+        private volatile boolean running = true;
+        
+        public WorkerPool(int numWorkers, BlockingQueue<Data> inputQueue, Consumer<Result> resultConsumer) {
+            this(numWorkers, inputQueue, 1, 0, results -> results.forEach(resultConsumer));
+        }
+        
+        public WorkerPool(int numWorkers, BlockingQueue<Data> inputQueue, int batchSize, long lingerMs,
+                          Consumer<List<Result>> resultConsumer) {
+            this(numWorkers, inputQueue, batchSize, lingerMs, null, resultConsumer);
+        }
+        
+        public WorkerPool(int numWorkers, BlockingQueue<Data> inputQueue, int batchSize, long lingerMs,
+                          FlowController flowController, Consumer<List<Result>> resultConsumer) {
+            this(numWorkers, inputQueue, batchSize, lingerMs, flowController, ExecutionMode.PLATFORM_POOL, 0,
+                 resultConsumer);
+        }
+        
+        public WorkerPool(int numWorkers, BlockingQueue<Data> inputQueue, int batchSize, long lingerMs,
+                          FlowController flowController, ExecutionMode executionMode, int maxInFlight,
+                          Consumer<List<Result>> resultConsumer) {
+            if (batchSize < 1) throw new IllegalArgumentException("La dimensione del batch deve essere positiva");
+            if (lingerMs < 0) throw new IllegalArgumentException("Il tempo di attesa non può essere negativo");
+            if (executionMode == ExecutionMode.VIRTUAL_PER_RECORD && maxInFlight < 1) {
+                throw new IllegalArgumentException("Il numero massimo di dati in volo deve essere positivo");
+            }
+            
+            this.executionMode = executionMode;
+            this.maxInFlight = maxInFlight;
+            if (executionMode == ExecutionMode.VIRTUAL_PER_RECORD) {
+                this.recordExecutor = VirtualThreads.newPerTaskExecutor();
+                this.inFlight = new Semaphore(maxInFlight);
+            } else {
+                this.recordExecutor = null;
+                this.inFlight = null;
+            }
+            this.inputQueue = inputQueue;
+            this.lanes = null;
+            this.resultConsumer = resultConsumer;
+            this.chunkQueue = null;
+            this.chunkPool = null;
+            this.chunkConsumer = null;
+            this.flowController = flowController;
+            this.batchSize = batchSize;
+            this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+            this.workerLoop = () -> workerTask(inputQueue);
+            this.targetWorkers = numWorkers;
+            
+            // Avvia i worker
+            for (int i = 0; i < numWorkers; i++) {
+                startWorker();
+            }
+        }
+        
+        public WorkerPool(int numWorkers, BlockingQueue<DataChunk> chunkQueue, ChunkPool chunkPool,
+                          Consumer<DataChunk> chunkConsumer) {
+            this(numWorkers, chunkQueue, chunkPool, null, chunkConsumer);
+        }
+        
+        public WorkerPool(int numWorkers, BlockingQueue<DataChunk> chunkQueue, ChunkPool chunkPool,
+                          FlowController flowController, Consumer<DataChunk> chunkConsumer) {
+            this.executionMode = ExecutionMode.PLATFORM_POOL;
+            this.recordExecutor = null;
+            this.inFlight = null;
+            this.maxInFlight = 0;
+            this.inputQueue = null;
+            this.lanes = null;
+            this.resultConsumer = null;
+            this.chunkQueue = chunkQueue;
+            this.chunkPool = chunkPool;
+            this.chunkConsumer = chunkConsumer;
+            this.flowController = flowController;
+            this.batchSize = chunkPool.getChunkSize();
+            this.lingerNanos = 0;
+            this.workerLoop = this::chunkWorkerTask;
+            this.targetWorkers = numWorkers;
+            
+            // Avvia i worker
+            for (int i = 0; i < numWorkers; i++) {
+                startWorker();
+            }
+        }
+        
+        /**
+         * Pool partizionato: un worker dedicato per ciascuna coda di lanes.
+         */
+        public WorkerPool(List<BlockingQueue<Data>> lanes, int batchSize, long lingerMs,
+                          Consumer<List<Result>> resultConsumer) {
+            if (lanes.isEmpty()) throw new IllegalArgumentException("Serve almeno una partizione");
+            if (batchSize < 1) throw new IllegalArgumentException("La dimensione del batch deve essere positiva");
+            if (lingerMs < 0) throw new IllegalArgumentException("Il tempo di attesa non può essere negativo");
+            
+            this.executionMode = ExecutionMode.PLATFORM_POOL;
+            this.recordExecutor = null;
+            this.inFlight = null;
+            this.maxInFlight = 0;
+            this.inputQueue = null;
+            this.lanes = List.copyOf(lanes);
+            this.resultConsumer = resultConsumer;
+            this.chunkQueue = null;
+            this.chunkPool = null;
+            this.chunkConsumer = null;
+            this.flowController = null;
+            this.batchSize = batchSize;
+            this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+            // Il numero di worker è fissato dalle partizioni
+            this.workerLoop = null;
+            this.targetWorkers = lanes.size();
+            
+            for (BlockingQueue<Data> lane : this.lanes) {
+                startWorker(() -> workerTask(lane));
+            }
+        }
+        
+        private void startWorker() {
+            startWorker(workerLoop);
+        }
+        
+        /**
+         * Avvia un worker sull'executor. Il worker non lascia riferimenti una
+         * volta uscito: i ritiri e le ripartenze dell'autoscaling non fanno
+         * crescere alcuna struttura, e un'eccezione imprevista arriva al
+         * gestore del thread invece di restare in un Future mai letto.
+         */
+        private void startWorker(BooleanSupplier loop) {
+            activeWorkers.incrementAndGet();
+            executor.execute(() -> {
+                boolean retired = false;
+                try {
+                    retired = loop.getAsBoolean();
+                } finally {
+                    // Un worker ritirato ha già aggiornato il conteggio in shouldRetire()
+                    if (!retired) {
+                        activeWorkers.decrementAndGet();
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Un worker in eccesso rispetto all'obiettivo termina spontaneamente
+         * tra un batch e l'altro, senza interrompere elaborazioni in corso.
+         * Il conteggio viene ridotto con compareAndSet prima di uscire, così
+         * termina solo il numero di worker necessario.
+         */
+        private boolean shouldRetire() {
+            int active;
+            while (running && (active = activeWorkers.get()) > targetWorkers) {
+                if (activeWorkers.compareAndSet(active, active - 1)) return true;
+            }
+            return false;
+        }
+        
+        /** Ciclo di un worker per singoli dati; restituisce true se il worker è stato ritirato. */
+        private boolean workerTask(BlockingQueue<Data> queue) {
+            // Buffer riutilizzato dal worker per tutti i batch
+            List<Data> batch = new ArrayList<>(batchSize);
+            try {
+                while (running || !queue.isEmpty()) {
+                    if (shouldRetire()) return true;
+                    
+                    fillBatch(queue, batch);
+                    if (!batch.isEmpty()) {
+                        // L'attesa in coda di tutto il batch termina quando il worker lo ha prelevato
+                        long dequeueNanos = System.nanoTime();
+                        // Restituisce ai produttori i crediti degli elementi prelevati
+                        if (flowController != null) {
+                            flowController.release(batch.size());
+                        }
+                        // Il batch conta una volta sola anche quando i suoi dati
+                        // sono poi elaborati da task separati
+                        batchCount.incrementAndGet();
+                        batchedItems.addAndGet(batch.size());
+                        if (recordExecutor != null) {
+                            dispatchBatch(batch, dequeueNanos);
+                        } else {
+                            processBatch(batch, dequeueNanos);
+                            busyNanos.addAndGet(System.nanoTime() - dequeueNanos);
+                        }
+                        batch.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Worker interrotto");
+            }
+            return false;
+        }
+        
+        /**
+         * Affida ogni dato del batch a un proprio task dell'executor per dato,
+         * attendendo un permesso del semaforo se maxInFlight dati sono già in
+         * elaborazione.
+         */
+        private void dispatchBatch(List<Data> batch, long dequeueNanos) throws InterruptedException {
+            for (Data data : batch) {
+                inFlight.acquire();
+                try {
+                    recordExecutor.execute(() -> {
+                        try {
+                            long start = System.nanoTime();
+                            processBatch(Collections.singletonList(data), dequeueNanos);
+                            busyNanos.addAndGet(System.nanoTime() - start);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    errorCount.incrementAndGet();
+                    System.err.println("Dato " + data.getId() + " rifiutato: " + e.getMessage());
+                }
+            }
+        }
+        
+        /**
+         * Riempie il batch: attende il primo elemento con timeout, poi preleva
+         * in blocco quelli già disponibili e, se il batch non è pieno, attende
+         * ulteriori elementi fino allo scadere del tempo di linger.
+         */
+        private void fillBatch(BlockingQueue<Data> queue, List<Data> batch) throws InterruptedException {
+            Data first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) return;
+            
+            batch.add(first);
+            queue.drainTo(batch, batchSize - batch.size());
+            
+            if (batch.size() < batchSize && lingerNanos > 0) {
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    
+                    Data next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            }
+        }
+        
+        /**
+         * Elabora un batch prelevato dalla coda all'istante dequeueNanos.
+         * La latenza end-to-end è registrata solo per i dati il cui risultato
+         * è stato pubblicato: quelli in errore sono contati in errorCount.
+         * Per i dati ripresi dal log si registra solo il tempo di elaborazione.
+         * Le statistiche dei batch sono aggiornate dal worker al prelievo, non
+         * qui: con un task per dato ogni chiamata riceve un solo elemento.
+         */
+        private void processBatch(List<Data> batch, long dequeueNanos) {
+            List<Result> results = new ArrayList<>(batch.size());
+            List<Data> succeeded = new ArrayList<>(batch.size());
+            for (Data data : batch) {
+                try {
+                    long start = System.nanoTime();
+                    double processedValue = kernel.applyAsDouble(data);
+                    long serviceNanos = System.nanoTime() - start;
+                    
+                    serviceHistogram.record(serviceNanos);
+                    results.add(new Result(data.getId(), data.getSource(), processedValue, serviceNanos));
+                    // I dati ripresi dal log hanno perso l'istante di accodamento originale
+                    if (!data.isReplayed()) {
+                        queueWaitHistogram.record(dequeueNanos - data.getEnqueueNanos());
+                        succeeded.add(data);
+                    }
+                } catch (Exception e) {
+                    errorCount.incrementAndGet();
+                    System.err.println("Errore nell'elaborazione del dato " + data.getId() + ": " + e.getMessage());
+                }
+            }
+            
+            // Pubblica l'intero batch di risultati con una sola chiamata
+            if (!results.isEmpty()) {
+                try {
+                    resultConsumer.accept(results);
+                    processedCount.addAndGet(results.size());
+                    
+                    // Latenza end-to-end: dall'accodamento alla pubblicazione del risultato
+                    long completionNanos = System.nanoTime();
+                    for (Data data : succeeded) {
+                        endToEndHistogram.record(completionNanos - data.getEnqueueNanos());
+                    }
+                } catch (Exception e) {
+                    errorCount.addAndGet(results.size());
+                    System.err.println("Errore nella pubblicazione di " + results.size() + " risultati: " + e.getMessage());
+                }
+            }
+            
+            // Anche i dati in errore sono stati gestiti: non vanno ripresi dal log
+            WriteAheadLog log = wal;
+            if (log != null) {
+                for (Data data : batch) {
+                    log.markCompleted(data.getSequence());
+                }
+            }
+        }
+        
+        /** Ciclo di un worker per blocchi colonnari; restituisce true se il worker è stato ritirato. */
+        private boolean chunkWorkerTask() {
+            try {
+                while (running || !chunkQueue.isEmpty()) {
+                    if (shouldRetire()) return true;
+                    
+                    DataChunk chunk = chunkQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if (chunk == null) continue;
+                    if (flowController != null) {
+                        flowController.release(1);
+                    }
+                    
+                    int n = chunk.size;
+                    try {
+                        long dequeueNanos = System.nanoTime();
+                        processChunk(chunk);
+                        chunk.processingNanos = System.nanoTime() - dequeueNanos;
+                        
+                        chunkConsumer.accept(chunk);
+                        processedCount.addAndGet(n);
+                        long completionNanos = System.nanoTime();
+                        recordChunkLatencies(chunk, dequeueNanos, completionNanos);
+                        busyNanos.addAndGet(completionNanos - dequeueNanos);
+                    } catch (Exception e) {
+                        errorCount.addAndGet(n);
+                        System.err.println("Errore nell'elaborazione di un blocco di " + n + " dati: " + e.getMessage());
+                    } finally {
+                        chunkPool.release(chunk);
+                    }
+                    
+                    batchCount.incrementAndGet();
+                    batchedItems.addAndGet(n);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Worker interrotto");
+            }
+            return false;
+        }
+        
+        /**
+         * Registra le latenze dei record di un blocco. I record con lo stesso
+         * timestamp di accodamento (tipicamente tutto il blocco) sono registrati
+         * con un solo aggiornamento dell'istogramma.
+         */
+        private void recordChunkLatencies(DataChunk chunk, long dequeueNanos, long completionNanos) {
+            int n = chunk.size;
+            long[] timestamps = chunk.timestamps;
+            serviceHistogram.record(chunk.processingNanos / n, n);
+            
+            int start = 0;
+            while (start < n) {
+                long enqueueNanos = timestamps[start];
+                int end = start + 1;
+                while (end < n && timestamps[end] == enqueueNanos) {
+                    end++;
+                }
+                queueWaitHistogram.record(dequeueNanos - enqueueNanos, end - start);
+                endToEndHistogram.record(completionNanos - enqueueNanos, end - start);
+                start = end;
+            }
+        }
+        
+        /**
+         * Applica a tutti i record del blocco la stessa trasformazione di
+         * processData, scrivendo i risultati nella colonna processedValues.
+         * Non simula l'attesa di I/O: la modalità colonnare è pensata per
+         * elaborazioni puramente di calcolo ad alto volume. Il calcolo usa il
+         * nucleo vettoriale se disponibile (vedi BatchKernels).
+         */
+        static void processChunk(DataChunk chunk) {
+            BatchKernels.DEFAULT.apply(chunk.values, chunk.processedValues, chunk.size);
+        }
+        
+        private double processData(Data data) {
+            // Simulazione di elaborazione
+            try {
+                // Simula un carico di lavoro variabile
+                int processingTime = 50 + new Random().nextInt(200);
+                Thread.sleep(processingTime);
+                
+                // Applica una trasformazione al valore
+                return Math.sqrt(data.getValue()) * 10;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Elaborazione interrotta", e);
+            }
+        }
+        
+        /**
+         * Sostituisce la trasformazione applicata a ogni dato (di default
+         * processData), ad esempio con un nucleo di solo calcolo nel benchmark.
+         */
+        public void useKernel(ToDoubleFunction<Data> kernel) {
+            this.kernel = kernel;
+        }
+        
+        /**
+         * Collega il log di scrittura anticipata: ogni dato elaborato viene
+         * segnato come completato, così il checkpoint può avanzare. Va
+         * chiamato prima che i worker ricevano dati scritti nel log.
+         */
+        public void attachWriteAheadLog(WriteAheadLog wal) {
+            if (chunkQueue != null) throw new IllegalStateException("Il log non è supportato in modalità colonnare");
+            this.wal = wal;
+        }
+        
+        /**
+         * Attiva il ridimensionamento automatico secondo la politica indicata.
+         */
+        public synchronized void enableAutoscaling(AutoscalePolicy policy) {
+            if (autoscaler != null) throw new IllegalStateException("Ridimensionamento automatico già attivo");
+            if (lanes != null) throw new IllegalStateException("Il pool partizionato ha un worker per partizione");
+            
+            targetWorkers = Math.max(policy.minWorkers, Math.min(policy.maxWorkers, targetWorkers));
+            autoscaler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Autoscaler");
+                t.setDaemon(true);
+                return t;
+            });
+            Runnable evaluation = new ScalingEvaluation(policy);
+            autoscaler.scheduleAtFixedRate(evaluation, policy.intervalMs, policy.intervalMs, TimeUnit.MILLISECONDS);
+        }
+        
+        /**
+         * Valutazione periodica del numero di worker necessario. Le misure
+         * sono differenze rispetto alla valutazione precedente.
+         */
+        private class ScalingEvaluation implements Runnable {
+            private final AutoscalePolicy policy;
+            private long lastNanos = System.nanoTime();
+            private long lastDequeued = batchedItems.get();
+            private long lastBusy = busyNanos.get();
+            private int lastDepth = getQueueDepth();
+            private int upVotes = 0;
+            private int downVotes = 0;
+            // Stime smussate con media mobile esponenziale per ridurre il rumore
+            private double smoothedArrivalRate = -1;
+            private double smoothedServiceSeconds = -1;
+            
+            ScalingEvaluation(AutoscalePolicy policy) {
+                this.policy = policy;
+            }
+            
+            @Override
+            public void run() {
+                try {
+                    evaluate();
+                } catch (Exception e) {
+                    System.err.println("Errore nel ridimensionamento automatico: " + e.getMessage());
+                }
+            }
+            
+            private void evaluate() {
+                if (!running) return;
+                
+                long now = System.nanoTime();
+                long dequeued = batchedItems.get();
+                long busy = busyNanos.get();
+                int depth = getQueueDepth();
+                double seconds = (now - lastNanos) / 1_000_000_000.0;
+                long items = dequeued - lastDequeued;
+                int current = targetWorkers;
+                
+                // Ritmo di arrivo: elementi prelevati più la variazione della coda
+                double arrivalRate = Math.max(0, (items + depth - lastDepth) / seconds);
+                double serviceSeconds = items > 0 ? (busy - lastBusy) / 1_000_000_000.0 / items : 0;
+                double utilization = (busy - lastBusy) / 1_000_000_000.0 / (Math.max(1, activeWorkers.get()) * seconds);
+                
+                lastNanos = now;
+                lastDequeued = dequeued;
+                lastBusy = busy;
+                lastDepth = depth;
+                
+                // Senza misure del tempo di servizio non si può stimare il fabbisogno
+                if (serviceSeconds == 0) return;
+                
+                smoothedArrivalRate = smoothedArrivalRate < 0 ? arrivalRate
+                                    : 0.5 * arrivalRate + 0.5 * smoothedArrivalRate;
+                smoothedServiceSeconds = smoothedServiceSeconds < 0 ? serviceSeconds
+                                       : 0.5 * serviceSeconds + 0.5 * smoothedServiceSeconds;
+                arrivalRate = smoothedArrivalRate;
+                serviceSeconds = smoothedServiceSeconds;
+                
+                // Legge di Little più il lavoro necessario a smaltire la coda
+                double busyWorkers = arrivalRate * serviceSeconds + depth * serviceSeconds / (policy.drainMs / 1000.0);
+                int required = (int) Math.ceil(busyWorkers / policy.targetUtilization);
+                required = Math.max(policy.minWorkers, Math.min(policy.maxWorkers, required));
+                
+                if (required > current) {
+                    upVotes++;
+                    downVotes = 0;
+                } else if (required < current) {
+                    downVotes++;
+                    upVotes = 0;
+                } else {
+                    upVotes = 0;
+                    downVotes = 0;
+                }
+                
+                int next = current;
+                if (upVotes >= policy.scaleUpTicks) {
+                    next = required;
+                } else if (downVotes >= policy.scaleDownTicks) {
+                    next = current - 1;
+                }
+                if (next == current) return;
+                
+                upVotes = 0;
+                downVotes = 0;
+                System.out.printf("[Autoscaler] %d -> %d worker: arrivo %.1f el/s, servizio %.2f ms, " +
+                                  "utilizzo %.0f%%, coda %d, richiesti %d%n",
+                                  current, next, arrivalRate, serviceSeconds * 1000, utilization * 100,
+                                  depth, required);
+                resize(next);
+            }
+        }
+        
+        private synchronized void resize(int workers) {
+            if (!running) return;
+            targetWorkers = workers;
+            // I worker in eccesso terminano da soli; quelli mancanti vengono avviati
+            while (activeWorkers.get() < workers) {
+                startWorker();
+            }
+        }
+        
+        /** Elementi in attesa nella coda di input (o in tutte le partizioni). */
+        public int getQueueDepth() {
+            if (lanes != null) {
+                int depth = 0;
+                for (BlockingQueue<Data> lane : lanes) {
+                    depth += lane.size();
+                }
+                return depth;
+            }
+            return inputQueue != null ? inputQueue.size() : chunkQueue.size();
+        }
+        
+        /** Numero di partizioni, 0 se il pool non è partizionato. */
+        public int getLaneCount() {
+            return lanes != null ? lanes.size() : 0;
+        }
+        
+        /** Elementi in attesa in ciascuna partizione. */
+        public int[] getLaneDepths() {
+            int[] depths = new int[getLaneCount()];
+            for (int i = 0; i < depths.length; i++) {
+                depths[i] = lanes.get(i).size();
+            }
+            return depths;
+        }
+        
+        public int getActiveWorkers() {
+            return activeWorkers.get();
+        }
+        
+        public void shutdown() {
+            running = false;
+            synchronized (this) {
+                if (autoscaler != null) {
+                    autoscaler.shutdownNow();
+                }
+            }
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+                // I dispatcher sono terminati: attende i dati ancora in elaborazione
+                if (recordExecutor != null) {
+                    recordExecutor.shutdown();
+                    if (!recordExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                        recordExecutor.shutdownNow();
+                    }
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                if (recordExecutor != null) {
+                    recordExecutor.shutdownNow();
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        public ExecutionMode getExecutionMode() {
+            return executionMode;
+        }
+        
+        /** Dati attualmente in elaborazione in modalità per dato. */
+        public int getInFlightCount() {
+            return inFlight != null ? maxInFlight - inFlight.availablePermits() : 0;
+        }
+        
+        public long getProcessedCount() {
+            return processedCount.get();
+        }
+        
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+        
+        public LatencyHistogram getQueueWaitHistogram() {
+            return queueWaitHistogram;
+        }
+        
+        public LatencyHistogram getServiceHistogram() {
+            return serviceHistogram;
+        }
+        
+        public LatencyHistogram getEndToEndHistogram() {
+            return endToEndHistogram;
+        }
+        
+        public double getAverageBatchSize() {
+            long batches = batchCount.get();
+            return batches > 0 ? (double) batchedItems.get() / batches : 0;
+        }
+    }
+    
+    /**
+     * Componente che aggrega i risultati dell'elaborazione.
+     */
+    static class ResultAggregator {
+        static final long DEFAULT_BUCKET_MILLIS = 1000;
+        static final int DEFAULT_BUCKETS = 60;
+        
+        private final Map<String, ShardedStats> statsBySource = new ConcurrentHashMap<>();
+        private final AtomicReferenceArray<ShardedStats> statsBySourceId = new AtomicReferenceArray<>(Byte.MAX_VALUE + 1);
+        private final AtomicLong totalResults = new AtomicLong(0);
+        
+        // Finestre temporali: anello di numBuckets intervalli lunghi bucketNanos
+        private final long originNanos = System.nanoTime();
+        private final long bucketNanos;
+        private final int numBuckets;
+        
+        public ResultAggregator() {
+            this(DEFAULT_BUCKET_MILLIS, DEFAULT_BUCKETS);
+        }
+        
+        /**
+         * @param bucketMillis durata di un intervallo (bucket) delle finestre
+         * @param numBuckets numero di intervalli conservati: la finestra più
+         *                   lunga interrogabile è bucketMillis * numBuckets
+         */
+        public ResultAggregator(long bucketMillis, int numBuckets) {
+            if (bucketMillis <= 0 || numBuckets < 1) {
+                throw new IllegalArgumentException("Parametri della finestra non validi");
+            }
+            this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(bucketMillis);
+            this.numBuckets = numBuckets;
+        }
+        
+        public void addResult(Result result, String source) {
+            totalResults.addAndGet(result.getCount());
+            
+            // Aggiorna le statistiche per la fonte
+            update(statsFor(source), result);
+        }
+        
+        /**
+         * Un aggregato di count valori conta come count risultati con valore
+         * pari alla sua media: minimo e massimo sono quelli delle medie.
+         */
+        private static void update(ShardedStats stats, Result result) {
+            long count = result.getCount();
+            if (count == 1) {
+                stats.updateStats(result.getProcessedValue(), result.getProcessingNanos());
+            } else {
+                double value = result.getProcessedValue();
+                stats.updateStats(value * count, value, value, count, result.getProcessingNanos());
+            }
+        }
+        
+        /**
+         * Restituisce una fotografia immutabile delle statistiche: per ogni
+         * fonte le celle dei singoli thread vengono fuse al momento della
+         * lettura, senza bloccare i worker che le stanno aggiornando.
+         */
+        public Map<String, AggregatedStats> getStatsBySource() {
+            Map<String, AggregatedStats> snapshot = new HashMap<>();
+            for (Map.Entry<String, ShardedStats> entry : statsBySource.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().snapshot());
+            }
+            return Collections.unmodifiableMap(snapshot);
+        }
+        
+        /**
+         * Aggrega un blocco colonnare. I record consecutivi della stessa fonte
+         * vengono riassunti localmente e applicati alle statistiche con un solo
+         * aggiornamento; la cache per identificativo di fonte evita la ricerca
+         * nella mappa per ogni blocco.
+         */
+        public void addChunk(DataChunk chunk, SourceRegistry registry) {
+            int n = chunk.size;
+            if (n == 0) return;
+            totalResults.addAndGet(n);
+            
+            double[] out = chunk.processedValues;
+            byte[] sources = chunk.sourceIds;
+            // Il tempo di elaborazione del blocco viene ripartito sui suoi record
+            double timePerRecord = (double) chunk.processingNanos / n;
+            
+            int start = 0;
+            while (start < n) {
+                byte sourceId = sources[start];
+                double sum = 0;
+                double min = Double.MAX_VALUE;
+                double max = -Double.MAX_VALUE;
+                int end = start;
+                while (end < n && sources[end] == sourceId) {
+                    double v = out[end];
+                    sum += v;
+                    if (v < min) min = v;
+                    if (v > max) max = v;
+                    end++;
+                }
+                int count = end - start;
+                statsFor(sourceId, registry).updateStats(sum, min, max, count, Math.round(timePerRecord * count));
+                start = end;
+            }
+        }
+        
+        /** Riceve i totali di una fonte: {somma, min, max, conteggio, nanosecondi di elaborazione}. */
+        interface SourceStatsVisitor {
+            void visit(String source, double[] totals);
+        }
+        
+        /**
+         * Visita i totali di ogni fonte senza creare fotografie: i totali sono
+         * fusi nell'array fornito, riusato per tutte le fonti, e cellValues fa
+         * da buffer per la lettura delle singole celle.
+         */
+        public void forEachSource(double[] totals, double[] cellValues, SourceStatsVisitor visitor) {
+            statsBySource.forEach((source, stats) -> {
+                stats.mergeTotalsInto(totals, cellValues);
+                visitor.visit(source, totals);
+            });
+        }
+        
+        private ShardedStats statsFor(String source) {
+            ShardedStats stats = statsBySource.get(source);
+            return stats != null ? stats
+                 : statsBySource.computeIfAbsent(source, k -> new ShardedStats(originNanos, bucketNanos, numBuckets));
+        }
+        
+        /**
+         * Statistiche per fonte limitate a una finestra temporale che termina
+         * nell'intervallo corrente.
+         * 
+         * SLIDING considera gli ultimi windowMillis (arrotondati agli intervalli);
+         * TUMBLING considera la finestra fissa di windowMillis in corso, allineata
+         * a multipli della sua durata. Il costo è proporzionale al numero di
+         * intervalli conservati, indipendentemente dal numero di risultati.
+         */
+        public Map<String, AggregatedStats> getWindowStatsBySource(WindowType type, long windowMillis) {
+            long windowBuckets = TimeUnit.MILLISECONDS.toNanos(windowMillis) / bucketNanos;
+            if (windowBuckets < 1 || windowBuckets > numBuckets) {
+                throw new IllegalArgumentException("La finestra deve essere compresa tra " +
+                        TimeUnit.NANOSECONDS.toMillis(bucketNanos) + " e " +
+                        TimeUnit.NANOSECONDS.toMillis(bucketNanos * numBuckets) + " ms");
+            }
+            
+            long current = (System.nanoTime() - originNanos) / bucketNanos;
+            // Nei primi intervalli dopo l'avvio la finestra scorrevole parte da 0:
+            // gli slot mai usati hanno identificativo -1 e non devono ricadervi
+            long first = type == WindowType.SLIDING
+                         ? Math.max(0, current - windowBuckets + 1)
+                         : current - current % windowBuckets;
+            
+            Map<String, AggregatedStats> snapshot = new HashMap<>();
+            for (Map.Entry<String, ShardedStats> entry : statsBySource.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().windowSnapshot(first, current));
+            }
+            return Collections.unmodifiableMap(snapshot);
+        }
+        
+        private ShardedStats statsFor(byte sourceId, SourceRegistry registry) {
+            ShardedStats stats = statsBySourceId.get(sourceId);
+            if (stats == null) {
+                stats = statsFor(registry.nameOf(sourceId));
+                statsBySourceId.set(sourceId, stats);
+            }
+            return stats;
+        }
+        
+        /**
+         * Aggiunge in un'unica chiamata tutti i risultati di un batch.
+         */
+        public void addResults(List<Result> results) {
+            addResults(results, Result::getSource);
+        }
+        
+        public void addResults(List<Result> results, Function<Result, String> sourceOf) {
+            long total = 0;
+            for (Result result : results) {
+                update(statsFor(sourceOf.apply(result)), result);
+                total += result.getCount();
+            }
+            totalResults.addAndGet(total);
+        }
+        
+        public long getTotalResults() {
+            return totalResults.get();
+        }
+        
+        /**
+         * Statistiche di una fonte suddivise in un numero fisso di celle
+         * (il doppio dei processori, arrotondato a una potenza di 2). Ogni
+         * thread aggiorna la cella scelta dall'hash della sua identità con
+         * operazioni atomiche sui singoli campi, come le celle di LongAdder:
+         * nessun lock, i worker raramente si contendono la stessa cella e il
+         * throughput cresce con il numero di worker. Il numero di
+         * celle non dipende dal numero di thread, quindi anche con un thread
+         * per dato la memoria resta limitata. La lettura fonde tutte le celle
+         * in un AggregatedStats immutabile.
+         */
+        static class ShardedStats {
+            private static final int NUM_CELLS =
+                    Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+            
+            private final StatCell[] cells = new StatCell[NUM_CELLS];
+            private final long originNanos;
+            private final long bucketNanos;
+            
+            ShardedStats(long originNanos, long bucketNanos, int numBuckets) {
+                this.originNanos = originNanos;
+                this.bucketNanos = bucketNanos;
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = new StatCell(numBuckets);
+                }
+            }
+            
+            /** Cella del thread corrente: l'hash viene mescolato per distribuire identità vicine. */
+            private StatCell localCell() {
+                int h = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+                return cells[(h ^ (h >>> 16)) & (cells.length - 1)];
+            }
+            
+            private long currentBucket() {
+                return (System.nanoTime() - originNanos) / bucketNanos;
+            }
+            
+            public void updateStats(double value, long processingNanos) {
+                localCell().add(currentBucket(), value, value, value, 1, processingNanos);
+            }
+            
+            public void updateStats(double valueSum, double valueMin, double valueMax,
+                                    long valueCount, long processingNanos) {
+                localCell().add(currentBucket(), valueSum, valueMin, valueMax, valueCount, processingNanos);
+            }
+            
+            public AggregatedStats snapshot() {
+                double[] totals = new double[5];
+                mergeTotalsInto(totals, new double[5]);
+                return toStats(totals);
+            }
+            
+            /** Statistiche degli intervalli compresi tra firstBucket e lastBucket (inclusi). */
+            public AggregatedStats windowSnapshot(long firstBucket, long lastBucket) {
+                double[] totals = new double[5];
+                mergeInto(true, firstBucket, lastBucket, totals, new double[5]);
+                return toStats(totals);
+            }
+            
+            private static AggregatedStats toStats(double[] totals) {
+                return new AggregatedStats(totals[0], totals[1], totals[2], (long) totals[3], (long) totals[4]);
+            }
+            
+            /** Fonde i totali dall'avvio di tutte le celle in totals. */
+            void mergeTotalsInto(double[] totals, double[] values) {
+                mergeInto(false, 0, 0, totals, values);
+            }
+            
+            /**
+             * Fonde le celle in totals ({somma, min, max, conteggio, nanosecondi}):
+             * con window false legge i totali dall'avvio e ignora gli intervalli.
+             */
+            private void mergeInto(boolean window, long firstBucket, long lastBucket,
+                                   double[] totals, double[] values) {
+                double sum = 0;
+                double min = Double.MAX_VALUE;
+                double max = -Double.MAX_VALUE;
+                long count = 0;
+                long totalProcessingNanos = 0;
+                for (StatCell cell : cells) {
+                    if (window) {
+                        cell.readWindow(firstBucket, lastBucket, values);
+                    } else {
+                        cell.read(values);
+                    }
+                    sum += values[0];
+                    min = Math.min(min, values[1]);
+                    max = Math.max(max, values[2]);
+                    count += (long) values[3];
+                    totalProcessingNanos += (long) values[4];
+                }
+                totals[0] = sum;
+                totals[1] = min;
+                totals[2] = max;
+                totals[3] = count;
+                totals[4] = totalProcessingNanos;
+            }
+        }
+        
+        /**
+         * Cella di statistiche condivisa dai thread che vi ricadono per hash.
+         * 
+         * Come le celle di LongAdder e DoubleAdder la cella non viene mai
+         * riservata da uno scrittore: conteggio e nanosecondi si aggiornano
+         * con getAndAdd, somma, minimo e massimo (bit di double in un long)
+         * con compareAndSet ripetuti solo se un altro thread ha cambiato il
+         * valore nel frattempo. Nessuno scrittore attende che un altro finisca;
+         * in cambio, come LongAdder.sum, una lettura concorrente non è una
+         * fotografia atomica dei cinque campi.
+         * 
+         * Oltre ai totali la cella mantiene un anello di intervalli per le
+         * finestre temporali: l'intervallo b occupa lo slot b % numBuckets.
+         * Quando il tempo avanza, il primo scrittore sostituisce con un
+         * compareAndSet l'intervallo scaduto con uno nuovo, invece di azzerarne
+         * i campi mentre altri vi stanno scrivendo. L'aggiornamento resta O(1)
+         * e alloca un intervallo per slot solo al cambio di intervallo.
+         */
+        static class StatCell {
+            private static final int SUM = 0;
+            private static final int MIN = 1;
+            private static final int MAX = 2;
+            private static final int COUNT = 3;
+            private static final int NANOS = 4;
+            
+            private final AtomicLongArray totals = newFields();
+            private final AtomicReferenceArray<Bucket> buckets;
+            
+            /** Intervallo dell'anello: l'identificativo non cambia, i campi sono atomici. */
+            private static final class Bucket {
+                final long id;
+                final AtomicLongArray fields = newFields();
+                
+                Bucket(long id) {
+                    this.id = id;
+                }
+            }
+            
+            StatCell(int numBuckets) {
+                buckets = new AtomicReferenceArray<>(numBuckets);
+            }
+            
+            private static AtomicLongArray newFields() {
+                AtomicLongArray fields = new AtomicLongArray(5);
+                fields.set(MIN, Double.doubleToRawLongBits(Double.MAX_VALUE));
+                fields.set(MAX, Double.doubleToRawLongBits(-Double.MAX_VALUE));
+                return fields;
+            }
+            
+            void add(long bucket, double valueSum, double valueMin, double valueMax,
+                     long valueCount, long processingNanos) {
+                addTo(totals, valueSum, valueMin, valueMax, valueCount, processingNanos);
+                
+                int slot = (int) (bucket % buckets.length());
+                Bucket current = buckets.get(slot);
+                while (current == null || current.id < bucket) {
+                    // Lo slot appartiene a un intervallo scaduto: viene sostituito
+                    Bucket fresh = new Bucket(bucket);
+                    current = buckets.compareAndSet(slot, current, fresh) ? fresh : buckets.get(slot);
+                }
+                // Uno scrittore in ritardo su un intervallo già sostituito conta
+                // nell'intervallo successivo invece di andare perso
+                addTo(current.fields, valueSum, valueMin, valueMax, valueCount, processingNanos);
+            }
+            
+            private static void addTo(AtomicLongArray fields, double valueSum, double valueMin, double valueMax,
+                                      long valueCount, long processingNanos) {
+                long bits;
+                do {
+                    bits = fields.get(SUM);
+                } while (!fields.weakCompareAndSetVolatile(SUM, bits,
+                        Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + valueSum)));
+                // Minimo e massimo cambiano raramente: di solito basta una lettura
+                while (valueMin < Double.longBitsToDouble(bits = fields.get(MIN)) &&
+                       !fields.weakCompareAndSetVolatile(MIN, bits, Double.doubleToRawLongBits(valueMin))) {
+                }
+                while (valueMax > Double.longBitsToDouble(bits = fields.get(MAX)) &&
+                       !fields.weakCompareAndSetVolatile(MAX, bits, Double.doubleToRawLongBits(valueMax))) {
+                }
+                fields.getAndAdd(COUNT, valueCount);
+                fields.getAndAdd(NANOS, processingNanos);
+            }
+            
+            private static void readInto(AtomicLongArray fields, double[] out) {
+                out[0] = Double.longBitsToDouble(fields.get(SUM));
+                out[1] = Double.longBitsToDouble(fields.get(MIN));
+                out[2] = Double.longBitsToDouble(fields.get(MAX));
+                out[3] = fields.get(COUNT);
+                out[4] = fields.get(NANOS);
+            }
+            
+            void readWindow(long firstBucket, long lastBucket, double[] out) {
+                double windowSum = 0;
+                double windowMin = Double.MAX_VALUE;
+                double windowMax = -Double.MAX_VALUE;
+                long windowCount = 0;
+                long windowNanos = 0;
+                for (int slot = 0; slot < buckets.length(); slot++) {
+                    Bucket bucket = buckets.get(slot);
+                    if (bucket != null && bucket.id >= firstBucket && bucket.id <= lastBucket) {
+                        readInto(bucket.fields, out);
+                        windowSum += out[0];
+                        windowMin = Math.min(windowMin, out[1]);
+                        windowMax = Math.max(windowMax, out[2]);
+                        windowCount += (long) out[3];
+                        windowNanos += (long) out[4];
+                    }
+                }
+                out[0] = windowSum;
+                out[1] = windowMin;
+                out[2] = windowMax;
+                out[3] = windowCount;
+                out[4] = windowNanos;
+            }
+            
+            void read(double[] out) {
+                readInto(totals, out);
+            }
+        }
+        
+        /**
+         * Fotografia immutabile delle statistiche aggregate di una fonte.
+         */
+        static final class AggregatedStats {
+            private final double sum;
+            private final double min;
+            private final double max;
+            private final long count;
+            private final long totalProcessingNanos;
+            
+            AggregatedStats(double sum, double min, double max, long count, long totalProcessingNanos) {
+                this.sum = sum;
+                this.min = min;
+                this.max = max;
+                this.count = count;
+                this.totalProcessingNanos = totalProcessingNanos;
+            }
+            
+            public double getAverage() {
+                return count > 0 ? sum / count : 0;
+            }
+            
+            public double getMin() {
+                return count > 0 ? min : 0;
+            }
+            
+            public double getMax() {
+                return count > 0 ? max : 0;
+            }
+            
+            public long getCount() {
+                return count;
+            }
+            
+            /** Tempo medio di elaborazione in millisecondi. */
+            public double getAverageProcessingTime() {
+                return count > 0 ? totalProcessingNanos / 1_000_000.0 / count : 0;
+            }
+        }
+    }
+    
+    /**
+     * Tipo di finestra temporale per l'aggregazione.
+     */
+    enum WindowType {
+        TUMBLING, // Finestre fisse e consecutive, non sovrapposte
+        SLIDING   // Finestra che termina sempre nell'istante corrente
+    }
+    
+    /**
+     * Componente che visualizza lo stato del sistema sulla console. È un
+     * reporter opzionale (-Dconsole=false lo disattiva): le stesse grandezze
+     * sono disponibili dal MetricsRegistry via JMX e HTTP.
+     */
+    static class Dashboard implements Runnable {
+        private final BlockingQueue<?> inputQueue;
+        private final ResultAggregator aggregator;
+        private final List<DataGenerator> generators;
+        private final WorkerPool workerPool;
+        private final WindowType windowType;
+        private final long windowMillis;
+        private final FlowController flowController;
+        private volatile boolean running = true;
+        
+        // Stato dell'intervallo precedente, usato per rate e percentili per intervallo
+        private long lastNanos = System.nanoTime();
+        private long lastProcessed = 0;
+        private LatencyHistogram.Snapshot lastQueueWait;
+        private LatencyHistogram.Snapshot lastService;
+        private LatencyHistogram.Snapshot lastEndToEnd;
+        
+        public Dashboard(BlockingQueue<?> inputQueue, ResultAggregator aggregator, 
+                        List<DataGenerator> generators, WorkerPool workerPool) {
+            this(inputQueue, aggregator, generators, workerPool, WindowType.SLIDING, 10_000, null);
+        }
+        
+        public Dashboard(BlockingQueue<?> inputQueue, ResultAggregator aggregator, 
+                        List<DataGenerator> generators, WorkerPool workerPool,
+                        WindowType windowType, long windowMillis, FlowController flowController) {
+            this.flowController = flowController;
+            this.windowType = windowType;
+            this.windowMillis = windowMillis;
+            this.inputQueue = inputQueue;
+            this.aggregator = aggregator;
+            this.generators = generators;
+            this.workerPool = workerPool;
+            this.lastQueueWait = workerPool.getQueueWaitHistogram().snapshot();
+            this.lastService = workerPool.getServiceHistogram().snapshot();
+            this.lastEndToEnd = workerPool.getEndToEndHistogram().snapshot();
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    // Stampa lo stato del sistema
+                    printSystemStatus();
+                    
+                    // Aggiorna ogni 2 secondi
+                    Thread.sleep(2000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Dashboard interrotta");
+            }
+        }
+        
+        private void printSystemStatus() {
+            System.out.println("\n=== STATO DEL SISTEMA ===\n");
+            
+            // Stato delle code
+            if (workerPool.getLaneCount() > 0) {
+                System.out.println("Code per partizione: " + Arrays.toString(workerPool.getLaneDepths()));
+            } else {
+                System.out.println("Coda di input: " + inputQueue.size() + " elementi");
+            }
+            if (flowController != null) {
+                System.out.printf("Controllo di flusso: soglie %d/%d, crediti disponibili %d, " +
+                                  "consumo %.1f el/s, ritmo produttori %.1f el/s%n",
+                                  flowController.getLowWatermark(), flowController.getHighWatermark(),
+                                  flowController.getAvailableCredits(), flowController.getConsumerRate(),
+                                  flowController.getTargetRate());
+            }
+            
+            // Stato dei generatori
+            System.out.println("\nGeneratori di dati:");
+            long totalGenerated = 0;
+            for (int i = 0; i < generators.size(); i++) {
+                DataGenerator generator = generators.get(i);
+                long count = generator.getGeneratedCount();
+                totalGenerated += count;
+                System.out.printf("  Fonte-%d: %d elementi generati, bloccata per backpressure %.1f ms%n",
+                                  i, count, generator.getBlockedNanos() / 1_000_000.0);
+            }
+            
+            // Stato dei worker
+            System.out.println("\nElaborazione:");
+            if (workerPool.getExecutionMode() == ExecutionMode.VIRTUAL_PER_RECORD) {
+                System.out.println("  Dati in volo: " + workerPool.getInFlightCount());
+            } else {
+                System.out.println("  Worker attivi: " + workerPool.getActiveWorkers());
+            }
+            System.out.println("  Elementi elaborati: " + workerPool.getProcessedCount());
+            System.out.println("  Errori: " + workerPool.getErrorCount());
+            System.out.printf("  Dimensione media dei batch: %.2f%n", workerPool.getAverageBatchSize());
+            
+            // Statistiche aggregate: dall'avvio e nella finestra corrente
+            System.out.println("\nStatistiche per fonte:");
+            Map<String, ResultAggregator.AggregatedStats> statsBySource = aggregator.getStatsBySource();
+            Map<String, ResultAggregator.AggregatedStats> windowBySource =
+                aggregator.getWindowStatsBySource(windowType, windowMillis);
+            for (Map.Entry<String, ResultAggregator.AggregatedStats> entry : statsBySource.entrySet()) {
+                ResultAggregator.AggregatedStats stats = entry.getValue();
+                System.out.println("  " + entry.getKey() + ":");
+                System.out.printf("    Media: %.2f, Min: %.2f, Max: %.2f, Conteggio: %d%n", 
+                                 stats.getAverage(), stats.getMin(), stats.getMax(), stats.getCount());
+                System.out.printf("    Tempo medio di elaborazione: %.2f ms%n", 
+                                 stats.getAverageProcessingTime());
+                
+                ResultAggregator.AggregatedStats window = windowBySource.get(entry.getKey());
+                if (window != null) {
+                    System.out.printf("    Finestra %s di %d s: Media: %.2f, Min: %.2f, Max: %.2f, Conteggio: %d%n",
+                                     windowType, windowMillis / 1000, window.getAverage(), window.getMin(),
+                                     window.getMax(), window.getCount());
+                }
+            }
+            
+            // Riepilogo
+            System.out.println("\nRiepilogo:");
+            System.out.println("  Totale generati: " + totalGenerated);
+            System.out.println("  Totale elaborati: " + workerPool.getProcessedCount());
+            System.out.println("  Totale risultati: " + aggregator.getTotalResults());
+            
+            // Throughput e latenze dell'ultimo intervallo
+            long now = System.nanoTime();
+            long processed = workerPool.getProcessedCount();
+            double seconds = (now - lastNanos) / 1_000_000_000.0;
+            System.out.printf("  Throughput: %.1f elementi/s nell'ultimo intervallo%n",
+                              seconds > 0 ? (processed - lastProcessed) / seconds : 0);
+            lastNanos = now;
+            lastProcessed = processed;
+            
+            LatencyHistogram.Snapshot queueWait = workerPool.getQueueWaitHistogram().snapshot();
+            LatencyHistogram.Snapshot service = workerPool.getServiceHistogram().snapshot();
+            LatencyHistogram.Snapshot endToEnd = workerPool.getEndToEndHistogram().snapshot();
+            System.out.println("\nLatenze nell'ultimo intervallo:");
+            System.out.println("  Attesa in coda: " + queueWait.since(lastQueueWait).format());
+            System.out.println("  Elaborazione:   " + service.since(lastService).format());
+            System.out.println("  End-to-end:     " + endToEnd.since(lastEndToEnd).format());
+            lastQueueWait = queueWait;
+            lastService = service;
+            lastEndToEnd = endToEnd;
+        }
+        
+        public void stop() {
+            running = false;
+        }
+    }
+    
+    /**
+     * Piccola API dataflow: una catena di operatori map/filter/keyBy/window
+     * applicati ai Data prima della pubblicazione dei risultati.
+     * 
+     * Il grafo viene diviso in stadi solo ai confini di ripartizione (keyBy):
+     * gli operatori adiacenti di uno stadio sono fusi e un worker li applica
+     * uno dopo l'altro allo stesso dato, passando il risultato con una
+     * chiamata di metodo invece che attraverso una coda. Solo al confine il
+     * dato viene inserito nella coda della partizione scelta dall'hash della
+     * chiave; ogni partizione ha un solo worker, quindi lo stato delle
+     * finestre non richiede sincronizzazione.
+     * 
+     * L'ordine per chiave è preservato solo dal confine keyBy in poi: lo
+     * stadio iniziale ha più worker sulla stessa coda di ingresso, quindi due
+     * dati con la stessa chiave possono raggiungere la partizione in ordine
+     * diverso da quello di arrivo. Chi ha bisogno dell'ordine dall'ingresso
+     * usa parallelism 1 o una coda di ingresso per chiave.
+     * 
+     * Con fusion(false) ogni operatore diventa uno stadio a sé, come se ogni
+     * passo avesse la propria coda: utile per misurare il costo dei passaggi.
+     * 
+     * Dentro una sequenza fusa gli operatori ricevono un record riusato dal
+     * worker (ChainRecord): withValue lo modifica invece di allocare un
+     * nuovo Data, quindi un operatore non deve conservare il dato ricevuto
+     * oltre la chiamata. Il record viene copiato in un Data immutabile solo
+     * quando passa alla coda dello stadio successivo.
+     * 
+     * Esempio:
+     *   Dataflow.from(coda, 4)
+     *           .map("trasforma", d -> d.withValue(Math.sqrt(d.getValue()) * 10))
+     *           .filter("soglia", d -> d.getValue() >= 20)
+     *           .keyBy("fonte", Data::getSource, 3)
+     *           .window(1000)
+     *           .to(aggregator::addResults);
+     */
+    static class Dataflow {
+        /** Operatore senza stato: restituisce il dato trasformato o null per scartarlo. */
+        interface Operator {
+            Data apply(Data data);
+        }
+        
+        private enum Kind { MAP, FILTER, KEY_BY, WINDOW }
+        
+        private static final int BATCH_SIZE = 64;
+        private static final int STAGE_QUEUE_CAPACITY = 1024;
+        
+        /** Operatore dichiarato, prima della suddivisione in stadi. */
+        private static final class OperatorSpec {
+            final Kind kind;
+            final String name;
+            final Operator operator;
+            final Function<Data, String> key;
+            final int partitions;
+            final long windowMillis;
+            
+            OperatorSpec(Kind kind, String name, Operator operator, Function<Data, String> key,
+                         int partitions, long windowMillis) {
+                this.kind = kind;
+                this.name = name;
+                this.operator = operator;
+                this.key = key;
+                this.partitions = partitions;
+                this.windowMillis = windowMillis;
+            }
+            
+            @Override
+            public String toString() {
+                switch (kind) {
+                    case KEY_BY: return "keyBy(" + name + ", " + partitions + ")";
+                    case WINDOW: return "window(" + windowMillis + " ms)";
+                    default: return kind.name().toLowerCase(java.util.Locale.ROOT) + "(" + name + ")";
+                }
+            }
+        }
+        
+        public static Builder from(BlockingQueue<Data> input, int parallelism) {
+            return new Builder(input, parallelism);
+        }
+        
+        static class Builder {
+            private final BlockingQueue<Data> input;
+            private final int parallelism;
+            private final List<OperatorSpec> specs = new ArrayList<>();
+            private boolean fusion = true;
+            
+            private Builder(BlockingQueue<Data> input, int parallelism) {
+                if (parallelism < 1) throw new IllegalArgumentException("Serve almeno un worker");
+                this.input = input;
+                this.parallelism = parallelism;
+            }
+            
+            public Builder map(String name, Operator operator) {
+                specs.add(new OperatorSpec(Kind.MAP, name, operator, null, 0, 0));
+                return this;
+            }
+            
+            public Builder filter(String name, Predicate<Data> predicate) {
+                specs.add(new OperatorSpec(Kind.FILTER, name, d -> predicate.test(d) ? d : null, null, 0, 0));
+                return this;
+            }
+            
+            /** Confine di ripartizione: i dati con la stessa chiave vanno nella stessa partizione. */
+            public Builder keyBy(String name, Function<Data, String> key, int partitions) {
+                if (partitions < 1) throw new IllegalArgumentException("Serve almeno una partizione");
+                specs.add(new OperatorSpec(Kind.KEY_BY, name, null, key, partitions, 0));
+                return this;
+            }
+            
+            /**
+             * Finestra fissa per chiave: alla chiusura emette per ogni chiave un
+             * dato con la media dei valori (source = chiave, getCount() = numero
+             * di valori, id = numero progressivo della finestra del worker).
+             */
+            public Builder window(long windowMillis) {
+                if (windowMillis <= 0) throw new IllegalArgumentException("Durata della finestra non valida");
+                specs.add(new OperatorSpec(Kind.WINDOW, "", null, null, 0, windowMillis));
+                return this;
+            }
+            
+            public Builder fusion(boolean fusion) {
+                this.fusion = fusion;
+                return this;
+            }
+            
+            /** Costruisce e avvia il grafo; i risultati finali vanno al consumer a batch. */
+            public Dataflow to(Consumer<List<Result>> sink) {
+                return new Dataflow(this, sink);
+            }
+        }
+        
+        /**
+         * Stadio del grafo: operatori fusi eseguiti dagli stessi worker. Uno
+         * stadio con chiave ha una coda e un worker per partizione; lo stadio
+         * iniziale (o uno senza chiave) ha una coda condivisa da più worker.
+         */
+        private final class Stage {
+            final int index;
+            final List<OperatorSpec> operators = new ArrayList<>();
+            final Function<Data, String> key;
+            final String keyName;
+            final List<BlockingQueue<Data>> queues = new ArrayList<>();
+            final int workersPerQueue;
+            final LongAdder processed = new LongAdder();
+            final List<Thread> threads = new ArrayList<>();
+            Stage next;
+            volatile boolean running = true;
+            
+            Stage(int index, BlockingQueue<Data> input, int workers) {
+                this.index = index;
+                this.key = null;
+                this.keyName = null;
+                this.queues.add(input);
+                this.workersPerQueue = workers;
+            }
+            
+            Stage(int index, Function<Data, String> key, String keyName, int partitions) {
+                this.index = index;
+                this.key = key;
+                this.keyName = keyName;
+                for (int i = 0; i < partitions; i++) {
+                    queues.add(new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY));
+                }
+                this.workersPerQueue = 1;
+            }
+            
+            BlockingQueue<Data> queueFor(Data data) {
+                if (key == null) return queues.get(0);
+                return queues.get(Math.floorMod(key.apply(data).hashCode(), queues.size()));
+            }
+            
+            void start() {
+                for (int q = 0; q < queues.size(); q++) {
+                    BlockingQueue<Data> queue = queues.get(q);
+                    for (int w = 0; w < workersPerQueue; w++) {
+                        Thread thread = new Thread(() -> runWorker(this, queue),
+                                                   "Dataflow-" + index + "-" + q + "-" + w);
+                        threads.add(thread);
+                        thread.start();
+                    }
+                }
+            }
+            
+            @Override
+            public String toString() {
+                String workers = key != null
+                    ? queues.size() + " partizioni per " + keyName
+                    : workersPerQueue + " worker";
+                StringBuilder description = new StringBuilder("[stadio " + index + ": " + workers + "] ");
+                for (int i = 0; i < operators.size(); i++) {
+                    if (i > 0) description.append(" → ");
+                    description.append(operators.get(i));
+                }
+                return description.append(next != null ? " ⇒" : " → sink").toString();
+            }
+        }
+        
+        private final List<Stage> stages = new ArrayList<>();
+        private final Consumer<List<Result>> sink;
+        private final LongAdder emitted = new LongAdder();
+        
+        private Dataflow(Builder builder, Consumer<List<Result>> sink) {
+            this.sink = sink;
+            Stage current = new Stage(0, builder.input, builder.parallelism);
+            stages.add(current);
+            
+            for (OperatorSpec spec : builder.specs) {
+                if (spec.kind == Kind.KEY_BY) {
+                    current = link(current, new Stage(stages.size(), spec.key, spec.name, spec.partitions));
+                    continue;
+                }
+                if (spec.kind == Kind.WINDOW && current.key == null) {
+                    throw new IllegalStateException("La finestra richiede un keyBy precedente");
+                }
+                // Senza fusione ogni operatore inizia un nuovo stadio con la stessa ripartizione
+                if (!builder.fusion && !current.operators.isEmpty()) {
+                    current = link(current, current.key != null
+                        ? new Stage(stages.size(), current.key, current.keyName, current.queues.size())
+                        : new Stage(stages.size(), new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY),
+                                    builder.parallelism));
+                }
+                current.operators.add(spec);
+            }
+            
+            // Avvia dall'ultimo stadio, così ogni stadio trova già attivo il successivo
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                stages.get(i).start();
+            }
+        }
+        
+        private Stage link(Stage current, Stage next) {
+            current.next = next;
+            stages.add(next);
+            return next;
+        }
+        
+        /**
+         * Ciclo di un worker: preleva un batch, lo spinge nella catena fusa e
+         * avanza il tempo delle finestre. All'arresto la catena viene chiusa,
+         * emettendo le finestre ancora aperte.
+         */
+        private void runWorker(Stage stage, BlockingQueue<Data> queue) {
+            ChainOperator chain = buildChain(stage);
+            List<Data> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                while (stage.running || !queue.isEmpty()) {
+                    Data first = queue.poll(50, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                        for (int i = 0; i < batch.size(); i++) {
+                            chain.push(batch.get(i));
+                        }
+                        stage.processed.add(batch.size());
+                        batch.clear();
+                    }
+                    chain.tick(System.currentTimeMillis());
+                    chain.endOfBatch();
+                }
+                chain.close();
+                chain.endOfBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("Worker del dataflow interrotto");
+            }
+        }
+        
+        /**
+         * Crea la catena di un worker: le sequenze di map/filter diventano un
+         * solo operatore fuso, le finestre hanno uno stato proprio del worker
+         * e la catena termina con l'inoltro allo stadio successivo o al sink.
+         */
+        private ChainOperator buildChain(Stage stage) {
+            ChainOperator tail = stage.next != null ? new RouteOperator(stage.next) : new SinkOperator();
+            List<OperatorSpec> operators = stage.operators;
+            ChainOperator head = tail;
+            int i = operators.size() - 1;
+            while (i >= 0) {
+                if (operators.get(i).kind == Kind.WINDOW) {
+                    head = new WindowOperator(operators.get(i).windowMillis, stage.key, head);
+                    i--;
+                    continue;
+                }
+                int end = i;
+                while (i >= 0 && operators.get(i).kind != Kind.WINDOW) {
+                    i--;
+                }
+                Operator[] fused = new Operator[end - i];
+                for (int j = 0; j < fused.length; j++) {
+                    fused[j] = operators.get(i + 1 + j).operator;
+                }
+                head = new FusedOperator(fused, head);
+            }
+            return head;
+        }
+        
+        /** Anello della catena di operatori di un worker. */
+        private abstract static class ChainOperator {
+            final ChainOperator next;
+            
+            ChainOperator(ChainOperator next) {
+                this.next = next;
+            }
+            
+            abstract void push(Data data) throws InterruptedException;
+            
+            void tick(long nowMillis) throws InterruptedException {
+                if (next != null) next.tick(nowMillis);
+            }
+            
+            void endOfBatch() {
+                if (next != null) next.endOfBatch();
+            }
+            
+            void close() throws InterruptedException {
+                if (next != null) next.close();
+            }
+        }
+        
+        /** Operatori senza stato adiacenti applicati in sequenza allo stesso dato. */
+        private static final class FusedOperator extends ChainOperator {
+            private final Operator[] operators;
+            private final ChainRecord record = new ChainRecord();
+            
+            FusedOperator(Operator[] operators, ChainOperator next) {
+                super(next);
+                this.operators = operators;
+            }
+            
+            @Override
+            void push(Data data) throws InterruptedException {
+                data = record.load(data);
+                for (Operator operator : operators) {
+                    data = operator.apply(data);
+                    if (data == null) return;
+                }
+                next.push(data);
+            }
+        }
+        
+        /**
+         * Record mutabile di un FusedOperator: contiene una copia dei campi
+         * del dato in ingresso e withValue ne cambia il valore restituendo
+         * lo stesso oggetto. Non esce mai dal worker: RouteOperator ne
+         * inserisce in coda una copia immutabile.
+         */
+        private static final class ChainRecord extends Data {
+            private int id;
+            private String source;
+            private double value;
+            private long timestamp;
+            private long enqueueNanos;
+            private long sequence;
+            private byte[] payload;
+            private boolean replayed;
+            private long count;
+            
+            ChainRecord() {
+                super(0, null, 0);
+            }
+            
+            ChainRecord load(Data data) {
+                id = data.getId();
+                source = data.getSource();
+                value = data.getValue();
+                timestamp = data.getTimestamp();
+                enqueueNanos = data.getEnqueueNanos();
+                sequence = data.getSequence();
+                payload = data.getPayload();
+                replayed = data.isReplayed();
+                count = data.getCount();
+                return this;
+            }
+            
+            Data toData() {
+                return new Data(id, source, value, timestamp, sequence, payload, enqueueNanos, replayed, count);
+            }
+            
+            @Override
+            public Data withValue(double newValue) {
+                value = newValue;
+                return this;
+            }
+            
+            @Override public int getId() { return id; }
+            @Override public String getSource() { return source; }
+            @Override public double getValue() { return value; }
+            @Override public long getTimestamp() { return timestamp; }
+            @Override public long getEnqueueNanos() { return enqueueNanos; }
+            @Override public long getSequence() { return sequence; }
+            @Override public byte[] getPayload() { return payload; }
+            @Override public boolean isReplayed() { return replayed; }
+            @Override public long getCount() { return count; }
+        }
+        
+        /** Finestra fissa per chiave: accumula somma e conteggio e li emette alla chiusura. */
+        private static final class WindowOperator extends ChainOperator {
+            private final long windowMillis;
+            private final Function<Data, String> key;
+            private final Map<String, double[]> accumulators = new HashMap<>();
+            private long currentWindow = -1;
+            private int emittedWindows = 0;
+            
+            WindowOperator(long windowMillis, Function<Data, String> key, ChainOperator next) {
+                super(next);
+                this.windowMillis = windowMillis;
+                this.key = key;
+            }
+            
+            @Override
+            void push(Data data) throws InterruptedException {
+                advance(System.currentTimeMillis());
+                double[] accumulator = accumulators.computeIfAbsent(key.apply(data), k -> new double[2]);
+                accumulator[0] += data.getValue();
+                accumulator[1]++;
+            }
+            
+            @Override
+            void tick(long nowMillis) throws InterruptedException {
+                advance(nowMillis);
+                super.tick(nowMillis);
+            }
+            
+            @Override
+            void close() throws InterruptedException {
+                emitAll();
+                super.close();
+            }
+            
+            private void advance(long nowMillis) throws InterruptedException {
+                long window = nowMillis / windowMillis;
+                if (window != currentWindow) {
+                    emitAll();
+                    currentWindow = window;
+                }
+            }
+            
+            private void emitAll() throws InterruptedException {
+                if (accumulators.isEmpty()) return;
+                int window = emittedWindows++;
+                for (Map.Entry<String, double[]> entry : accumulators.entrySet()) {
+                    double[] accumulator = entry.getValue();
+                    long count = (long) accumulator[1];
+                    next.push(Data.aggregate(window, entry.getKey(), accumulator[0] / count, count));
+                }
+                accumulators.clear();
+            }
+        }
+        
+        /** Confine di ripartizione: inserisce il dato nella partizione dello stadio successivo. */
+        private static final class RouteOperator extends ChainOperator {
+            private final Stage target;
+            
+            RouteOperator(Stage target) {
+                super(null);
+                this.target = target;
+            }
+            
+            @Override
+            void push(Data data) throws InterruptedException {
+                // Il record riusato del worker non può attraversare la coda
+                if (data instanceof ChainRecord) {
+                    data = ((ChainRecord) data).toData();
+                }
+                target.queueFor(data).put(data);
+            }
+        }
+        
+        /** Fine del grafo: raccoglie i risultati e li pubblica una volta per batch. */
+        private final class SinkOperator extends ChainOperator {
+            private List<Result> results = new ArrayList<>();
+            
+            SinkOperator() {
+                super(null);
+            }
+            
+            @Override
+            void push(Data data) {
+                results.add(new Result(data.getId(), data.getSource(), data.getValue(),
+                                       System.nanoTime() - data.getEnqueueNanos(), data.getCount()));
+            }
+            
+            @Override
+            void endOfBatch() {
+                if (results.isEmpty()) return;
+                try {
+                    sink.accept(results);
+                    emitted.add(results.size());
+                } catch (Exception e) {
+                    System.err.println("Errore nella pubblicazione di " + results.size() + " risultati: " +
+                                       e.getMessage());
+                }
+                results = new ArrayList<>();
+            }
+        }
+        
+        /**
+         * Arresta il grafo stadio per stadio: ogni stadio svuota la propria
+         * coda e chiude le finestre prima che si fermi il successivo.
+         */
+        public void shutdown() throws InterruptedException {
+            for (Stage stage : stages) {
+                stage.running = false;
+                for (Thread thread : stage.threads) {
+                    thread.join();
+                }
+            }
+        }
+        
+        /** Dati prelevati dalla coda di ingresso dello stadio indicato. */
+        public long getProcessedCount(int stage) {
+            return stages.get(stage).processed.sum();
+        }
+        
+        public long getEmittedCount() {
+            return emitted.sum();
+        }
+        
+        public int getStageCount() {
+            return stages.size();
+        }
+        
+        /** Piano di esecuzione: gli stadi con i rispettivi operatori fusi. */
+        public String describe() {
+            StringBuilder plan = new StringBuilder();
+            for (Stage stage : stages) {
+                if (plan.length() > 0) plan.append('\n');
+                plan.append(stage);
+            }
+            return plan.toString();
+        }
+    }
+    
+    /**
+     * Dimostrazione del Dataflow: la trasformazione di processData (senza
+     * attesa simulata) seguita da filtro, arricchimento e finestra per fonte,
+     * eseguita con e senza fusione degli operatori.
+     * 
+     * Esecuzione: java SistemaElaborazioneDati grafo
+     */
+    static class DataflowDemo {
+        private static final int NUM_SOURCES = 3;
+        private static final long RUN_MILLIS = 3_000;
+        
+        static void run() throws InterruptedException {
+            for (boolean fusion : new boolean[] {true, false}) {
+                measure(fusion);
+            }
+        }
+        
+        private static void measure(boolean fusion) throws InterruptedException {
+            BlockingQueue<Data> input = new ArrayBlockingQueue<>(1024);
+            ResultAggregator aggregator = new ResultAggregator();
+            Dataflow dataflow = Dataflow.from(input, 2)
+                .map("trasforma", d -> d.withValue(Math.sqrt(d.getValue()) * 10))
+                .filter("soglia", d -> d.getValue() >= 20)
+                .map("arrotonda", d -> d.withValue(Math.round(d.getValue() * 100) / 100.0))
+                .keyBy("fonte", Data::getSource, NUM_SOURCES)
+                .window(500)
+                .fusion(fusion)
+                .to(aggregator::addResults);
+            System.out.println((fusion ? "Con" : "Senza") + " fusione:\n" + dataflow.describe());
+            
+            List<DataGenerator> generators = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < NUM_SOURCES; i++) {
+                DataGenerator generator = new DataGenerator("Fonte-" + i, input, 0);
+                generators.add(generator);
+                Thread thread = new Thread(generator, "Dataflow-Generator-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            
+            long start = System.nanoTime();
+            Thread.sleep(RUN_MILLIS);
+            long processed = dataflow.getProcessedCount(0);
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            
+            for (DataGenerator generator : generators) generator.stop();
+            for (Thread thread : threads) thread.join();
+            dataflow.shutdown();
+            
+            System.out.printf("  %d stadi, %.0f dati/s in ingresso, %d finestre emesse%n%n",
+                              dataflow.getStageCount(), processed / seconds, dataflow.getEmittedCount());
+        }
+    }
+    
+    /**
+     * Registro delle metriche della pipeline: contatori, gauge e istogrammi.
+     * 
+     * Il registro non conserva valori: ogni metrica è una funzione che legge
+     * lo stato corrente dei componenti al momento della raccolta, quindi
+     * niente viene aggiornato tra una lettura e l'altra. Gli istogrammi sono
+     * letti in un buffer del registro riutilizzato a ogni raccolta invece di
+     * creare snapshot; per questo collect() è sincronizzato. La raccolta
+     * evita così le copie più grandi ma non è priva di allocazioni: le
+     * stringhe prodotte dai lettori, le lambda delle statistiche per fonte e
+     * i boxing dei valori restano a carico di ogni lettura.
+     * 
+     * I lettori (PrometheusExporter, MetricsMBean) ricevono i campioni
+     * attraverso un Visitor, una famiglia di metriche alla volta.
+     */
+    static class MetricsRegistry {
+        enum Type { COUNTER, GAUGE, SUMMARY }
+        
+        /** Riceve un campione; labelName è null per le metriche senza etichette. */
+        interface Sink {
+            void sample(String name, String labelName, String labelValue, double value);
+        }
+        
+        interface Visitor extends Sink {
+            void family(String name, String help, Type type);
+        }
+        
+        /** Produce i campioni di una famiglia di metriche. */
+        interface Collector {
+            void collect(String name, Sink sink, long[] scratch);
+        }
+        
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+        private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+        
+        private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+        private final Map<String, Metric> metricsByName = new ConcurrentHashMap<>();
+        private final long[] scratch = new long[LatencyHistogram.NUM_BUCKETS];
+        
+        private static final class Metric {
+            final String name;
+            final String help;
+            final Type type;
+            final Collector collector;
+            
+            Metric(String name, String help, Type type, Collector collector) {
+                this.name = name;
+                this.help = help;
+                this.type = type;
+                this.collector = collector;
+            }
+        }
+        
+        public void counter(String name, String help, LongSupplier value) {
+            register(name, help, Type.COUNTER, (n, sink, s) -> sink.sample(n, null, null, value.getAsLong()));
+        }
+        
+        public void gauge(String name, String help, DoubleSupplier value) {
+            register(name, help, Type.GAUGE, (n, sink, s) -> sink.sample(n, null, null, value.getAsDouble()));
+        }
+        
+        /**
+         * Istogramma di latenze esposto come summary: quantili, somma e
+         * conteggio, in secondi.
+         */
+        public void summary(String name, String help, LatencyHistogram histogram) {
+            register(name, help, Type.SUMMARY, (n, sink, counts) -> {
+                long total = histogram.copyCounts(counts);
+                long max = histogram.getMax();
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    long nanos = LatencyHistogram.percentile(counts, total, max, QUANTILES[i] * 100);
+                    sink.sample(n, "quantile", QUANTILE_LABELS[i], nanos / 1e9);
+                }
+                sink.sample(n + "_sum", null, null, histogram.getSumNanos() / 1e9);
+                sink.sample(n + "_count", null, null, total);
+            });
+        }
+        
+        /** Famiglia con un numero variabile di campioni, ad esempio uno per fonte. */
+        public void register(String name, String help, Type type, Collector collector) {
+            Metric metric = new Metric(name, help, type, collector);
+            if (metricsByName.putIfAbsent(name, metric) != null) {
+                throw new IllegalArgumentException("Metrica già registrata: " + name);
+            }
+            metrics.add(metric);
+        }
+        
+        public synchronized void collect(Visitor visitor) {
+            for (Metric metric : metrics) {
+                visitor.family(metric.name, metric.help, metric.type);
+                metric.collector.collect(metric.name, visitor, scratch);
+            }
+        }
+        
+        /**
+         * Raccoglie i campioni di una sola famiglia.
+         * 
+         * @return false se la famiglia non è registrata
+         */
+        public synchronized boolean collect(String family, Sink sink) {
+            Metric metric = metricsByName.get(family);
+            if (metric == null) return false;
+            metric.collector.collect(metric.name, sink, scratch);
+            return true;
+        }
+    }
+    
+    /**
+     * Esposizione delle metriche nel formato testuale di Prometheus su un
+     * HttpServer locale (solo indirizzo di loopback), all'indirizzo /metrics.
+     * Il testo è costruito in un StringBuilder riutilizzato; ogni richiesta
+     * alloca comunque la stringa e i byte della risposta.
+     */
+    static class PrometheusExporter implements AutoCloseable {
+        private final MetricsRegistry registry;
+        private final HttpServer server;
+        private final StringBuilder buffer = new StringBuilder(8192);
+        private final MetricsRegistry.Visitor writer = new MetricsRegistry.Visitor() {
+            @Override
+            public void family(String name, String help, MetricsRegistry.Type type) {
+                buffer.append("# HELP ").append(name).append(' ').append(help).append('\n');
+                buffer.append("# TYPE ").append(name).append(' ')
+                      .append(type.name().toLowerCase(java.util.Locale.ROOT)).append('\n');
+            }
+            
+            @Override
+            public void sample(String name, String labelName, String labelValue, double value) {
+                buffer.append(name);
+                if (labelName != null) {
+                    buffer.append('{').append(labelName).append("=\"");
+                    appendEscaped(labelValue);
+                    buffer.append("\"}");
+                }
+                buffer.append(' ');
+                appendValue(value);
+                buffer.append('\n');
+            }
+        };
+        
+        public PrometheusExporter(MetricsRegistry registry, int port) throws IOException {
+            this.registry = registry;
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", this::handle);
+            server.start();
+        }
+        
+        /** Testo di una raccolta completa delle metriche. */
+        public synchronized String scrape() {
+            buffer.setLength(0);
+            registry.collect(writer);
+            return buffer.toString();
+        }
+        
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } finally {
+                exchange.close();
+            }
+        }
+        
+        private void appendValue(double value) {
+            if (Double.isNaN(value)) {
+                buffer.append("NaN");
+            } else if (Double.isInfinite(value)) {
+                buffer.append(value > 0 ? "+Inf" : "-Inf");
+            } else if (value == (long) value) {
+                buffer.append((long) value);
+            } else {
+                buffer.append(value);
+            }
+        }
+        
+        private void appendEscaped(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    buffer.append('\\').append(c);
+                } else if (c == '\n') {
+                    buffer.append("\\n");
+                } else {
+                    buffer.append(c);
+                }
+            }
+        }
+        
+        public int getPort() {
+            return server.getAddress().getPort();
+        }
+        
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+    
+    /**
+     * MBean dinamico che pubblica le metriche del registro via JMX. Ogni
+     * campione è un attributo di sola lettura: "nome" per le metriche senza
+     * etichette, "nome.valore" per quelle con etichetta (ad esempio
+     * sed_fonte_media.Fonte-0).
+     * 
+     * Gli attributi sono indicizzati per nome, ciascuno con la famiglia e il
+     * campione da cui proviene: getAttribute raccoglie solo quella famiglia
+     * invece di tutto il registro. L'indice viene ricostruito da
+     * getMBeanInfo e quando un nome non vi compare, perché le fonti
+     * compaiono durante l'esecuzione.
+     */
+    static class MetricsMBean implements DynamicMBean {
+        private final MetricsRegistry registry;
+        private volatile Map<String, AttributeSource> attributeIndex = Collections.emptyMap();
+        
+        /** Campione che fornisce il valore di un attributo. */
+        private static final class AttributeSource {
+            final String family;
+            final String sampleName;
+            final String labelValue;
+            
+            AttributeSource(String family, String sampleName, String labelValue) {
+                this.family = family;
+                this.sampleName = sampleName;
+                this.labelValue = labelValue;
+            }
+            
+            boolean matches(String name, String label) {
+                return sampleName.equals(name) && Objects.equals(labelValue, label);
+            }
+        }
+        
+        MetricsMBean(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+        
+        private static String attributeName(String name, String labelName, String labelValue) {
+            return labelName == null ? name : name + "." + labelValue;
+        }
+        
+        /**
+         * Ricostruisce l'indice con una raccolta completa e, se richiesto,
+         * le descrizioni degli attributi.
+         */
+        private Map<String, AttributeSource> rebuildIndex(List<MBeanAttributeInfo> infos) {
+            Map<String, AttributeSource> index = new HashMap<>();
+            String[] family = {null, ""};
+            registry.collect(new MetricsRegistry.Visitor() {
+                @Override
+                public void family(String name, String description, MetricsRegistry.Type type) {
+                    family[0] = name;
+                    family[1] = description;
+                }
+                
+                @Override
+                public void sample(String name, String labelName, String labelValue, double value) {
+                    String attribute = attributeName(name, labelName, labelValue);
+                    index.putIfAbsent(attribute, new AttributeSource(family[0], name, labelValue));
+                    if (infos != null) {
+                        infos.add(new MBeanAttributeInfo(attribute, "java.lang.Double", family[1], true, false, false));
+                    }
+                }
+            });
+            attributeIndex = index;
+            return index;
+        }
+        
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            AttributeSource source = attributeIndex.get(attribute);
+            if (source == null) {
+                source = rebuildIndex(null).get(attribute);
+                if (source == null) throw new AttributeNotFoundException(attribute);
             }
+            
+            AttributeSource wanted = source;
+            double[] found = {Double.NaN};
+            boolean[] present = {false};
+            registry.collect(source.family, (name, labelName, labelValue, value) -> {
+                if (!present[0] && wanted.matches(name, labelValue)) {
+                    found[0] = value;
+                    present[0] = true;
+                }
+            });
+            // Il campione può sparire se la fonte non esiste più
+            if (!present[0]) throw new AttributeNotFoundException(attribute);
+            return found[0];
         }
         
-        public void shutdown() {
-            running = false;
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Gli attributi sconosciuti vengono omessi, come previsto da DynamicMBean
                 }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
             }
+            return list;
         }
         
-        public long getProcessedCount() {
-            return processedCount.get();
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Attributo di sola lettura: " + attribute.getName());
         }
         
-        public long getErrorCount() {
-            return errorCount.get();
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+        
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+        
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            rebuildIndex(attributes);
+            return new MBeanInfo(getClass().getName(), "Metriche del sistema di elaborazione dati",
+                                 attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
         }
     }
     
     /**
-     * Componente che aggrega i risultati dell'elaborazione.
+     * Curva latenza-carico con generatori a ciclo aperto: per ogni ritmo
+     * complessivo la pipeline (processData con l'attesa simulata, 4 worker)
+     * riceve dati secondo il programma di arrivi e si misurano throughput e
+     * percentili della latenza end-to-end calcolata dall'istante previsto di
+     * invio. Oltre la capacità la latenza cresce senza limite invece di
+     * restare nascosta nel tempo in cui i generatori sono bloccati.
+     * 
+     * Esecuzione: java SistemaElaborazioneDati carico, con
+     *   -Dcarico.ritmi=10,20,25,30 (dati/s complessivi) -Dcarico.durataMs=8000
+     *   -Darrivi=costante|poisson|raffiche -DrafficaMs=<ms> -DpausaMs=<ms>
      */
-    static class ResultAggregator {
-        private final Map<String, AggregatedStats> statsBySource = new ConcurrentHashMap<>();
-        private final ReadWriteLock lock = new ReentrantReadWriteLock();
-        private final AtomicLong totalResults = new AtomicLong(0);
+    static class LoadCurve {
+        private static final int NUM_SOURCES = 3;
+        private static final int NUM_WORKERS = 4;
         
-        public void addResult(Result result, String source) {
-            totalResults.incrementAndGet();
+        static void run() throws InterruptedException {
+            Config config = Config.fromSystemProperties();
+            ArrivalPattern pattern = config.arrivalPattern != null ? config.arrivalPattern : ArrivalPattern.POISSON;
+            double[] rates = Arrays.stream(System.getProperty("carico.ritmi", "10,20,25,30").split(","))
+                                   .mapToDouble(v -> Double.parseDouble(v.trim()))
+                                   .toArray();
+            long durationMs = Long.getLong("carico.durataMs", 8000);
             
-            // Aggiorna le statistiche per la fonte
-            statsBySource.computeIfAbsent(source, k -> new AggregatedStats())
-                         .updateStats(result.getProcessedValue(), result.getProcessingTime());
+            System.out.println("Arrivi " + pattern + ", " + NUM_WORKERS + " worker, " + durationMs / 1000 + " s per ritmo");
+            System.out.printf("%-10s %12s %10s %10s %10s %12s%n",
+                              "Ritmo", "Elaborati/s", "p50 ms", "p99 ms", "p99.9 ms", "Ritardo max");
+            for (double rate : rates) {
+                measure(rate, pattern, config, durationMs);
+            }
         }
         
-        public Map<String, AggregatedStats> getStatsBySource() {
-            lock.readLock().lock();
-            try {
-                // Crea una copia delle statistiche
-                Map<String, AggregatedStats> copy = new HashMap<>();
-                for (Map.Entry<String, AggregatedStats> entry : statsBySource.entrySet()) {
-                    copy.put(entry.getKey(), entry.getValue().copy());
+        private static void measure(double rate, ArrivalPattern pattern, Config config, long durationMs)
+                throws InterruptedException {
+            // Coda ampia: il carico in eccesso si accumula e diventa latenza
+            BlockingQueue<Data> queue = new LinkedBlockingQueue<>();
+            WorkerPool pool = new WorkerPool(NUM_WORKERS, queue, results -> { });
+            
+            List<DataGenerator> generators = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < NUM_SOURCES; i++) {
+                DataGenerator generator = new DataGenerator("Fonte-" + i, queue, 0);
+                generator.setArrivals(new ArrivalSchedule(pattern, rate / NUM_SOURCES,
+                                                          config.burstOnMillis, config.burstOffMillis));
+                generators.add(generator);
+                Thread thread = new Thread(generator, "Load-Generator-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            
+            Thread.sleep(durationMs);
+            for (DataGenerator generator : generators) generator.stop();
+            for (Thread thread : threads) thread.join();
+            
+            // I dati inviati durante la misura vengono tutti elaborati: la latenza include la coda accumulata
+            long sent = 0;
+            long maxLag = 0;
+            for (DataGenerator generator : generators) {
+                sent += generator.getGeneratedCount();
+                maxLag = Math.max(maxLag, generator.getSendLagHistogram().getMax());
+            }
+            long start = System.nanoTime();
+            while (pool.getProcessedCount() + pool.getErrorCount() < sent) {
+                Thread.sleep(10);
+            }
+            double seconds = (durationMs + (System.nanoTime() - start) / 1_000_000.0) / 1000.0;
+            pool.shutdown();
+            
+            LatencyHistogram.Snapshot latency = pool.getEndToEndHistogram().snapshot();
+            System.out.printf("%-10.1f %12.1f %10.1f %10.1f %10.1f %9.1f ms%n", rate,
+                              pool.getProcessedCount() / seconds, latency.percentile(50) / 1e6,
+                              latency.percentile(99) / 1e6, latency.percentile(99.9) / 1e6, maxLag / 1e6);
+        }
+    }
+    
+    /**
+     * Confronto tra nucleo scalare e vettoriale su array di dimensioni
+     * diverse: per ciascuno riscaldamento, poi nanosecondi per elemento
+     * (mediana di più misure) e rapporto tra i due.
+     * 
+     * Esecuzione: java --add-modules jdk.incubator.vector SistemaElaborazioneDati simd
+     */
+    static class KernelBenchmark {
+        private static final int[] SIZES = {1_024, 65_536, 1_048_576};
+        private static final int ROUNDS = 15;
+        private static final long ELEMENTS_PER_ROUND = 20_000_000;
+        
+        static void run() {
+            List<BatchKernel> kernels = new ArrayList<>();
+            kernels.add(BatchKernels.SCALAR);
+            if (BatchKernels.VECTOR != null) {
+                kernels.add(BatchKernels.VECTOR);
+            } else {
+                System.out.println("Nucleo vettoriale non disponibile: compilare NucleoVettoriale.java ed " +
+                                   "eseguire con --add-modules jdk.incubator.vector");
+            }
+            
+            System.out.printf("%-12s %-24s %12s %10s%n", "Elementi", "Nucleo", "ns/elemento", "Rapporto");
+            for (int size : SIZES) {
+                double[] in = new double[size];
+                double[] out = new double[size];
+                Random random = new Random(42);
+                for (int i = 0; i < size; i++) {
+                    in[i] = random.nextDouble() * 100;
+                }
+                
+                double scalar = 0;
+                for (BatchKernel kernel : kernels) {
+                    double nanosPerElement = measure(kernel, in, out);
+                    if (kernel == BatchKernels.SCALAR) scalar = nanosPerElement;
+                    System.out.printf("%-12d %-24s %12.3f %9.2fx%n", size, kernel.name(), nanosPerElement,
+                                      scalar / nanosPerElement);
                 }
-                return copy;
-            } finally {
-                lock.readLock().unlock();
             }
         }
         
-        public long getTotalResults() {
-            return totalResults.get();
+        private static double measure(BatchKernel kernel, double[] in, double[] out) {
+            int repetitions = (int) Math.max(1, ELEMENTS_PER_ROUND / in.length);
+            double[] samples = new double[ROUNDS];
+            double checksum = 0;
+            for (int round = -ROUNDS; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    kernel.apply(in, out, in.length);
+                }
+                long elapsed = System.nanoTime() - start;
+                checksum += out[round & (out.length - 1)];
+                // I primi ROUNDS giri servono da riscaldamento per il JIT
+                if (round >= 0) {
+                    samples[round] = (double) elapsed / ((long) repetitions * in.length);
+                }
+            }
+            if (Double.isNaN(checksum)) throw new AssertionError();
+            Arrays.sort(samples);
+            return samples[ROUNDS / 2];
         }
+    }
+    
+    /**
+     * Confronto di throughput tra il pool fisso di thread di piattaforma e
+     * l'esecuzione con un thread virtuale per dato, con 1k, 10k e 100k dati
+     * già in coda (in volo). processData attende 50-250 ms simulando I/O,
+     * quindi il pool fisso è limitato a circa NUM_WORKERS / 0,15 s dati al
+     * secondo indipendentemente dal carico, mentre i thread virtuali
+     * sovrappongono le attese.
+     * 
+     * Esecuzione: java SistemaElaborazioneDati confronto
+     */
+    static class ExecutionComparison {
+        private static final int[] IN_FLIGHT = {1_000, 10_000, 100_000};
+        private static final int PLATFORM_WORKERS = 4;
+        private static final long MAX_RUN_MILLIS = 10_000;
+        // Senza thread virtuali ogni task occupa un thread di piattaforma: il limite resta basso
+        private static final int FALLBACK_MAX_IN_FLIGHT = 1_000;
         
-        /**
-         * Classe che mantiene statistiche aggregate.
-         */
-        static class AggregatedStats {
-            private double sum = 0;
-            private double min = Double.MAX_VALUE;
-            private double max = Double.MIN_VALUE;
-            private long count = 0;
-            private long totalProcessingTime = 0;
-            
-            public synchronized void updateStats(double value, long processingTime) {
-                sum += value;
-                min = Math.min(min, value);
-                max = Math.max(max, value);
-                count++;
-                totalProcessingTime += processingTime;
+        static void run() throws InterruptedException {
+            boolean virtual = VirtualThreads.isAvailable();
+            System.out.println("Confronto modalità di esecuzione (durata massima " + MAX_RUN_MILLIS / 1000 + " s per prova)");
+            if (!virtual) {
+                System.out.println("Thread virtuali non disponibili su Java " + Runtime.version().feature() +
+                                   ": la modalità per dato usa thread di piattaforma, al più " +
+                                   FALLBACK_MAX_IN_FLIGHT + " in volo");
             }
+            System.out.printf("%-10s %-22s %12s %12s %14s%n", "In volo", "Modalità", "Completati", "Secondi", "Dati/s");
             
-            public synchronized AggregatedStats copy() {
-                AggregatedStats copy = new AggregatedStats();
-                copy.sum = this.sum;
-                copy.min = this.min;
-                copy.max = this.max;
-                copy.count = this.count;
-                copy.totalProcessingTime = this.totalProcessingTime;
-                return copy;
+            for (int records : IN_FLIGHT) {
+                measure(records, ExecutionMode.PLATFORM_POOL, PLATFORM_WORKERS);
+                measure(records, ExecutionMode.VIRTUAL_PER_RECORD,
+                        virtual ? records : Math.min(records, FALLBACK_MAX_IN_FLIGHT));
+            }
+        }
+        
+        private static void measure(int records, ExecutionMode mode, int concurrency) throws InterruptedException {
+            BlockingQueue<Data> queue = new LinkedBlockingQueue<>();
+            for (int i = 1; i <= records; i++) {
+                queue.add(new Data(i, "Fonte-0", i % 100));
             }
             
-            public double getAverage() {
-                return count > 0 ? sum / count : 0;
+            long start = System.nanoTime();
+            WorkerPool pool = mode == ExecutionMode.PLATFORM_POOL
+                ? new WorkerPool(concurrency, queue, 1, 0, results -> { })
+                : new WorkerPool(1, queue, 64, 0, null, mode, concurrency, results -> { });
+            
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(MAX_RUN_MILLIS);
+            while (pool.getProcessedCount() < records && System.nanoTime() < deadline) {
+                Thread.sleep(10);
             }
+            long completed = pool.getProcessedCount();
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
             
-            public double getMin() {
-                return min != Double.MAX_VALUE ? min : 0;
+            // I dati non ancora prelevati non vengono elaborati
+            queue.clear();
+            pool.shutdown();
+            
+            String label = mode == ExecutionMode.PLATFORM_POOL
+                ? "pool fisso (" + concurrency + ")"
+                : "per dato (max " + concurrency + ")";
+            System.out.printf("%-10d %-22s %12d %12.2f %14.1f%n", records, label, completed, seconds, completed / seconds);
+        }
+    }
+    
+    /**
+     * Misura della velocità di scrittura del WriteAheadLog: alcuni thread
+     * aggiungono record per qualche secondo con ciascuna politica di conferma,
+     * poi il log viene riaperto senza aver completato i record per verificare
+     * che siano tutti recuperati. Con GROUP ogni thread aggiunge un lotto di
+     * DataGenerator.WAL_BATCH record e attende il disco una volta sola, come
+     * DataGenerator con gli arrivi arretrati; il rapporto tra record e force
+     * mostra quanti record un solo commit di gruppo rende durevoli.
+     * 
+     * Esecuzione: java SistemaElaborazioneDati wal [directory]
+     */
+    static class WalBenchmark {
+        private static final int PRODUCERS = 4;
+        private static final long RUN_MILLIS = 3_000;
+        private static final int MAX_RECORDS_PER_PRODUCER = 2_000_000;
+        
+        static void run(Path baseDirectory) throws Exception {
+            System.out.printf("%-10s %12s %14s %10s %12s%n", "Politica", "Record", "Record/s", "Force", "Recuperati");
+            for (SyncPolicy policy : SyncPolicy.values()) {
+                Path directory = baseDirectory.resolve("bench-" + policy.name().toLowerCase());
+                deleteDirectory(directory);
+                measure(directory, policy);
+                deleteDirectory(directory);
+            }
+        }
+        
+        private static void measure(Path directory, SyncPolicy policy) throws Exception {
+            WriteAheadLog wal = new WriteAheadLog(directory, 64 << 20, policy, 2);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+            Thread[] producers = new Thread[PRODUCERS];
+            for (int p = 0; p < PRODUCERS; p++) {
+                String source = "Fonte-" + p;
+                producers[p] = new Thread(() -> {
+                    try {
+                        int batch = DataGenerator.WAL_BATCH;
+                        int[] ids = new int[batch];
+                        double[] values = new double[batch];
+                        long[] timestamps = new long[batch];
+                        int id = 0;
+                        while (id < MAX_RECORDS_PER_PRODUCER && System.nanoTime() < deadline) {
+                            for (int i = 0; i < batch; i++) {
+                                ids[i] = ++id;
+                                values[i] = id % 100;
+                                timestamps[i] = System.currentTimeMillis();
+                            }
+                            long first = wal.append(source, ids, values, timestamps, batch);
+                            if (policy == SyncPolicy.GROUP) {
+                                wal.awaitDurable(first + batch - 1);
+                            }
+                            // Completa subito i record, come farebbero worker senza ritardo
+                            for (int i = 0; i < batch; i++) {
+                                wal.markCompleted(first + i);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "WAL-Producer-" + p);
             }
             
-            public double getMax() {
-                return max != Double.MIN_VALUE ? max : 0;
+            long start = System.nanoTime();
+            for (Thread producer : producers) producer.start();
+            for (Thread producer : producers) producer.join();
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            long appended = wal.getAppendedCount();
+            if (policy == SyncPolicy.GROUP) {
+                wal.awaitDurable(appended - 1);
             }
+            long forces = wal.getForceCount();
             
-            public long getCount() {
-                return count;
+            // Record aggiunti dopo la chiusura del checkpoint e mai completati
+            int pending = 10_000;
+            for (int i = 0; i < pending; i++) {
+                wal.append(i, "Fonte-0", i, System.currentTimeMillis());
             }
+            wal.close();
             
-            public double getAverageProcessingTime() {
-                return count > 0 ? (double) totalProcessingTime / count : 0;
+            WriteAheadLog reopened = new WriteAheadLog(directory, 64 << 20, policy, 2);
+            int recovered = reopened.getRecovered().size();
+            reopened.close();
+            
+            System.out.printf("%-10s %12d %14.0f %10d %7d/%d%n", policy, appended, appended / seconds, forces,
+                              recovered, pending);
+        }
+        
+        private static void deleteDirectory(Path directory) throws IOException {
+            if (!Files.exists(directory)) return;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    Files.delete(path);
+                }
             }
+            Files.delete(directory);
         }
     }
     
     /**
-     * Componente che visualizza lo stato del sistema.
+     * Benchmark ripetibile della pipeline DataGenerator → WorkerPool →
+     * ResultAggregator, con processData sostituito da un nucleo di solo
+     * calcolo (nessuna attesa simulata).
+     * 
+     * Per ogni combinazione di parametri la pipeline viene avviata da zero,
+     * lasciata scaldare e poi misurata su un intervallo: dati elaborati al
+     * secondo, byte allocati per dato (somma dei contatori di allocazione dei
+     * thread, come il profiler gc di JMH) e percentili della latenza
+     * end-to-end sull'intervallo.
+     * 
+     * Esecuzione: java SistemaElaborazioneDati bench, con i parametri come
+     * liste separate da virgole:
+     *   -Dbench.worker=1,4 -Dbench.capacita=128,1024 -Dbench.coda=blocking,ring
+     *   -Dbench.dimensione=16,1024 (byte di payload per dato)
+     *   -Dbench.riscaldamentoMs=1000 -Dbench.misuraMs=2000
+     *   -Dbench.output=<file.csv> per confrontare esecuzioni diverse
      */
-    static class Dashboard implements Runnable {
-        private final BlockingQueue<Data> inputQueue;
-        private final ResultAggregator aggregator;
-        private final List<DataGenerator> generators;
-        private final WorkerPool workerPool;
-        private volatile boolean running = true;
+    static class PipelineBenchmark {
+        private static final int NUM_SOURCES = 2;
+        private static final int BATCH_SIZE = 8;
         
-        public Dashboard(BlockingQueue<Data> inputQueue, ResultAggregator aggregator, 
-                        List<DataGenerator> generators, WorkerPool workerPool) {
-            this.inputQueue = inputQueue;
-            this.aggregator = aggregator;
-            this.generators = generators;
-            this.workerPool = workerPool;
-        }
-        
-        @Override
-        public void run() {
-            try {
-                while (running) {
-                    // Stampa lo stato del sistema
-                    printSystemStatus();
-                    
-                    // Aggiorna ogni 2 secondi
-                    Thread.sleep(2000);
+        static void run() throws Exception {
+            int[] workers = intList("bench.worker", "1,4");
+            int[] capacities = intList("bench.capacita", "128,1024");
+            String[] queues = System.getProperty("bench.coda", "blocking,ring").split(",");
+            int[] sizes = intList("bench.dimensione", "16,1024");
+            long warmupMs = Long.getLong("bench.riscaldamentoMs", 1000);
+            long measureMs = Long.getLong("bench.misuraMs", 2000);
+            String output = System.getProperty("bench.output");
+            
+            List<String> rows = new ArrayList<>();
+            rows.add("worker,capacita,coda,dimensione,dati_s,byte_dato,p50_us,p99_us,p999_us");
+            System.out.printf("%-7s %-9s %-9s %-10s %14s %11s %10s %10s %10s%n",
+                              "Worker", "Capacità", "Coda", "Dimensione", "Dati/s", "Byte/dato",
+                              "p50 µs", "p99 µs", "p99.9 µs");
+            for (int numWorkers : workers) {
+                for (int capacity : capacities) {
+                    for (String queue : queues) {
+                        for (int size : sizes) {
+                            String row = measure(numWorkers, capacity, queue.trim(), size, warmupMs, measureMs);
+                            rows.add(row);
+                        }
+                    }
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.out.println("Dashboard interrotta");
+            }
+            
+            if (output != null) {
+                Files.write(Paths.get(output), rows, StandardCharsets.UTF_8);
+                System.out.println("Risultati scritti in " + output);
             }
         }
         
-        private void printSystemStatus() {
-            System.out.println("\n=== STATO DEL SISTEMA ===\n");
-            
-            // Stato delle code
-            System.out.println("Coda di input: " + inputQueue.size() + " elementi");
+        private static String measure(int numWorkers, int capacity, String queue, int payloadBytes,
+                                      long warmupMs, long measureMs) throws InterruptedException {
+            Config config = new Config();
+            if ("ring".equalsIgnoreCase(queue)) {
+                config.transport = Transport.RING_BUFFER;
+            }
+            BlockingQueue<Data> dataQueue = config.newQueue(capacity);
+            ResultAggregator aggregator = new ResultAggregator();
+            WorkerPool pool = new WorkerPool(numWorkers, dataQueue, BATCH_SIZE, 0,
+                                             aggregator::addResults);
+            pool.useKernel(PipelineBenchmark::cpuKernel);
             
-            // Stato dei generatori
-            System.out.println("\nGeneratori di dati:");
-            long totalGenerated = 0;
-            for (int i = 0; i < generators.size(); i++) {
-                DataGenerator generator = generators.get(i);
-                long count = generator.getGeneratedCount();
-                totalGenerated += count;
-                System.out.println("  Fonte-" + i + ": " + count + " elementi generati");
+            List<DataGenerator> generators = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < NUM_SOURCES; i++) {
+                DataGenerator generator = new DataGenerator("Fonte-" + i, dataQueue, 0);
+                generator.setPayloadBytes(payloadBytes);
+                generators.add(generator);
+                Thread thread = new Thread(generator, "Bench-Generator-" + i);
+                threads.add(thread);
+                thread.start();
             }
             
-            // Stato dei worker
-            System.out.println("\nElaborazione:");
-            System.out.println("  Elementi elaborati: " + workerPool.getProcessedCount());
-            System.out.println("  Errori: " + workerPool.getErrorCount());
+            Thread.sleep(warmupMs);
+            long startProcessed = pool.getProcessedCount();
+            long startAllocated = allocatedBytes();
+            LatencyHistogram.Snapshot startLatency = pool.getEndToEndHistogram().snapshot();
+            long startNanos = System.nanoTime();
             
-            // Statistiche aggregate
-            System.out.println("\nStatistiche per fonte:");
-            Map<String, ResultAggregator.AggregatedStats> statsBySource = aggregator.getStatsBySource();
-            for (Map.Entry<String, ResultAggregator.AggregatedStats> entry : statsBySource.entrySet()) {
-                ResultAggregator.AggregatedStats stats = entry.getValue();
-                System.out.println("  " + entry.getKey() + ":");
-                System.out.printf("    Media: %.2f, Min: %.2f, Max: %.2f, Conteggio: %d%n", 
-                                 stats.getAverage(), stats.getMin(), stats.getMax(), stats.getCount());
-                System.out.printf("    Tempo medio di elaborazione: %.2f ms%n", 
-                                 stats.getAverageProcessingTime());
-            }
+            Thread.sleep(measureMs);
+            long processed = pool.getProcessedCount() - startProcessed;
+            long allocated = allocatedBytes() - startAllocated;
+            LatencyHistogram.Snapshot latency = pool.getEndToEndHistogram().snapshot().since(startLatency);
+            double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
             
-            // Riepilogo
-            System.out.println("\nRiepilogo:");
-            System.out.println("  Totale generati: " + totalGenerated);
-            System.out.println("  Totale elaborati: " + workerPool.getProcessedCount());
-            System.out.println("  Totale risultati: " + aggregator.getTotalResults());
+            // I worker sono ancora attivi: i generatori completano l'ultimo put e terminano
+            for (DataGenerator generator : generators) generator.stop();
+            for (Thread thread : threads) thread.join();
+            pool.shutdown();
             
-            // Calcolo throughput
-            double throughput = workerPool.getProcessedCount() / (Runtime.getRuntime().totalMemory() / 1_000_000.0);
-            System.out.printf("  Throughput: %.2f elementi/MB%n", throughput);
+            double opsPerSecond = processed / seconds;
+            double bytesPerRecord = allocated < 0 || processed == 0 ? Double.NaN : (double) allocated / processed;
+            double p50 = latency.percentile(50) / 1000.0;
+            double p99 = latency.percentile(99) / 1000.0;
+            double p999 = latency.percentile(99.9) / 1000.0;
+            System.out.printf("%-7d %-9d %-9s %-10d %14.0f %11.1f %10.1f %10.1f %10.1f%n",
+                              numWorkers, capacity, queue, payloadBytes, opsPerSecond, bytesPerRecord, p50, p99, p999);
+            return String.format(java.util.Locale.ROOT, "%d,%d,%s,%d,%.0f,%.1f,%.1f,%.1f,%.1f",
+                                 numWorkers, capacity, queue, payloadBytes, opsPerSecond, bytesPerRecord,
+                                 p50, p99, p999);
         }
         
-        public void stop() {
-            running = false;
+        /** Trasformazione di processData senza attesa, più una lettura del payload. */
+        static double cpuKernel(Data data) {
+            byte[] payload = data.getPayload();
+            long checksum = 0;
+            for (byte b : payload) {
+                checksum += b;
+            }
+            return Math.sqrt(data.getValue()) * 10 + checksum * 1e-12;
+        }
+        
+        /**
+         * Byte allocati finora da tutti i thread vivi, o -1 se la JVM non
+         * espone il contatore. I thread della pipeline vivono per tutta la
+         * misura, quindi la differenza tra due letture è l'allocazione nel
+         * frattempo.
+         */
+        private static long allocatedBytes() {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+            
+            long total = 0;
+            for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                if (bytes > 0) total += bytes;
+            }
+            return total;
+        }
+        
+        private static int[] intList(String property, String defaultValue) {
+            return Arrays.stream(System.getProperty(property, defaultValue).split(","))
+                         .mapToInt(v -> Integer.parseInt(v.trim()))
+                         .toArray();
+        }
+    }
+    
+    /**
+     * Parametri configurabili del sistema. I valori predefiniti riproducono il
+     * comportamento originale; fromSystemProperties() permette di cambiarli
+     * da riga di comando, ad esempio:
+     * 
+     *   java -Dtrasporto=ring -Dattesa=yield -Dcolonnare=true SistemaElaborazioneDati
+     */
+    static class Config {
+        Transport transport = Transport.BLOCKING_QUEUE;
+        WaitStrategy waitStrategy = WaitStrategy.parking();
+        boolean columnar = false;
+        int chunkSize = 1024;
+        int numChunks = 64;
+        WindowType windowType = WindowType.SLIDING;
+        long windowMillis = 10_000;
+        boolean flowControl = false;
+        double maxRate = 100_000;
+        boolean autoscaling = false;
+        int minWorkers = 1;
+        int maxWorkers = 16;
+        ExecutionMode executionMode = ExecutionMode.PLATFORM_POOL;
+        int maxInFlight = 10_000;
+        int partitions = 0;
+        ArrivalPattern arrivalPattern = null;
+        double arrivalRate = 7;
+        long burstOnMillis = 500;
+        long burstOffMillis = 1500;
+        boolean consoleReporter = true;
+        int metricsPort = -1;
+        String walDirectory = null;
+        SyncPolicy syncPolicy = SyncPolicy.GROUP;
+        int walSegmentBytes = 64 << 20;
+        long walCommitMs = 2; // Solo per walSync=asincrono: intervallo minimo tra due force()
+        
+        static Config fromSystemProperties() {
+            Config config = new Config();
+            // -Dtrasporto=blocking|ring e -Dattesa=spin|yield|park
+            if ("ring".equalsIgnoreCase(System.getProperty("trasporto", "blocking"))) {
+                config.transport = Transport.RING_BUFFER;
+            }
+            config.waitStrategy = WaitStrategy.fromName(System.getProperty("attesa", "park"));
+            // -Dcolonnare=true attiva i blocchi colonnari
+            config.columnar = Boolean.getBoolean("colonnare");
+            config.chunkSize = Integer.getInteger("dimensioneBlocco", config.chunkSize);
+            config.numChunks = Integer.getInteger("numeroBlocchi", config.numChunks);
+            // -Dfinestra=sliding|tumbling e -DdurataFinestra=<ms>
+            if ("tumbling".equalsIgnoreCase(System.getProperty("finestra", "sliding"))) {
+                config.windowType = WindowType.TUMBLING;
+            }
+            config.windowMillis = Long.getLong("durataFinestra", config.windowMillis);
+            long maxWindowMillis = ResultAggregator.DEFAULT_BUCKET_MILLIS * ResultAggregator.DEFAULT_BUCKETS;
+            if (config.windowMillis < ResultAggregator.DEFAULT_BUCKET_MILLIS || config.windowMillis > maxWindowMillis) {
+                throw new IllegalArgumentException("durataFinestra deve essere compresa tra " +
+                        ResultAggregator.DEFAULT_BUCKET_MILLIS + " e " + maxWindowMillis + " ms: " + config.windowMillis);
+            }
+            // -DcontrolloFlusso=true attiva crediti, soglie e controllo del ritmo
+            config.flowControl = Boolean.getBoolean("controlloFlusso");
+            // -Dautoscaling=true -DminWorker=<n> -DmaxWorker=<n>
+            config.autoscaling = Boolean.getBoolean("autoscaling");
+            config.minWorkers = Integer.getInteger("minWorker", config.minWorkers);
+            config.maxWorkers = Integer.getInteger("maxWorker", config.maxWorkers);
+            // -Desecuzione=virtuale -DmaxInVolo=<n>
+            if ("virtuale".equalsIgnoreCase(System.getProperty("esecuzione", "pool"))) {
+                config.executionMode = ExecutionMode.VIRTUAL_PER_RECORD;
+            }
+            config.maxInFlight = Integer.getInteger("maxInVolo", config.maxInFlight);
+            // -Dpartizioni=<k> attiva k partizioni con coda e worker dedicati
+            config.partitions = Integer.getInteger("partizioni", config.partitions);
+            // -Darrivi=costante|poisson|raffiche attiva il ciclo aperto; -Dritmo=<dati/s per fonte>
+            // -DrafficaMs=<ms> -DpausaMs=<ms> per le raffiche
+            String arrivals = System.getProperty("arrivi");
+            if (arrivals != null) {
+                switch (arrivals.toLowerCase(java.util.Locale.ROOT)) {
+                    case "costante": config.arrivalPattern = ArrivalPattern.CONSTANT; break;
+                    case "poisson": config.arrivalPattern = ArrivalPattern.POISSON; break;
+                    case "raffiche": config.arrivalPattern = ArrivalPattern.BURSTY; break;
+                    default: throw new IllegalArgumentException("Distribuzione degli arrivi sconosciuta: " + arrivals);
+                }
+            }
+            config.arrivalRate = Double.parseDouble(System.getProperty("ritmo", String.valueOf(config.arrivalRate)));
+            config.burstOnMillis = Long.getLong("rafficaMs", config.burstOnMillis);
+            config.burstOffMillis = Long.getLong("pausaMs", config.burstOffMillis);
+            // -Dconsole=false disattiva la dashboard; -Dmetriche.porta=<n> attiva HTTP (0 porta libera, -1 predefinito: disattivato)
+            config.consoleReporter = Boolean.parseBoolean(System.getProperty("console", "true"));
+            config.metricsPort = Integer.getInteger("metriche.porta", config.metricsPort);
+            // -Dwal=<directory> -DwalSync=gruppo|asincrono -DwalSegmentoMB=<n> -DwalCommitMs=<ms>
+            config.walDirectory = System.getProperty("wal");
+            if ("asincrono".equalsIgnoreCase(System.getProperty("walSync", "gruppo"))) {
+                config.syncPolicy = SyncPolicy.ASYNC;
+            }
+            config.walSegmentBytes = Integer.getInteger("walSegmentoMB", config.walSegmentBytes >> 20) << 20;
+            config.walCommitMs = Long.getLong("walCommitMs", config.walCommitMs);
+            return config;
+        }
+        
+        <E> BlockingQueue<E> newQueue(int capacity) {
+            return transport == Transport.RING_BUFFER
+                   ? new RingBufferQueue<>(capacity, waitStrategy)
+                   : new ArrayBlockingQueue<>(capacity);
         }
     }
     
@@ -395,24 +4645,122 @@ public class SistemaElaborazioneDati {
         private static final int NUM_SOURCES = 3;
         private static final int NUM_WORKERS = 4;
         private static final int QUEUE_CAPACITY = 100;
+        private static final int BATCH_SIZE = 8;
+        private static final long LINGER_MS = 10;
         
-        private final BlockingQueue<Data> dataQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Config config;
+        private final BlockingQueue<Data> dataQueue;
+        private final List<BlockingQueue<Data>> lanes;
+        private final BlockingQueue<DataChunk> chunkQueue;
+        private final ChunkPool chunkPool;
+        private final SourceRegistry sourceRegistry = new SourceRegistry();
         private final ResultAggregator aggregator = new ResultAggregator();
         private final List<DataGenerator> generators = new ArrayList<>();
         private final List<Thread> generatorThreads = new ArrayList<>();
         private WorkerPool workerPool;
+        private FlowController flowController;
+        private WriteAheadLog wal;
+        private final MetricsRegistry metrics = new MetricsRegistry();
+        private PrometheusExporter prometheusExporter;
+        private ObjectName mbeanName;
         private Dashboard dashboard;
         private Thread dashboardThread;
+        private long startNanos;
+        private long stopNanos;
+        
+        public Controller() {
+            this(new Config());
+        }
+        
+        public Controller(Config config) {
+            if (config.columnar && config.walDirectory != null) {
+                throw new IllegalArgumentException("Il log di scrittura anticipata non è supportato in modalità colonnare");
+            }
+            if (config.partitions > 0 && (config.columnar || config.flowControl || config.autoscaling ||
+                                          config.executionMode != ExecutionMode.PLATFORM_POOL)) {
+                throw new IllegalArgumentException("Le partizioni richiedono record singoli elaborati da thread " +
+                                                   "di piattaforma, senza controllo di flusso né autoscaling");
+            }
+            if (config.arrivalPattern != null && (config.columnar || config.flowControl)) {
+                throw new IllegalArgumentException("Il ciclo aperto richiede dati singoli senza controllo di flusso");
+            }
+            this.config = config;
+            if (config.columnar) {
+                // La coda non può contenere più blocchi di quelli esistenti nel pool
+                this.dataQueue = null;
+                this.lanes = null;
+                this.chunkQueue = config.newQueue(config.numChunks);
+                this.chunkPool = new ChunkPool(config.numChunks, config.chunkSize);
+            } else if (config.partitions > 0) {
+                this.dataQueue = null;
+                List<BlockingQueue<Data>> queues = new ArrayList<>();
+                for (int i = 0; i < config.partitions; i++) {
+                    queues.add(config.newQueue(QUEUE_CAPACITY));
+                }
+                this.lanes = queues;
+                this.chunkQueue = null;
+                this.chunkPool = null;
+            } else {
+                this.dataQueue = config.newQueue(QUEUE_CAPACITY);
+                this.lanes = null;
+                this.chunkQueue = null;
+                this.chunkPool = null;
+            }
+            System.out.println("Trasporto: " + config.transport +
+                               (config.columnar ? " (blocchi colonnari, nucleo " + BatchKernels.DEFAULT.name() + ")" : "") +
+                               (lanes != null ? " (" + lanes.size() + " partizioni)" : ""));
+        }
         
         public void start() {
             System.out.println("Avvio del sistema di elaborazione dati...");
+            startNanos = System.nanoTime();
+            
+            BlockingQueue<?> inputQueue = config.columnar ? chunkQueue : dataQueue;
+            if (config.flowControl) {
+                // Soglie all'80% e al 20% della capacità; ritmo iniziale pari a quello dei ritardi fissi
+                int capacity = inputQueue.remainingCapacity();
+                double initialRate = 0;
+                for (int i = 0; i < NUM_SOURCES; i++) {
+                    initialRate += 1000.0 / (100 + i * 50);
+                }
+                flowController = new FlowController(inputQueue, Math.max(2, capacity * 4 / 5),
+                                                    capacity / 5, NUM_SOURCES, initialRate, config.maxRate);
+            }
+            
+            // I worker partono prima dei generatori, così il log è collegato
+            // prima che arrivi qualsiasi dato e i dati ripresi hanno chi li elabora
+            // Crea e avvia il pool di worker
+            if (config.columnar) {
+                workerPool = new WorkerPool(NUM_WORKERS, chunkQueue, chunkPool, flowController,
+                                          chunk -> aggregator.addChunk(chunk, sourceRegistry));
+            } else if (lanes != null) {
+                workerPool = new WorkerPool(lanes, BATCH_SIZE, LINGER_MS, aggregator::addResults);
+            } else {
+                workerPool = new WorkerPool(NUM_WORKERS, dataQueue, BATCH_SIZE, LINGER_MS, flowController,
+                                          config.executionMode, config.maxInFlight, aggregator::addResults);
+            }
+            
+            if (config.autoscaling) {
+                workerPool.enableAutoscaling(new AutoscalePolicy(config.minWorkers, config.maxWorkers));
+            }
+            
+            if (config.walDirectory != null) {
+                openWriteAheadLog();
+            }
             
             // Crea e avvia i generatori di dati
             for (int i = 0; i < NUM_SOURCES; i++) {
                 String sourceName = "Fonte-" + i;
                 // Ogni fonte ha un ritardo diverso
                 int delay = 100 + i * 50;
-                DataGenerator generator = new DataGenerator(sourceName, dataQueue, delay);
+                DataGenerator generator = config.columnar
+                    ? new DataGenerator(sourceName, sourceRegistry.register(sourceName), chunkQueue, chunkPool,
+                                        delay, flowController)
+                    : new DataGenerator(sourceName, queueFor(sourceName), delay, flowController, wal);
+                if (config.arrivalPattern != null) {
+                    generator.setArrivals(new ArrivalSchedule(config.arrivalPattern, config.arrivalRate,
+                                                              config.burstOnMillis, config.burstOffMillis));
+                }
                 generators.add(generator);
                 
                 Thread thread = new Thread(generator, "Generator-" + i);
@@ -420,17 +4768,156 @@ public class SistemaElaborazioneDati {
                 thread.start();
             }
             
-            // Crea e avvia il pool di worker
-            workerPool = new WorkerPool(NUM_WORKERS, dataQueue, 
-                                      result -> aggregator.addResult(result, "Fonte-" + (result.getDataId() % NUM_SOURCES)));
+            publishMetrics();
             
-            // Crea e avvia la dashboard
-            dashboard = new Dashboard(dataQueue, aggregator, generators, workerPool);
-            dashboardThread = new Thread(dashboard, "Dashboard");
-            dashboardThread.start();
+            // Crea e avvia la dashboard, se richiesta
+            if (config.consoleReporter) {
+                dashboard = new Dashboard(inputQueue, aggregator, generators, workerPool,
+                                          config.windowType, config.windowMillis, flowController);
+                dashboardThread = new Thread(dashboard, "Dashboard");
+                dashboardThread.start();
+            }
             
             System.out.println("Sistema avviato con " + NUM_SOURCES + " fonti e " + 
-                              NUM_WORKERS + " worker");
+                              workerPool.getActiveWorkers() + " worker (batch da " + BATCH_SIZE + ")");
+        }
+        
+        /**
+         * Registra le metriche di tutti i componenti e le pubblica via JMX e,
+         * se è configurata una porta, su HTTP nel formato di Prometheus.
+         */
+        private void publishMetrics() {
+            metrics.register("sed_dati_generati_total", "Dati prodotti da ciascun generatore",
+                             MetricsRegistry.Type.COUNTER, (name, sink, scratch) -> {
+                for (int i = 0; i < generators.size(); i++) {
+                    DataGenerator generator = generators.get(i);
+                    sink.sample(name, "fonte", generator.getSourceName(), generator.getGeneratedCount());
+                }
+            });
+            metrics.register("sed_generatore_bloccato_secondi_total",
+                             "Tempo passato da ciascun generatore bloccato per backpressure",
+                             MetricsRegistry.Type.COUNTER, (name, sink, scratch) -> {
+                for (int i = 0; i < generators.size(); i++) {
+                    DataGenerator generator = generators.get(i);
+                    sink.sample(name, "fonte", generator.getSourceName(), generator.getBlockedNanos() / 1e9);
+                }
+            });
+            metrics.counter("sed_dati_elaborati_total", "Dati elaborati dai worker", workerPool::getProcessedCount);
+            metrics.counter("sed_errori_total", "Dati la cui elaborazione è fallita", workerPool::getErrorCount);
+            metrics.counter("sed_risultati_total", "Risultati aggregati", aggregator::getTotalResults);
+            metrics.gauge("sed_coda_profondita", "Elementi in attesa nelle code di input", workerPool::getQueueDepth);
+            metrics.gauge("sed_worker_attivi", "Worker in esecuzione", workerPool::getActiveWorkers);
+            metrics.summary("sed_attesa_coda_secondi", "Tempo di attesa in coda", workerPool.getQueueWaitHistogram());
+            metrics.summary("sed_elaborazione_secondi", "Tempo di elaborazione", workerPool.getServiceHistogram());
+            metrics.summary("sed_end_to_end_secondi", "Latenza dall'accodamento al risultato",
+                            workerPool.getEndToEndHistogram());
+            
+            // Statistiche per fonte: una famiglia per campo, un campione per fonte
+            sourceMetric("sed_fonte_risultati_total", "Risultati aggregati per fonte",
+                         MetricsRegistry.Type.COUNTER, totals -> totals[3]);
+            sourceMetric("sed_fonte_valore_medio", "Media dei valori elaborati per fonte",
+                         MetricsRegistry.Type.GAUGE, totals -> totals[3] > 0 ? totals[0] / totals[3] : 0);
+            sourceMetric("sed_fonte_valore_minimo", "Minimo dei valori elaborati per fonte",
+                         MetricsRegistry.Type.GAUGE, totals -> totals[3] > 0 ? totals[1] : 0);
+            sourceMetric("sed_fonte_valore_massimo", "Massimo dei valori elaborati per fonte",
+                         MetricsRegistry.Type.GAUGE, totals -> totals[3] > 0 ? totals[2] : 0);
+            sourceMetric("sed_fonte_elaborazione_secondi_total", "Tempo di elaborazione complessivo per fonte",
+                         MetricsRegistry.Type.COUNTER, totals -> totals[4] / 1e9);
+            
+            if (flowController != null) {
+                metrics.gauge("sed_crediti_disponibili", "Crediti del controllo di flusso",
+                              flowController::getAvailableCredits);
+                metrics.gauge("sed_ritmo_produttori", "Ritmo obiettivo dei produttori in elementi/s",
+                              flowController::getTargetRate);
+            }
+            if (wal != null) {
+                metrics.counter("sed_wal_record_total", "Record scritti nel log", wal::getAppendedCount);
+                metrics.counter("sed_wal_commit_total", "Commit su disco del log", wal::getForceCount);
+                metrics.gauge("sed_wal_checkpoint", "Sequenza del checkpoint del log", wal::getCheckpointSequence);
+            }
+            
+            try {
+                mbeanName = new ObjectName("SistemaElaborazioneDati:type=Metriche");
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), mbeanName);
+            } catch (JMException e) {
+                mbeanName = null;
+                System.err.println("Impossibile registrare l'MBean delle metriche: " + e.getMessage());
+            }
+            
+            if (config.metricsPort >= 0) {
+                try {
+                    prometheusExporter = new PrometheusExporter(metrics, config.metricsPort);
+                    System.out.println("Metriche Prometheus su http://localhost:" + prometheusExporter.getPort() +
+                                       "/metrics");
+                } catch (IOException e) {
+                    System.err.println("Impossibile avviare il server delle metriche: " + e.getMessage());
+                }
+            }
+        }
+        
+        private void sourceMetric(String name, String help, MetricsRegistry.Type type,
+                                  ToDoubleFunction<double[]> field) {
+            // Buffer del collettore: la raccolta del registro è sincronizzata
+            double[] totals = new double[5];
+            double[] cellValues = new double[5];
+            metrics.register(name, help, type, (metric, sink, scratch) ->
+                aggregator.forEachSource(totals, cellValues,
+                                         (source, values) -> sink.sample(metric, "fonte", source,
+                                                                         field.applyAsDouble(values))));
+        }
+        
+        public MetricsRegistry getMetricsRegistry() {
+            return metrics;
+        }
+        
+        /**
+         * Coda in cui finiscono i dati di una fonte: in modalità partizionata
+         * la partizione è scelta con l'hash del nome della fonte, così tutti i
+         * suoi dati seguono lo stesso percorso e restano in ordine.
+         */
+        private BlockingQueue<Data> queueFor(String source) {
+            if (lanes == null) return dataQueue;
+            return lanes.get(Math.floorMod(source.hashCode(), lanes.size()));
+        }
+        
+        /**
+         * Apre il log, lo collega ai worker e reinserisce nella coda i dati
+         * scritti ma non completati nell'esecuzione precedente. Possono
+         * essere fino a WriteAheadLog.PENDING_WINDOW e la coda è limitata:
+         * li reinserisce un thread a parte, così start() non attende che i
+         * worker li smaltiscano e generatori e dashboard partono subito.
+         */
+        private void openWriteAheadLog() {
+            try {
+                wal = new WriteAheadLog(Paths.get(config.walDirectory), config.walSegmentBytes,
+                                        config.syncPolicy, config.walCommitMs);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Impossibile aprire il log " + config.walDirectory, e);
+            }
+            workerPool.attachWriteAheadLog(wal);
+            
+            List<Data> recovered = wal.getRecovered();
+            System.out.println("Log " + config.walDirectory + " (" + config.syncPolicy + "): " +
+                               recovered.size() + " dati da riprendere dalla sequenza " +
+                               wal.getCheckpointSequence());
+            if (recovered.isEmpty()) return;
+            
+            Thread replay = new Thread(() -> {
+                try {
+                    for (Data data : recovered) {
+                        if (flowController != null) {
+                            flowController.acquire();
+                        }
+                        queueFor(data.getSource()).put(data);
+                    }
+                } catch (InterruptedException e) {
+                    // Arresto: i dati non reinseriti restano nel log
+                    Thread.currentThread().interrupt();
+                }
+            }, "WAL-Replay");
+            // Viene interrotto all'arresto insieme ai generatori
+            generatorThreads.add(replay);
+            replay.start();
         }
         
         public void shutdown() {
@@ -455,10 +4942,32 @@ public class SistemaElaborazioneDati {
             
             // Ferma il pool di worker
             workerPool.shutdown();
+            stopNanos = System.nanoTime();
+            
+            // I dati non completati restano nel log per la prossima esecuzione
+            if (wal != null) {
+                try {
+                    wal.close();
+                } catch (IOException e) {
+                    System.err.println("Errore nella chiusura del log: " + e.getMessage());
+                }
+            }
             
-            // Ferma la dashboard
-            dashboard.stop();
-            dashboardThread.interrupt();
+            // Ferma la dashboard e la pubblicazione delle metriche
+            if (dashboard != null) {
+                dashboard.stop();
+                dashboardThread.interrupt();
+            }
+            if (prometheusExporter != null) {
+                prometheusExporter.close();
+            }
+            if (mbeanName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+                } catch (JMException e) {
+                    System.err.println("Impossibile rimuovere l'MBean delle metriche: " + e.getMessage());
+                }
+            }
             
             System.out.println("Sistema arrestato");
         }
@@ -472,7 +4981,12 @@ public class SistemaElaborazioneDati {
                 DataGenerator generator = generators.get(i);
                 long count = generator.getGeneratedCount();
                 totalGenerated += count;
-                System.out.println("Fonte-" + i + ": " + count + " elementi generati");
+                System.out.printf("Fonte-%d: %d elementi generati, bloccata per backpressure %.1f ms%n",
+                                  i, count, generator.getBlockedNanos() / 1_000_000.0);
+                if (config.arrivalPattern != null) {
+                    System.out.println("  Ritardo sul programma di arrivi: " +
+                                       generator.getSendLagHistogram().snapshot().format());
+                }
             }
             
             // Statistiche di elaborazione
@@ -497,10 +5011,22 @@ public class SistemaElaborazioneDati {
             System.out.println("Totale generati: " + totalGenerated);
             System.out.println("Totale elaborati: " + workerPool.getProcessedCount());
             System.out.println("Totale risultati: " + aggregator.getTotalResults());
+            if (wal != null) {
+                System.out.println("Log: " + wal.getAppendedCount() + " sequenze, " + wal.getForceCount() +
+                                   " commit su disco, checkpoint alla sequenza " + wal.getCheckpointSequence());
+            }
             
             // Efficienza
             double efficiency = (double) workerPool.getProcessedCount() / totalGenerated * 100;
             System.out.printf("Efficienza: %.2f%%%n", efficiency);
+            
+            // Throughput e latenze sull'intera esecuzione
+            double seconds = (stopNanos - startNanos) / 1_000_000_000.0;
+            System.out.printf("Throughput medio: %.1f elementi/s%n", workerPool.getProcessedCount() / seconds);
+            System.out.println("\nLatenze:");
+            System.out.println("Attesa in coda: " + workerPool.getQueueWaitHistogram().snapshot().format());
+            System.out.println("Elaborazione:   " + workerPool.getServiceHistogram().snapshot().format());
+            System.out.println("End-to-end:     " + workerPool.getEndToEndHistogram().snapshot().format());
         }
     }
 }
\ No newline at end of file